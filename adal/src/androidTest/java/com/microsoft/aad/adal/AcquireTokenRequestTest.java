@@ -178,6 +178,8 @@ public final class AcquireTokenRequestTest {
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
         Logger.getInstance().setExternalLogger(null);
         AuthenticationSettings.INSTANCE.setUseBroker(false);
+        TokenEndpointCircuitBreaker.clear();
+        TokenRequestFailureCache.clear();
     }
 
     /**
@@ -122,6 +122,8 @@ public final class AcquireTokenSilentHandlerTest {
     @After
     public void tearDown() {
         AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        TokenEndpointCircuitBreaker.clear();
+        TokenRequestFailureCache.clear();
     }
 
     /**
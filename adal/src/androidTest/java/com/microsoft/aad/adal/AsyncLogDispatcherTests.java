@@ -0,0 +1,184 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncLogDispatcherTests {
+
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void testRingBuffer() {
+        final AsyncLogDispatcher.RingBuffer<Integer> buffer = new AsyncLogDispatcher.RingBuffer<>(3);
+        assertEquals("Capacity is rounded up to a power of two", 4, buffer.capacity());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer(i));
+            }
+            assertFalse("Buffer is full", buffer.offer(4));
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), buffer.poll());
+            }
+            assertNull("Buffer is empty", buffer.poll());
+        }
+    }
+
+    @Test
+    public void testMessagesDeliveredInOrderOnDispatcherThread() {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(64, Logger.DropPolicy.DropNewest,
+                new AsyncLogDispatcher.Sink() {
+                    @Override
+                    public void deliver(final String tag, final String message, final Logger.LogLevel level) {
+                        messages.add(message);
+                        threads.add(Thread.currentThread());
+                    }
+                }, new AtomicLong());
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(dispatcher.dispatch("tag", "message" + i, Logger.LogLevel.Info));
+        }
+
+        assertTrue(dispatcher.flush(FLUSH_TIMEOUT_MILLIS));
+        assertEquals(50, messages.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("message" + i, messages.get(i));
+            assertFalse(threads.get(i) == Thread.currentThread());
+        }
+
+        dispatcher.stop();
+        assertFalse("Stopped dispatcher leaves the message to the caller",
+                dispatcher.dispatch("tag", "late", Logger.LogLevel.Info));
+    }
+
+    @Test
+    public void testNoMessageLostWhenStoppedWhileDispatching() throws InterruptedException {
+        final int producerCount = 4;
+        final int messagesPerProducer = 500;
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong leftToCaller = new AtomicLong();
+        final AtomicLong droppedCount = new AtomicLong();
+        final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(producerCount * messagesPerProducer,
+                Logger.DropPolicy.DropNewest, new AsyncLogDispatcher.Sink() {
+                    @Override
+                    public void deliver(final String tag, final String message, final Logger.LogLevel level) {
+                        delivered.incrementAndGet();
+                    }
+                }, droppedCount);
+
+        final CountDownLatch started = new CountDownLatch(producerCount);
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            final Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < messagesPerProducer; i++) {
+                        if (!dispatcher.dispatch("tag", "message" + i, Logger.LogLevel.Info)) {
+                            leftToCaller.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        assertTrue(started.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        dispatcher.stop();
+        for (final Thread producer : producers) {
+            producer.join(FLUSH_TIMEOUT_MILLIS);
+        }
+
+        assertTrue(dispatcher.flush(FLUSH_TIMEOUT_MILLIS));
+        assertEquals(0, droppedCount.get());
+        assertEquals(producerCount * messagesPerProducer, delivered.get() + leftToCaller.get());
+    }
+
+    @Test
+    public void testDropPolicies() throws InterruptedException {
+        assertEquals(Arrays.asList("blocking", "m1", "m2"),
+                getDeliveredMessages(Logger.DropPolicy.DropNewest,
+                        new String[]{"blocking", "m1", "m2", "m3", "m4"}));
+        assertEquals(Arrays.asList("blocking", "m3", "m4"),
+                getDeliveredMessages(Logger.DropPolicy.DropOldest,
+                        new String[]{"blocking", "m1", "m2", "m3", "m4"}));
+    }
+
+    /**
+     * Delivers the messages through a two-message buffer while the first message blocks the logger.
+     */
+    private static List<String> getDeliveredMessages(final Logger.DropPolicy dropPolicy, final String[] messages)
+            throws InterruptedException {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch firstDelivered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong droppedCount = new AtomicLong();
+        final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(2, dropPolicy, new AsyncLogDispatcher.Sink() {
+            @Override
+            public void deliver(final String tag, final String message, final Logger.LogLevel level) {
+                delivered.add(message);
+                firstDelivered.countDown();
+                try {
+                    release.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, droppedCount);
+
+        dispatcher.dispatch("tag", messages[0], Logger.LogLevel.Info);
+        assertTrue(firstDelivered.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        for (int i = 1; i < messages.length; i++) {
+            assertTrue(dispatcher.dispatch("tag", messages[i], Logger.LogLevel.Info));
+        }
+
+        assertEquals(2, droppedCount.get());
+        release.countDown();
+        assertTrue(dispatcher.flush(FLUSH_TIMEOUT_MILLIS));
+        dispatcher.stop();
+        return new ArrayList<>(delivered);
+    }
+}
@@ -69,11 +69,13 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -90,6 +92,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
@@ -216,6 +220,8 @@ public final class AuthenticationContextTest {
     public void tearDown() throws Exception {
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
         Logger.getInstance().setExternalLogger(null);
+        TokenEndpointCircuitBreaker.clear();
+        TokenRequestFailureCache.clear();
     }
 
     /**
@@ -755,12 +761,235 @@ public final class AuthenticationContextTest {
     }
 
 
-    /**
-     * Test throws for different missing arguments
-     *
-     * @throws InterruptedException
-     * @throws IOException
-     */
+    @Test
+    public void testProactiveTokenRefresh() throws IOException, InterruptedException, JSONException {
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final String resource = "resource";
+        final String clientId = "clientId";
+        // Expires within the expiration buffer, so it is refreshed without delay
+        final ITokenCacheStore cache = getMockCache(1, "token", resource, clientId, TEST_IDTOKEN_USERID, false);
+        final AuthenticationContext context = getAuthenticationContext(mockContext, VALID_AUTHORITY, false, cache);
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(Mockito.mock(OutputStream.class));
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(Util.createInputStream(Util.getSuccessTokenResponse(false, false)));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final String key = CacheKey.createCacheKeyForRTEntry(VALID_AUTHORITY, resource, clientId, TEST_IDTOKEN_USERID);
+        context.enableProactiveTokenRefresh(clientId);
+        try {
+            final long deadline = System.currentTimeMillis() + CONTEXT_REQUEST_TIME_OUT;
+            while (!"I am a new access token".equals(cache.getItem(key).getAccessToken())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        } finally {
+            context.disableProactiveTokenRefresh();
+        }
+
+        assertEquals("Token is refreshed in the background", "I am a new access token",
+                cache.getItem(key).getAccessToken());
+        clearCache(context);
+    }
+
+    @Test
+    public void testProactiveTokenRefreshWithAliasedAuthority() throws IOException, InterruptedException, JSONException {
+        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        final List<String> aliases = new ArrayList<>();
+        aliases.add("login.microsoftonline.com");
+        aliases.add("login.windows.net");
+        final InstanceDiscoveryMetadata metadata = new InstanceDiscoveryMetadata("login.microsoftonline.com",
+                "login.windows.net", aliases);
+        for (final String alias : aliases) {
+            AuthorityValidationMetadataCache.updateInstanceDiscoveryMap(alias, metadata);
+        }
+
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final String resource = "resource";
+        final String clientId = "clientId";
+        // The token is cached under the preferred cache location login.windows.net
+        final ITokenCacheStore cache = getMockCache(1, "token", resource, clientId, TEST_IDTOKEN_USERID, false);
+        final AuthenticationContext context = getAuthenticationContext(mockContext,
+                "https://login.microsoftonline.com/test.onmicrosoft.com", false, cache);
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(Mockito.mock(OutputStream.class));
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(Util.createInputStream(Util.getSuccessTokenResponse(false, false)));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final String key = CacheKey.createCacheKeyForRTEntry(VALID_AUTHORITY, resource, clientId, TEST_IDTOKEN_USERID);
+        context.enableProactiveTokenRefresh(clientId);
+        try {
+            final long deadline = System.currentTimeMillis() + CONTEXT_REQUEST_TIME_OUT;
+            while (!"I am a new access token".equals(cache.getItem(key).getAccessToken())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        } finally {
+            context.disableProactiveTokenRefresh();
+            AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        }
+
+        assertEquals("Token cached under an alias of the authority is refreshed", "I am a new access token",
+                cache.getItem(key).getAccessToken());
+        clearCache(context);
+    }
+
+    @Test
+    public void testPrefetch() throws IOException, InterruptedException {
+        AuthorityValidationMetadataCache.clearAuthorityValidationCache();
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final String authority = "https://login.somewhere.com/tenant";
+        final AuthenticationContext context = getAuthenticationContext(mockContext, authority, true,
+                new DefaultTokenCacheStore(getInstrumentation().getContext()));
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(
+                Util.createInputStream("{\"tenant_discovery_endpoint\":\"valid endpoint\"}"));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final CountDownLatch signal = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        context.prefetch("clientId", null, new AuthenticationCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                signal.countDown();
+            }
+
+            @Override
+            public void onError(final Exception exc) {
+                error.set(exc);
+                signal.countDown();
+            }
+        });
+
+        assertTrue(signal.await(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS));
+        assertNull(error.get());
+        assertTrue("Authority is validated before any token request",
+                AuthorityValidationMetadataCache.isAuthorityValidated(new URL(authority)));
+        Mockito.verify(mockedConnection, Mockito.times(1)).getInputStream();
+    }
+
+    @Test
+    public void testAcquireTokensSilentSync() throws IOException, InterruptedException, AuthenticationException,
+            JSONException {
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final String clientId = "clientId";
+        final ITokenCacheStore cache = getMockCache(60, "token", "resource", clientId, TEST_IDTOKEN_USERID, false);
+        final TokenCacheItem mrrtTokenCacheItem = Util.getTokenCacheItem(VALID_AUTHORITY, null, clientId,
+                TEST_IDTOKEN_USERID, TEST_IDTOKEN_UPN);
+        mrrtTokenCacheItem.setAccessToken(null);
+        mrrtTokenCacheItem.setIsMultiResourceRefreshToken(true);
+        cache.setItem(CacheKey.createCacheKeyForMRRT(VALID_AUTHORITY, clientId, TEST_IDTOKEN_USERID), mrrtTokenCacheItem);
+        final AuthenticationContext context = getAuthenticationContext(mockContext, VALID_AUTHORITY, false, cache);
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(Mockito.mock(OutputStream.class));
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(Util.createInputStream(Util.getSuccessTokenResponse(true, false)),
+                Util.createInputStream(Util.getSuccessTokenResponse(true, false)));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final Map<String, AuthenticationResult> results = context.acquireTokensSilentSync(
+                Arrays.asList("resource", "resource2", "resource3", "resource2"), clientId, TEST_IDTOKEN_USERID);
+
+        assertEquals("Duplicated resources are acquired once", Arrays.asList("resource", "resource2", "resource3"),
+                new ArrayList<>(results.keySet()));
+        assertEquals("Valid token is read from the cache", "token", results.get("resource").getAccessToken());
+        assertEquals("I am a new access token", results.get("resource2").getAccessToken());
+        assertEquals("I am a new access token", results.get("resource3").getAccessToken());
+        Mockito.verify(mockedConnection, Mockito.times(2)).getInputStream();
+        clearCache(context);
+    }
+
+    @Test
+    public void testAcquireTokensSilentSyncCacheFailure() throws InterruptedException {
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final ITokenCacheStore cache = Mockito.mock(ITokenCacheStore.class);
+        Mockito.when(cache.getItem(Mockito.anyString())).thenThrow(new IllegalStateException("cache failure"));
+        final AuthenticationContext context = getAuthenticationContext(mockContext, VALID_AUTHORITY, false, cache);
+
+        try {
+            context.acquireTokensSilentSync(Arrays.asList("resource", "resource2"), "clientId", TEST_IDTOKEN_USERID);
+            Assert.fail("Expected cache failure");
+        } catch (final AuthenticationException exception) {
+            assertEquals(ADALError.ERROR_SILENT_REQUEST, exception.getCode());
+            assertTrue(exception.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testAcquireTokenSilentAsyncWithDeadline() throws IOException, InterruptedException,
+            ExecutionException, JSONException {
+        final FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
+        final String clientId = "clientId";
+        final ITokenCacheStore cache = getMockCache(60, "token", "resource", clientId, TEST_IDTOKEN_USERID, false);
+        final TokenCacheItem mrrtTokenCacheItem = Util.getTokenCacheItem(VALID_AUTHORITY, null, clientId,
+                TEST_IDTOKEN_USERID, TEST_IDTOKEN_UPN);
+        mrrtTokenCacheItem.setAccessToken(null);
+        mrrtTokenCacheItem.setIsMultiResourceRefreshToken(true);
+        cache.setItem(CacheKey.createCacheKeyForMRRT(VALID_AUTHORITY, clientId, TEST_IDTOKEN_USERID), mrrtTokenCacheItem);
+        final AuthenticationContext context = getAuthenticationContext(mockContext, VALID_AUTHORITY, false, cache);
+
+        // Cached token is returned before the deadline
+        final Future<AuthenticationResult> cachedResult = context.acquireTokenSilentAsync("resource", clientId,
+                TEST_IDTOKEN_USERID, 10, TimeUnit.SECONDS, null);
+        assertEquals("token", cachedResult.get(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS).getAccessToken());
+
+        // Token endpoint never answers, the request fails at its deadline
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+        Mockito.when(mockedConnection.getOutputStream()).thenReturn(Mockito.mock(OutputStream.class));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        Mockito.when(mockedConnection.getInputStream()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                release.await(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS);
+                return Util.createInputStream(Util.getSuccessTokenResponse(true, false));
+            }
+        });
+
+        final AtomicReference<Exception> callbackError = new AtomicReference<>();
+        final CountDownLatch signal = new CountDownLatch(1);
+        final Future<AuthenticationResult> expiredResult = context.acquireTokenSilentAsync("resource2", clientId,
+                TEST_IDTOKEN_USERID, 500, TimeUnit.MILLISECONDS, new AuthenticationCallback<AuthenticationResult>() {
+                    @Override
+                    public void onSuccess(final AuthenticationResult result) {
+                        signal.countDown();
+                    }
+
+                    @Override
+                    public void onError(final Exception exc) {
+                        callbackError.set(exc);
+                        signal.countDown();
+                    }
+                });
+
+        try {
+            expiredResult.get(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS);
+            fail("Request should not complete before its deadline");
+        } catch (final ExecutionException exception) {
+            assertEquals(ADALError.REQUEST_DEADLINE_EXCEEDED, ((AuthenticationException) exception.getCause()).getCode());
+        } catch (final TimeoutException exception) {
+            fail("Future should complete at the deadline");
+        } finally {
+            release.countDown();
+        }
+
+        assertTrue(signal.await(CONTEXT_REQUEST_TIME_OUT, TimeUnit.MILLISECONDS));
+        assertEquals(ADALError.REQUEST_DEADLINE_EXCEEDED, ((AuthenticationException) callbackError.get()).getCode());
+        clearCache(context);
+    }
+
     @Test
     public void testAcquireTokenByRefreshTokenPositive() throws IOException, InterruptedException, JSONException {
         FileMockContext mockContext = new FileMockContext(getInstrumentation().getContext());
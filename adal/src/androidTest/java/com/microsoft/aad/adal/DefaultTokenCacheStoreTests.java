@@ -31,6 +31,7 @@ import androidx.test.InstrumentationRegistry;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import com.microsoft.identity.common.adal.internal.cache.StorageHelper;
+import com.microsoft.identity.common.internal.cache.SharedPreferencesFileManager;
 
 import org.junit.After;
 import org.junit.Before;
@@ -54,6 +55,7 @@ import javax.crypto.NoSuchPaddingException;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -219,6 +221,119 @@ public class DefaultTokenCacheStoreTests extends BaseTokenStoreTests {
         assertEquals("token size", 1, expireTokenList.size());
     }
 
+    @Test
+    public void testQueriesReflectChangesFromOtherInstance() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+        assertEquals("token size", 1, store.getTokensForResource("resource").size());
+
+        final DefaultTokenCacheStore otherStore = new DefaultTokenCacheStore(getContext());
+        otherStore.removeItem(CacheKey.createCacheKey(getTestItem()));
+
+        final TokenCacheItem newItem = new TokenCacheItem(getTestItem());
+        newItem.setResource("resource3");
+        otherStore.setItem(CacheKey.createCacheKey(newItem), newItem);
+
+        assertEquals("token size", 0, store.getTokensForResource("resource").size());
+        assertEquals("token size", 1, store.getTokensForResource("resource3").size());
+        assertEquals("token size", 2, store.getTokensForUser("USERID1").size());
+        assertEquals("token size", 1, store.getTokensForClientId("clientid").size());
+    }
+
+    @Test
+    public void testQueriesReflectWritesAfterIndexIsLoaded() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+        assertEquals("token size", 1, store.getTokensForResource("resource").size());
+
+        final TokenCacheItem newItem = new TokenCacheItem(getTestItem());
+        newItem.setResource("resource3");
+        final TokenCacheBatch batch = new TokenCacheBatch();
+        batch.remove(CacheKey.createCacheKey(getTestItem()));
+        batch.put(CacheKey.createCacheKey(newItem), newItem);
+        store.applyBatch(batch);
+
+        assertEquals("token size", 0, store.getTokensForResource("resource").size());
+        assertEquals("token size", 1, store.getTokensForResource("resource3").size());
+
+        store.removeItem(CacheKey.createCacheKey(newItem));
+        assertEquals("token size", 0, store.getTokensForResource("resource3").size());
+        assertEquals("token size", 0, store.getTokensForClientId("clientid").size());
+    }
+
+    @Test
+    public void testApplyBatchIsVisibleToOtherInstances() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+
+        final TokenCacheItem newItem = new TokenCacheItem(getTestItem());
+        newItem.setResource("resource3");
+        final TokenCacheBatch batch = new TokenCacheBatch();
+        batch.remove(CacheKey.createCacheKey(getTestItem()));
+        batch.put(CacheKey.createCacheKey(newItem), newItem);
+        store.applyBatch(batch);
+
+        final DefaultTokenCacheStore otherStore = new DefaultTokenCacheStore(getContext());
+        assertNull(otherStore.getItem(CacheKey.createCacheKey(getTestItem())));
+        assertEquals("token content", "token", otherStore.getItem(CacheKey.createCacheKey(newItem)).getAccessToken());
+        assertTrue(otherStore.contains(CacheKey.createCacheKey(newItem)));
+    }
+
+    @Test
+    public void testQueriesReflectWritesMadeOutsideTheStore() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+        assertEquals("token size", 1, store.getTokensForResource("resource").size());
+
+        // The common cache writes the same preferences file without going through the store.
+        final SharedPreferencesFileManager prefs = SharedPreferencesFileManager.getSharedPreferences(
+                getContext(), "com.microsoft.aad.adal.cache", null);
+        final String key = CacheKey.createCacheKey(getTestItem());
+        final String encryptedItem = prefs.getString(key);
+        prefs.remove(key);
+
+        assertEquals("token size", 0, store.getTokensForResource("resource").size());
+        assertEquals("token size", 1, store.getTokensForUser("userid1").size());
+
+        prefs.putString("externalKey", encryptedItem);
+
+        assertEquals("token size", 1, store.getTokensForResource("resource").size());
+        assertEquals("token size", 2, store.getTokensForUser("userid1").size());
+        assertEquals("token content", "token", store.getItem("externalKey").getAccessToken());
+    }
+
+    @Test
+    public void testQueryResultsAreNotShared() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+
+        final TokenCacheItem item = store.getTokensForResource("resource").get(0);
+        item.setResource("changed");
+        item.setAccessToken("changed");
+
+        final List<TokenCacheItem> tokens = store.getTokensForResource("resource");
+        assertEquals("token size", 1, tokens.size());
+        assertEquals("token content", "token", tokens.get(0).getAccessToken());
+        assertEquals("token size", 0, store.getTokensForResource("changed").size());
+    }
+
+    @Test
+    public void testGetItemReusesDecryptedItem() throws AuthenticationException {
+        final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
+        final String key = CacheKey.createCacheKey(getTestItem());
+
+        assertEquals("token content", "token", store.getItem(key).getAccessToken());
+        assertEquals("token content", "token", store.getItem(key).getAccessToken());
+        assertEquals("hit count", 2, store.getDecryptedItemCacheHitCount());
+        assertEquals("miss count", 0, store.getDecryptedItemCacheMissCount());
+
+        final DefaultTokenCacheStore otherStore = new DefaultTokenCacheStore(getContext());
+        final TokenCacheItem updatedItem = new TokenCacheItem(getTestItem());
+        updatedItem.setAccessToken("updatedToken");
+        otherStore.setItem(key, updatedItem);
+
+        assertEquals("token content", "updatedToken", store.getItem(key).getAccessToken());
+        assertEquals("miss count", 1, store.getDecryptedItemCacheMissCount());
+
+        otherStore.removeItem(key);
+        assertNull("Token cache item is expected to be null", store.getItem(key));
+    }
+
     @Test
     public void testClearTokensForUser() throws AuthenticationException {
         final DefaultTokenCacheStore store = (DefaultTokenCacheStore) setupItems();
@@ -37,20 +37,28 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -66,6 +74,8 @@ import static org.junit.Assert.fail;
 @RunWith(AndroidJUnit4.class)
 public class DiscoveryTests extends AndroidTestHelper {
 
+    private static final long CONCURRENT_REQUEST_TIME_OUT_SECONDS = 5;
+
     @Before
     public void setUp() throws Exception {
         AuthorityValidationMetadataCache.clearAuthorityValidationCache();
@@ -104,6 +114,30 @@ public class DiscoveryTests extends AndroidTestHelper {
         }
     }
 
+    @Test
+    public void testValidateAuthorityWithPersistedMetadata() throws IOException, AuthenticationException {
+        final FileMockContext context = new FileMockContext(androidx.test.platform.app.InstrumentationRegistry.getInstrumentation().getContext());
+        final Discovery discovery = new Discovery(context);
+
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+
+        final String response = "{\"tenant_discovery_endpoint\":\"valid endpoint\"}";
+        Mockito.when(mockedConnection.getInputStream()).thenReturn(Util.createInputStream(response));
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final URL testingURL = new URL("https://login.somewhere.com/path");
+        discovery.validateAuthority(testingURL);
+
+        // Simulate a new process: the in-memory metadata is gone but the persisted one is still there.
+        AuthorityValidationMetadataCache.removeAuthorityHost(testingURL);
+        new Discovery(context).validateAuthority(testingURL);
+
+        Mockito.verify(mockedConnection, Mockito.times(1)).getInputStream();
+        assertTrue(AuthorityValidationMetadataCache.isAuthorityValidated(testingURL));
+    }
+
     /**
      * instance that is in the list with different path
      *
@@ -322,6 +356,49 @@ public class DiscoveryTests extends AndroidTestHelper {
         Mockito.verify(mockedConnection, Mockito.times(1)).getInputStream();
     }
 
+    // Test when two threads validate different authority hosts, the discovery requests are sent concurrently.
+    @Test
+    public void testValidateDifferentAuthorityHostsConcurrently() throws IOException, InterruptedException, ExecutionException {
+        final HttpURLConnection mockedConnection = Mockito.mock(HttpURLConnection.class);
+        HttpUrlConnectionFactory.setMockedHttpUrlConnection(mockedConnection);
+        Util.prepareMockedUrlConnection(mockedConnection);
+
+        final CountDownLatch requestsInFlight = new CountDownLatch(2);
+        final AtomicInteger concurrentRequests = new AtomicInteger();
+        Mockito.when(mockedConnection.getInputStream()).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(final InvocationOnMock invocation) throws Throwable {
+                requestsInFlight.countDown();
+                if (requestsInFlight.await(CONCURRENT_REQUEST_TIME_OUT_SECONDS, TimeUnit.SECONDS)) {
+                    concurrentRequests.incrementAndGet();
+                }
+
+                return Util.createInputStream("{\"tenant_discovery_endpoint\":\"valid endpoint\"}");
+            }
+        });
+        Mockito.when(mockedConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (final String authority : new String[]{"https://login.somewhere.com/path", "https://login.elsewhere.com/path"}) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final FileMockContext context = new FileMockContext(androidx.test.platform.app.InstrumentationRegistry.getInstrumentation().getContext());
+                    new Discovery(context).validateAuthority(new URL(authority));
+                    return null;
+                }
+            });
+        }
+
+        for (final Future<Void> result : executorService.invokeAll(tasks)) {
+            result.get();
+        }
+
+        executorService.shutdown();
+        assertEquals("Both discovery requests are in flight at the same time", 2, concurrentRequests.get());
+    }
+
     /**
      * Verified scenario:
      * When an authority is valid and metadata is returned:
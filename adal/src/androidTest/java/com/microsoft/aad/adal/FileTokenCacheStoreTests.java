@@ -37,7 +37,9 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 
@@ -101,6 +103,25 @@ public class FileTokenCacheStoreTests extends AndroidTestHelper {
         store.setItem(CacheKey.createCacheKey(mTestItem2), mTestItem2);
     }
 
+    private File writeSerializedCache(final String fileName, final int itemCount) throws IOException {
+        final File directory = mTargetContex.getDir(mTargetContex.getPackageName(), Context.MODE_PRIVATE);
+        final File cacheFile = new File(directory, fileName);
+        final MemoryTokenCacheStore legacyCache = new MemoryTokenCacheStore();
+        for (int i = 0; i < itemCount; i++) {
+            final TokenCacheItem item = new TokenCacheItem();
+            item.setAccessToken("token" + i);
+            item.setAuthority("authority");
+            item.setClientId("clientid");
+            item.setResource("resource" + i);
+            legacyCache.setItem("key" + i, item);
+        }
+
+        final ObjectOutputStream objectStream = new ObjectOutputStream(new FileOutputStream(cacheFile));
+        objectStream.writeObject(legacyCache);
+        objectStream.close();
+        return cacheFile;
+    }
+
     @Test
     public void testFileCacheWriteError() {
         final FileMockContext mockContext = new FileMockContext(mTargetContex);
@@ -148,6 +169,213 @@ public class FileTokenCacheStoreTests extends AndroidTestHelper {
         assertTrue("Verify message ", logger.getLogMessage().contains(msgToCheck));
     }
 
+    @Test
+    public void testLoadingFromSerializedCacheFile() throws Exception {
+        final String file = FILE_DEFAULT_NAME + "testSerializedFormat";
+        final File directory = mTargetContex.getDir(mTargetContex.getPackageName(), Context.MODE_PRIVATE);
+        final File cacheFile = new File(directory, file);
+
+        final MemoryTokenCacheStore legacyCache = new MemoryTokenCacheStore();
+        final TokenCacheItem legacyItem = new TokenCacheItem();
+        legacyItem.setAccessToken("legacyToken");
+        legacyItem.setAuthority("authority");
+        legacyItem.setClientId("clientid");
+        legacyItem.setResource("resource");
+        legacyCache.setItem("legacyKey", legacyItem);
+        final ObjectOutputStream objectStream = new ObjectOutputStream(new FileOutputStream(cacheFile));
+        objectStream.writeObject(legacyCache);
+        objectStream.close();
+
+        ITokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("legacyToken", store.getItem("legacyKey").getAccessToken());
+        assertEquals(TokenCacheFileLog.Format.LOG, new TokenCacheFileLog(cacheFile).detectFormat());
+
+        // Migrated file is readable as a log
+        store = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("legacyToken", store.getItem("legacyKey").getAccessToken());
+        store.removeAll();
+    }
+
+    @Test
+    public void testLoadingCompactedLog() throws Exception {
+        final String file = FILE_DEFAULT_NAME + "testCompactedLog";
+        writeSerializedCache(file, 3);
+
+        // Migration rewrites the items as a compacted log
+        ITokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("token1", store.getItem("key1").getAccessToken());
+
+        store = new FileTokenCacheStore(mTargetContex, file);
+        assertTrue(store.contains("key0"));
+        assertFalse(store.contains("missingKey"));
+        store.removeItem("key0");
+        assertFalse(store.contains("key0"));
+
+        store = new FileTokenCacheStore(mTargetContex, file);
+        assertFalse(store.contains("key0"));
+        assertEquals("token1", store.getItem("key1").getAccessToken());
+        assertEquals("resource2", store.getItem("key2").getResource());
+        store.removeAll();
+    }
+
+    @Test
+    public void testLoadingCompactedLogWithCorruptedItem() throws Exception {
+        final String file = FILE_DEFAULT_NAME + "testCorruptedCompactedLog";
+        final File cacheFile = writeSerializedCache(file, 3);
+        new FileTokenCacheStore(mTargetContex, file);
+
+        // Flip the last byte of the last compacted item
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "rw");
+        randomAccessFile.seek(cacheFile.length() - 1);
+        final int lastByte = randomAccessFile.read();
+        randomAccessFile.seek(cacheFile.length() - 1);
+        randomAccessFile.write(~lastByte);
+        randomAccessFile.close();
+
+        // Only the corrupted item is dropped, when it is accessed
+        final ITokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+        int count = 0;
+        for (int i = 0; i < 3; i++) {
+            final TokenCacheItem item = store.getItem("key" + i);
+            if (item != null) {
+                assertEquals("token" + i, item.getAccessToken());
+                count++;
+            }
+        }
+        assertEquals(2, count);
+        store.removeAll();
+    }
+
+    @Test
+    public void testLoadingWithCorruptedTail() throws Exception {
+        final String file = FILE_DEFAULT_NAME + "testCorruptedTail";
+        setupCache(file);
+        final File directory = mTargetContex.getDir(mTargetContex.getPackageName(), Context.MODE_PRIVATE);
+        final File cacheFile = new File(directory, file);
+        final long validLength = cacheFile.length();
+
+        // Simulate a write interrupted by a crash
+        final FileOutputStream outputStream = new FileOutputStream(cacheFile, true);
+        outputStream.write(new byte[]{1, 0, 0, 0x10, 0, 'x', 'y'});
+        outputStream.close();
+
+        ITokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("Corrupted tail is cut off", validLength, cacheFile.length());
+        assertNotNull(store.getItem(CacheKey.createCacheKey(mCacheItem)));
+        assertNotNull(store.getItem(CacheKey.createCacheKey(mTestItem2)));
+
+        store.removeItem(CacheKey.createCacheKey(mCacheItem));
+        store = new FileTokenCacheStore(mTargetContex, file);
+        assertNull(store.getItem(CacheKey.createCacheKey(mCacheItem)));
+        assertNotNull(store.getItem(CacheKey.createCacheKey(mTestItem2)));
+        store.removeAll();
+    }
+
+    @Test
+    public void testCoalescedWritesAreCommittedOnFlush() throws AuthenticationException {
+        final String file = FILE_DEFAULT_NAME + "testCoalescedWrites";
+        setupCache(file);
+        final long coalescingWindowMillis = 60000;
+        final FileTokenCacheStore store = new FileTokenCacheStore(mTargetContex, file,
+                coalescingWindowMillis, FileTokenCacheStore.DurabilityPolicy.SYNC_ON_COMMIT);
+
+        final TokenCacheItem updatedItem = new TokenCacheItem(mCacheItem);
+        updatedItem.setAccessToken("updatedToken");
+        store.setItem(CacheKey.createCacheKey(mCacheItem), updatedItem);
+        store.removeItem(CacheKey.createCacheKey(mTestItem2));
+        assertEquals("updatedToken", store.getItem(CacheKey.createCacheKey(mCacheItem)).getAccessToken());
+
+        // Nothing is written until the window elapses or flush is called
+        ITokenCacheStore reloaded = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("token", reloaded.getItem(CacheKey.createCacheKey(mCacheItem)).getAccessToken());
+        assertNotNull(reloaded.getItem(CacheKey.createCacheKey(mTestItem2)));
+
+        store.flush();
+        reloaded = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("updatedToken", reloaded.getItem(CacheKey.createCacheKey(mCacheItem)).getAccessToken());
+        assertNull(reloaded.getItem(CacheKey.createCacheKey(mTestItem2)));
+        reloaded.removeAll();
+    }
+
+    @Test
+    public void testApplyBatch() throws AuthenticationException {
+        final String file = FILE_DEFAULT_NAME + "testApplyBatch";
+        setupCache(file);
+        final FileTokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+
+        final TokenCacheItem updatedItem = new TokenCacheItem(mCacheItem);
+        updatedItem.setAccessToken("updatedToken");
+        final TokenCacheItem newItem = new TokenCacheItem(mTestItem2);
+        newItem.setResource("resource3");
+        final TokenCacheBatch batch = new TokenCacheBatch()
+                .put(CacheKey.createCacheKey(updatedItem), updatedItem)
+                .remove(CacheKey.createCacheKey(mTestItem2))
+                .put(CacheKey.createCacheKey(newItem), newItem);
+        assertEquals(3, batch.size());
+        store.applyBatch(batch);
+
+        assertEquals("updatedToken", store.getItem(CacheKey.createCacheKey(mCacheItem)).getAccessToken());
+        assertNull(store.getItem(CacheKey.createCacheKey(mTestItem2)));
+
+        final ITokenCacheStore reloaded = new FileTokenCacheStore(mTargetContex, file);
+        assertEquals("updatedToken", reloaded.getItem(CacheKey.createCacheKey(mCacheItem)).getAccessToken());
+        assertNull(reloaded.getItem(CacheKey.createCacheKey(mTestItem2)));
+        assertEquals("resource3", reloaded.getItem(CacheKey.createCacheKey(newItem)).getResource());
+        reloaded.removeAll();
+    }
+
+    @Test
+    public void testWritesDuringCompactionArePreserved() throws AuthenticationException {
+        final String file = FILE_DEFAULT_NAME + "testWritesDuringCompaction";
+        setupCache(file);
+        final FileTokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+
+        // Enough commits to start several background compactions while writing.
+        final int writeCount = 300;
+        final int keyCount = 3;
+        for (int i = 0; i < writeCount; i++) {
+            final TokenCacheItem item = new TokenCacheItem(mCacheItem);
+            item.setAccessToken("token" + i);
+            store.setItem("key" + (i % keyCount), item);
+        }
+
+        final ITokenCacheStore reloaded = new FileTokenCacheStore(mTargetContex, file);
+        for (int i = writeCount - keyCount; i < writeCount; i++) {
+            assertEquals("token" + i, reloaded.getItem("key" + (i % keyCount)).getAccessToken());
+        }
+        assertNotNull(reloaded.getItem(CacheKey.createCacheKey(mTestItem2)));
+        reloaded.removeAll();
+    }
+
+    @Test
+    public void testItemsNotAccessedAfterLoadArePreserved() throws AuthenticationException {
+        final String file = FILE_DEFAULT_NAME + "testLazyLoad";
+        setupCache(file);
+
+        ITokenCacheStore store = new FileTokenCacheStore(mTargetContex, file);
+        assertTrue(store.contains(CacheKey.createCacheKey(mCacheItem)));
+        store.removeItem(CacheKey.createCacheKey(mCacheItem));
+        final TokenCacheItem newItem = new TokenCacheItem(mTestItem2);
+        newItem.setResource("resource3");
+        store.setItem(CacheKey.createCacheKey(newItem), newItem);
+
+        // mTestItem2 was never accessed through the store
+        store = new FileTokenCacheStore(mTargetContex, file);
+        assertFalse(store.contains(CacheKey.createCacheKey(mCacheItem)));
+        assertEquals("token2", store.getItem(CacheKey.createCacheKey(mTestItem2)).getAccessToken());
+        assertEquals("resource3", store.getItem(CacheKey.createCacheKey(newItem)).getResource());
+        assertEquals(mTestItem2.getAuthority(), store.getItem(CacheKey.createCacheKey(newItem)).getAuthority());
+
+        int count = 0;
+        final Iterator<TokenCacheItem> allItems = store.getAll();
+        while (allItems.hasNext()) {
+            allItems.next();
+            count++;
+        }
+        assertEquals(2, count);
+        store.removeAll();
+    }
+
     @Test
     public void testGetItem() throws AuthenticationException {
         String file = FILE_DEFAULT_NAME + "testGetItem";
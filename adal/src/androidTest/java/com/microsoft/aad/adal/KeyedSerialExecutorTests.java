@@ -0,0 +1,142 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyedSerialExecutorTests {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void testTasksWithSameKeyRunInOrder() throws InterruptedException {
+        final KeyedSerialExecutor executor = new KeyedSerialExecutor("test-", 4);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final int taskCount = 50;
+        final CountDownLatch done = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            final int index = i;
+            executor.execute("key", new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < taskCount; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void testTasksWithDifferentKeysRunInParallel() throws InterruptedException {
+        final KeyedSerialExecutor executor = new KeyedSerialExecutor("test-", 2);
+        final CountDownLatch otherKeyRan = new CountDownLatch(1);
+        final CountDownLatch sameKeyRan = new CountDownLatch(1);
+        final CountDownLatch blockingTaskDone = new CountDownLatch(1);
+
+        // Blocks its key until a task with another key has run
+        executor.execute("slow", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherKeyRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                blockingTaskDone.countDown();
+            }
+        });
+        executor.execute("slow", new Runnable() {
+            @Override
+            public void run() {
+                sameKeyRan.countDown();
+            }
+        });
+        executor.execute("fast", new Runnable() {
+            @Override
+            public void run() {
+                otherKeyRan.countDown();
+            }
+        });
+
+        assertTrue(otherKeyRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(blockingTaskDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(sameKeyRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMetrics() throws InterruptedException {
+        final KeyedSerialExecutor executor = new KeyedSerialExecutor("test-", 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final long blockingTimeMillis = 100;
+        executor.execute("key", new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    Thread.sleep(blockingTimeMillis);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 2; i++) {
+            executor.execute("key", new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertEquals(2, executor.getQueueDepth());
+        release.countDown();
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(3, executor.getStartedTaskCount());
+        assertTrue(executor.getMaxWaitTimeMillis() >= blockingTimeMillis);
+    }
+}
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -110,6 +111,43 @@ public class LoggerTest extends AndroidTestHelper {
         assertEquals(0, logResponses.size());
     }
 
+    @Test
+    public void testLazyVerboseLogging() {
+        final List<TestLogResponse> logResponses = new ArrayList<>();
+        Logger.getInstance().setExternalLogger(new ILogger() {
+
+            @Override
+            public void Log(String tag, String message, String additionalMessage, LogLevel level,
+                            ADALError errorCode) {
+                TestLogResponse response = new TestLogResponse();
+                response.setTag(tag);
+                response.setMessage(message);
+                logResponses.add(response);
+            }
+        });
+
+        Logger.getInstance().setLogLevel(Logger.LogLevel.Error);
+        assertFalse(Logger.isLoggable(LogLevel.Verbose));
+        assertFalse(Logger.isLoggable(LogLevel.Debug));
+        assertTrue(Logger.isLoggable(LogLevel.Error));
+        final Object argument = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("Argument is formatted while verbose logging is disabled");
+            }
+        };
+        Logger.verbose("test", ":method", "argument: ", argument);
+        assertEquals(0, logResponses.size());
+
+        Logger.getInstance().setLogLevel(Logger.LogLevel.Verbose);
+        assertTrue(Logger.isLoggable(LogLevel.Debug));
+        Logger.verbose("test", ":method", "count: ", 2);
+
+        assertEquals(1, logResponses.size());
+        assertEquals("test:method", logResponses.get(0).getTag());
+        assertTrue(logResponses.get(0).getMessage().contains("count: 2"));
+    }
+
     @Test
     public void testCallbackNullMessages() {
 
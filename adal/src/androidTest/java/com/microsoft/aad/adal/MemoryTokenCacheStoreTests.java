@@ -35,19 +35,30 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.NoSuchPaddingException;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class MemoryTokenCacheStoreTests extends BaseTokenStoreTests {
 
     private static final String VALID_AUTHORITY = "https://Login.windows.net/Omercantest.Onmicrosoft.com";
 
+    private static final String TAG = "MemoryTokenCacheStoreTests";
+
     private static final int ACTIVE_TEST_THREADS = 10;
 
     @Before
@@ -108,6 +119,88 @@ public class MemoryTokenCacheStoreTests extends BaseTokenStoreTests {
         assertNull("Token cache item is expected to be null", item);
     }
 
+    /**
+     * Concurrent iteration and writes must not fail nor lose items.
+     */
+    @Test
+    public void testConcurrentReadsAndWrites() throws InterruptedException {
+        final ITokenCacheStore store = new MemoryTokenCacheStore();
+        final int threadCount = 8;
+        final int operationsPerThread = 2000;
+        final int keyCount = 64;
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < keyCount; i++) {
+            store.setItem("key" + i, new TokenCacheItem());
+        }
+
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            final String key = "key" + ((i + thread) % keyCount);
+                            if (i % 10 == 0) {
+                                store.setItem(key, new TokenCacheItem());
+                            } else if (i % 100 == 1) {
+                                final Iterator<TokenCacheItem> items = store.getAll();
+                                while (items.hasNext()) {
+                                    items.next();
+                                }
+                            } else if (store.getItem(key) == null) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (final Exception e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue("Load finished in time", done.await(REQUEST_TIME_OUT, TimeUnit.MILLISECONDS));
+        assertEquals("No failed operations", 0, failures.get());
+    }
+
+    @Test
+    public void testReadSerializedFormOfPreviousVersion() throws IOException, ClassNotFoundException {
+        final SingleLockTokenCacheStore previousStore = new SingleLockTokenCacheStore();
+        final TokenCacheItem item = new TokenCacheItem();
+        item.setAccessToken("token");
+        previousStore.setItem("key", item);
+
+        // Writes the HashMap based store under the current class name, as the previous version did.
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes) {
+            @Override
+            protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+                if (desc.forClass() == SingleLockTokenCacheStore.class) {
+                    super.writeClassDescriptor(ObjectStreamClass.lookup(MemoryTokenCacheStore.class));
+                } else {
+                    super.writeClassDescriptor(desc);
+                }
+            }
+        };
+        out.writeObject(previousStore);
+        out.close();
+
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final MemoryTokenCacheStore store = (MemoryTokenCacheStore) in.readObject();
+        in.close();
+
+        assertEquals("token", store.getItem("key").getAccessToken());
+        store.setItem("key2", item);
+        assertTrue(store.contains("key2"));
+    }
+
     @Test
     public void testSerialization() throws IOException, ClassNotFoundException,
             NoSuchAlgorithmException, NoSuchPaddingException, AuthenticationException {
@@ -185,6 +278,65 @@ public class MemoryTokenCacheStoreTests extends BaseTokenStoreTests {
         assertNull("Token cache item is expected to be null", item);
     }
 
+    /**
+     * Same implementation and serialized layout as MemoryTokenCacheStore had before it
+     * became concurrent.
+     */
+    private static class SingleLockTokenCacheStore implements ITokenCacheStore {
+
+        private static final long serialVersionUID = 3465700945655867086L;
+
+        private final Map<String, TokenCacheItem> mCache = new HashMap<>();
+
+        private final transient Object mCacheLock = new Object();
+
+        @Override
+        public TokenCacheItem getItem(final String key) {
+            synchronized (mCacheLock) {
+                return mCache.get(key);
+            }
+        }
+
+        @Override
+        public Iterator<TokenCacheItem> getAll() {
+            synchronized (mCacheLock) {
+                return new ArrayList<>(mCache.values()).iterator();
+            }
+        }
+
+        @Override
+        public boolean contains(final String key) {
+            synchronized (mCacheLock) {
+                return mCache.get(key) != null;
+            }
+        }
+
+        @Override
+        public void setItem(final String key, final TokenCacheItem item) {
+            synchronized (mCacheLock) {
+                mCache.put(key, item);
+            }
+        }
+
+        @Override
+        public void removeItem(final String key) {
+            synchronized (mCacheLock) {
+                mCache.remove(key);
+            }
+        }
+
+        @Override
+        public void removeAll() {
+            synchronized (mCacheLock) {
+                mCache.clear();
+            }
+        }
+
+        private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+    }
+
     @Override
     protected ITokenCacheStore getTokenCacheStore() {
         return new MemoryTokenCacheStore();
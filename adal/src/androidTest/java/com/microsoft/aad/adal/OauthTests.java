@@ -49,6 +49,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
@@ -108,6 +109,8 @@ public class OauthTests {
     @After
     public void tearDown() throws Exception {
         HttpUrlConnectionFactory.setMockedHttpUrlConnection(null);
+        TokenEndpointCircuitBreaker.clear();
+        TokenRequestFailureCache.clear();
     }
 
     @Test
@@ -583,6 +586,34 @@ public class OauthTests {
         assertTrue(((AuthenticationException) testResult.getException()).getHttpResponseHeaders().containsKey("Retry-After"));
     }
 
+    @Test
+    public void testRefreshTokenRetryStopsAtMaxAttempts() throws IOException {
+        final IWebRequestHandler mockWebRequest = mock(IWebRequestHandler.class);
+        when(
+                mockWebRequest.sendPost(
+                        eq(new URL(TEST_AUTHORITY + "/oauth2/token")),
+                        Mockito.<String, String>anyMap(),
+                        any(byte[].class),
+                        eq("application/x-www-form-urlencoded"))
+        ).thenReturn(new HttpWebResponse(HttpURLConnection.HTTP_UNAVAILABLE, null, null))
+                .thenThrow(new SocketTimeoutException("timed out"));
+
+        final int maxAttempts = 3;
+        AuthenticationSettings.INSTANCE.setMaxTokenRequestAttempts(maxAttempts);
+        AuthenticationSettings.INSTANCE.setTokenRequestRetryDelays(0, 0);
+        try {
+            final MockAuthenticationCallback testResult = refreshToken(getValidAuthenticationRequest(),
+                    mockWebRequest, "testRefreshToken");
+
+            assertTrue(testResult.getException() instanceof SocketTimeoutException);
+            Mockito.verify(mockWebRequest, Mockito.times(maxAttempts)).sendPost(
+                    any(URL.class), Mockito.<String, String>anyMap(), any(byte[].class), any(String.class));
+        } finally {
+            AuthenticationSettings.INSTANCE.setMaxTokenRequestAttempts(2);
+            AuthenticationSettings.INSTANCE.setTokenRequestRetryDelays(1000, 8000);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testRefreshTokenWebResponseDeviceChallengeHeaderEmpty()
@@ -0,0 +1,105 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SilentRequestCoalescerTests {
+
+    @Test
+    public void testIdenticalRequestsShareResult() {
+        final SilentRequestCoalescer coalescer = new SilentRequestCoalescer();
+        final Object key = Arrays.asList("authority", "clientId", "resource", "user");
+        final List<AuthenticationResult> results = new ArrayList<>();
+
+        assertFalse(coalescer.tryAttach(key, new RecordingCallback(results)));
+        final AuthenticationCallback<AuthenticationResult> completingCallback
+                = coalescer.getCompletingCallback(key, new RecordingCallback(results));
+        assertTrue(coalescer.tryAttach(Arrays.asList("authority", "clientId", "resource", "user"),
+                new RecordingCallback(results)));
+        assertTrue(coalescer.tryAttach(key, new RecordingCallback(results)));
+
+        final AuthenticationResult result = new AuthenticationResult();
+        completingCallback.onSuccess(result);
+        assertEquals(3, results.size());
+        for (final AuthenticationResult received : results) {
+            assertSame(result, received);
+        }
+        assertEquals(0, coalescer.getInFlightRequestCount());
+
+        // Requests after completion run again
+        assertFalse(coalescer.tryAttach(key, new RecordingCallback(results)));
+    }
+
+    @Test
+    public void testErrorIsSentToAttachedRequests() {
+        final SilentRequestCoalescer coalescer = new SilentRequestCoalescer();
+        final List<AuthenticationResult> results = new ArrayList<>();
+        final RecordingCallback attachedCallback = new RecordingCallback(results);
+
+        assertFalse(coalescer.tryAttach("key", null));
+        assertFalse(coalescer.tryAttach("otherKey", null));
+        final AuthenticationCallback<AuthenticationResult> completingCallback
+                = coalescer.getCompletingCallback("key", null);
+        assertTrue(coalescer.tryAttach("key", attachedCallback));
+
+        final AuthenticationException exception = new AuthenticationException(ADALError.AUTH_REFRESH_FAILED);
+        completingCallback.onError(exception);
+        assertSame(exception, attachedCallback.mError);
+        assertTrue(results.isEmpty());
+        assertEquals(1, coalescer.getInFlightRequestCount());
+    }
+
+    private static final class RecordingCallback implements AuthenticationCallback<AuthenticationResult> {
+        private final List<AuthenticationResult> mResults;
+        private Exception mError;
+
+        RecordingCallback(final List<AuthenticationResult> results) {
+            mResults = results;
+        }
+
+        @Override
+        public void onSuccess(final AuthenticationResult result) {
+            mResults.add(result);
+        }
+
+        @Override
+        public void onError(final Exception exc) {
+            mError = exc;
+        }
+    }
+}
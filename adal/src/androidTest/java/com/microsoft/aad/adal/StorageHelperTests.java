@@ -45,6 +45,12 @@ import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -63,6 +69,11 @@ public class StorageHelperTests extends AndroidTestHelper {
 
     private static final int MIN_SDK_VERSION = 18;
 
+    private static final int REPEATED_CALL_COUNT = 50;
+
+    private static final String CACHE_ITEM_JSON = "{\"authority\":\"https://login.microsoftonline.com/common\","
+            + "\"clientId\":\"dba19db4-53de-441d-9c63-da8d6f229e5a\",\"accessToken\":\"AAAAAAAA2pILN0mn3wlYIlWk7lqOZ5qj\"}";
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
@@ -239,6 +250,58 @@ public class StorageHelperTests extends AndroidTestHelper {
         });
     }
 
+    @Test
+    public void testEncryptDecryptFromMultipleThreads() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final StorageHelper storageHelper = new StorageHelper(context);
+        final int threadCount = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final Future<?>[] results = new Future<?>[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final String clearText = "SomeValue" + i;
+                results[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < REPEATED_CALL_COUNT; j++) {
+                            assertEquals(clearText, storageHelper.decrypt(storageHelper.encrypt(clearText)));
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            for (final Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Blobs encrypted on other threads decrypt on this one
+        assertEquals("SomeValue", storageHelper.decrypt(storageHelper.encrypt("SomeValue")));
+    }
+
+    /**
+     * Blobs encrypted back to back with the reused crypto instances each get their own IV and
+     * all decrypt.
+     */
+    @Test
+    public void testRepeatedEncryptDecrypt() throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final StorageHelper storageHelper = new StorageHelper(context);
+
+        final Set<String> encrypted = new HashSet<>();
+        for (int i = 0; i < REPEATED_CALL_COUNT; i++) {
+            encrypted.add(storageHelper.encrypt(CACHE_ITEM_JSON));
+        }
+
+        assertEquals("Each blob is unique", REPEATED_CALL_COUNT, encrypted.size());
+        for (final String blob : encrypted) {
+            assertEquals(CACHE_ITEM_JSON, storageHelper.decrypt(blob));
+        }
+    }
+
     /**
      * Make sure that version sets correctly. It needs to be tested at different
      * emulator(18 and before 18).
@@ -102,6 +102,41 @@ public class TelemetryTest {
         assertEquals(default2.getEventList().size(), dispatch.getEventCount());
     }
 
+    @Test
+    public void testEventTiming() {
+        final Map<String, String> lastDispatched = new HashMap<>();
+        Telemetry.getInstance().registerDispatcher(new IDispatcher() {
+            @Override
+            public void dispatchEvent(final Map<String, String> events) {
+                lastDispatched.clear();
+                lastDispatched.putAll(events);
+            }
+        }, false);
+
+        final String requestId = Telemetry.registerNewRequest();
+        Telemetry.getInstance().startEvent(requestId, EventStrings.API_EVENT);
+        Telemetry.getInstance().startEvent(requestId, EventStrings.TOKEN_CACHE_LOOKUP);
+
+        final CacheEvent cacheEvent = new CacheEvent(EventStrings.TOKEN_CACHE_LOOKUP);
+        cacheEvent.setRequestId(requestId);
+        Telemetry.getInstance().stopEvent(requestId, cacheEvent, EventStrings.TOKEN_CACHE_LOOKUP);
+
+        final long startTime = Long.parseLong(lastDispatched.get(EventStrings.START_TIME));
+        final long stopTime = Long.parseLong(lastDispatched.get(EventStrings.STOP_TIME));
+        assertTrue(stopTime >= startTime);
+        assertTrue(Long.parseLong(lastDispatched.get(EventStrings.RESPONSE_TIME)) >= 0);
+        assertEquals(requestId, lastDispatched.get(EventStrings.REQUEST_ID));
+
+        // The other event of the request is still tracked, a second stop of the same event is not.
+        lastDispatched.clear();
+        Telemetry.getInstance().stopEvent(requestId, new APIEvent(EventStrings.API_EVENT), EventStrings.API_EVENT);
+        assertTrue(lastDispatched.containsKey(EventStrings.RESPONSE_TIME));
+
+        lastDispatched.clear();
+        Telemetry.getInstance().stopEvent(requestId, new APIEvent(EventStrings.API_EVENT), EventStrings.API_EVENT);
+        assertTrue(lastDispatched.isEmpty());
+    }
+
     private PackageManager getMockedPackageManager() throws PackageManager.NameNotFoundException {
         final Signature mockedSignature = Mockito.mock(Signature.class);
         when(mockedSignature.toByteArray()).thenReturn(Base64.decode(
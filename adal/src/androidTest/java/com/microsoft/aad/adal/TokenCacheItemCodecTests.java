@@ -0,0 +1,179 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenCacheItemCodecTests {
+
+    private static final String TAG = "TokenCacheItemCodecTests";
+
+    private static final String AUTHORITY = "https://login.microsoftonline.com/common";
+
+    private static final String CLIENT_ID = "4b0db8c2-9f26-4417-8bde-3f0e3656f8e0";
+
+    private static final int USER_COUNT = 10;
+
+    private static final int RESOURCES_PER_USER = 20;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final TokenCacheItem item = createItem("userid", "resource");
+        item.setFamilyClientId("1");
+        item.setIsMultiResourceRefreshToken(true);
+        item.setExtendedExpiresOn(new Date(System.currentTimeMillis() + 7200 * 1000));
+        item.setTokenUpdateTime(new Date());
+        item.setSpeRing("ring");
+
+        final TokenCacheItem decoded = roundTrip(item, new TokenCacheItemCodec.StringTable(),
+                new TokenCacheItemCodec.StringTable());
+
+        assertEquals(item.getAuthority(), decoded.getAuthority());
+        assertEquals(item.getClientId(), decoded.getClientId());
+        assertEquals(item.getResource(), decoded.getResource());
+        assertEquals(item.getTenantId(), decoded.getTenantId());
+        assertEquals(item.getFamilyClientId(), decoded.getFamilyClientId());
+        assertEquals(item.getAccessToken(), decoded.getAccessToken());
+        assertEquals(item.getRefreshToken(), decoded.getRefreshToken());
+        assertEquals(item.getRawIdToken(), decoded.getRawIdToken());
+        assertEquals(item.getSpeRing(), decoded.getSpeRing());
+        assertEquals(item.getExpiresOn(), decoded.getExpiresOn());
+        assertEquals(item.getExtendedExpiresOn(), decoded.getExtendedExpiresOn());
+        assertEquals(item.getTokenUpdateTime(), decoded.getTokenUpdateTime());
+        assertTrue(decoded.getIsMultiResourceRefreshToken());
+        assertEquals(item.getUserInfo().getUserId(), decoded.getUserInfo().getUserId());
+        assertEquals(item.getUserInfo().getDisplayableId(), decoded.getUserInfo().getDisplayableId());
+        assertEquals(item.getUserInfo().getGivenName(), decoded.getUserInfo().getGivenName());
+        assertEquals(item.getUserInfo().getFamilyName(), decoded.getUserInfo().getFamilyName());
+        assertEquals(item.getUserInfo().getIdentityProvider(), decoded.getUserInfo().getIdentityProvider());
+    }
+
+    @Test
+    public void testRoundTripWithNullFields() throws IOException {
+        final TokenCacheItem decoded = roundTrip(new TokenCacheItem(), new TokenCacheItemCodec.StringTable(),
+                new TokenCacheItemCodec.StringTable());
+
+        assertNull(decoded.getAuthority());
+        assertNull(decoded.getAccessToken());
+        assertNull(decoded.getExpiresOn());
+        assertNull(decoded.getUserInfo());
+    }
+
+    @Test
+    public void testRepeatedStringsAreInterned() throws IOException {
+        final TokenCacheItemCodec.StringTable encodeStrings = new TokenCacheItemCodec.StringTable();
+        final TokenCacheItemCodec.StringTable decodeStrings = new TokenCacheItemCodec.StringTable();
+
+        final TokenCacheItem first = roundTrip(createItem("userid", "resource1"), encodeStrings, decodeStrings);
+        final int stringCount = encodeStrings.size();
+        final TokenCacheItem second = roundTrip(createItem("userid", "resource2"), encodeStrings, decodeStrings);
+
+        // Only the new resource is defined by the second item
+        assertEquals(stringCount + 1, encodeStrings.size());
+        assertEquals(encodeStrings.size(), decodeStrings.size());
+        assertSame(first.getAuthority(), second.getAuthority());
+        assertSame(first.getClientId(), second.getClientId());
+        assertEquals("resource2", second.getResource());
+    }
+
+    @Test
+    public void testLogFileIsSmallerThanSerializedFormat() throws Exception {
+        final Context context = androidx.test.platform.app.InstrumentationRegistry.getInstrumentation()
+                .getTargetContext();
+        final File directory = context.getDir(context.getPackageName(), Context.MODE_PRIVATE);
+        final File serializedFile = new File(directory, TAG + "serialized");
+        final String logFileName = TAG + "log";
+
+        final MemoryTokenCacheStore serializedCache = new MemoryTokenCacheStore();
+        final FileTokenCacheStore logCache = new FileTokenCacheStore(context, logFileName);
+        logCache.removeAll();
+        for (int user = 0; user < USER_COUNT; user++) {
+            for (int resource = 0; resource < RESOURCES_PER_USER; resource++) {
+                final TokenCacheItem item = createItem("user" + user, "resource" + resource);
+                serializedCache.setItem(CacheKey.createCacheKey(item), item);
+                logCache.setItem(CacheKey.createCacheKey(item), item);
+            }
+        }
+
+        final ObjectOutputStream objectStream = new ObjectOutputStream(new FileOutputStream(serializedFile));
+        objectStream.writeObject(serializedCache);
+        objectStream.close();
+
+        final File logFile = new File(directory, logFileName);
+        assertTrue("Log file is smaller", logFile.length() < serializedFile.length());
+
+        final FileTokenCacheStore reloaded = new FileTokenCacheStore(context, logFileName);
+        final TokenCacheItem lastItem = createItem("user" + (USER_COUNT - 1), "resource" + (RESOURCES_PER_USER - 1));
+        assertEquals(lastItem.getAccessToken(),
+                reloaded.getItem(CacheKey.createCacheKey(lastItem)).getAccessToken());
+
+        reloaded.removeAll();
+        assertTrue(serializedFile.delete());
+    }
+
+    private static TokenCacheItem roundTrip(final TokenCacheItem item,
+                                            final TokenCacheItemCodec.StringTable encodeStrings,
+                                            final TokenCacheItemCodec.StringTable decodeStrings)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TokenCacheItemCodec.encode(new DataOutputStream(bytes), item, encodeStrings);
+        return TokenCacheItemCodec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                decodeStrings);
+    }
+
+    private static TokenCacheItem createItem(final String userId, final String resource) {
+        final TokenCacheItem item = new TokenCacheItem();
+        item.setAuthority(AUTHORITY);
+        item.setClientId(CLIENT_ID);
+        item.setResource(resource);
+        item.setTenantId("tenantId");
+        item.setAccessToken("accessToken" + userId + resource);
+        item.setRefreshToken("refreshToken" + userId);
+        item.setRawIdToken("idToken" + userId);
+        item.setExpiresOn(new Date(System.currentTimeMillis() + 3600 * 1000));
+        item.setUserInfo(new UserInfo(userId, "givenName", "familyName", "identityProvider", userId + "@test.com"));
+        return item;
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenEndpointCircuitBreakerTests {
+
+    private static final String HOST = "login.windows.net";
+
+    @After
+    public void tearDown() {
+        TokenEndpointCircuitBreaker.clear();
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        for (int i = 0; i < TokenEndpointCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(TokenEndpointCircuitBreaker.allowRequest(HOST));
+            TokenEndpointCircuitBreaker.recordFailure(HOST);
+        }
+
+        assertTrue("Circuit is closed below the threshold", TokenEndpointCircuitBreaker.allowRequest(HOST));
+        TokenEndpointCircuitBreaker.recordFailure(HOST);
+
+        assertFalse("Circuit is open", TokenEndpointCircuitBreaker.allowRequest(HOST));
+        assertTrue("Other hosts are not affected", TokenEndpointCircuitBreaker.allowRequest("login.microsoftonline.com"));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        for (int i = 0; i < TokenEndpointCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            TokenEndpointCircuitBreaker.recordFailure(HOST);
+        }
+
+        TokenEndpointCircuitBreaker.recordSuccess(HOST);
+        TokenEndpointCircuitBreaker.recordFailure(HOST);
+
+        assertTrue(TokenEndpointCircuitBreaker.allowRequest(HOST));
+    }
+}
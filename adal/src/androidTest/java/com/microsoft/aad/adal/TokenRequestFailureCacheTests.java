@@ -0,0 +1,81 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenRequestFailureCacheTests {
+
+    private static final String TOKEN_ENDPOINT = "https://login.windows.net/common/oauth2/token";
+
+    @After
+    public void tearDown() {
+        TokenRequestFailureCache.clear();
+    }
+
+    @Test
+    public void testDefinitiveFailureIsCached() {
+        final String key = TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource"), "refreshToken");
+        TokenRequestFailureCache.put(key, new AuthenticationResult("interaction_required", "description", "[50076]"));
+
+        final AuthenticationResult result = TokenRequestFailureCache.get(key);
+        assertNotNull(result);
+        assertEquals(AuthenticationResult.AuthenticationStatus.Failed, result.getStatus());
+        assertEquals("interaction_required", result.getErrorCode());
+        assertEquals("description", result.getErrorDescription());
+    }
+
+    @Test
+    public void testTransientFailureIsNotCached() {
+        final String key = TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource"), "refreshToken");
+        TokenRequestFailureCache.put(key, new AuthenticationResult("temporarily_unavailable", "description", null));
+
+        assertNull(TokenRequestFailureCache.get(key));
+    }
+
+    @Test
+    public void testKeyDependsOnRefreshTokenAndResource() {
+        final String key = TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource"), "refreshToken");
+        assertEquals(key, TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource"), "refreshToken"));
+        assertNotEquals(key, TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource"), "newRefreshToken"));
+        assertNotEquals(key, TokenRequestFailureCache.getKey(TOKEN_ENDPOINT, getRequest("resource2"), "refreshToken"));
+    }
+
+    private static AuthenticationRequest getRequest(final String resource) {
+        return new AuthenticationRequest("https://login.windows.net/common", resource, "clientId", "userId",
+                UUID.randomUUID(), false);
+    }
+}
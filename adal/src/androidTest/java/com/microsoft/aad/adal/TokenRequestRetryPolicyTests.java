@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenRequestRetryPolicyTests {
+
+    private static final long INITIAL_DELAY = 100;
+
+    private static final long MAX_DELAY = 1000;
+
+    private static final long DEADLINE = 10000;
+
+    @Test
+    public void testRetryableStatus() {
+        assertTrue(TokenRequestRetryPolicy.isRetryableStatus(TokenRequestRetryPolicy.HTTP_TOO_MANY_REQUESTS));
+        assertTrue(TokenRequestRetryPolicy.isRetryableStatus(HttpURLConnection.HTTP_INTERNAL_ERROR));
+        assertTrue(TokenRequestRetryPolicy.isRetryableStatus(HttpURLConnection.HTTP_UNAVAILABLE));
+        assertFalse(TokenRequestRetryPolicy.isRetryableStatus(HttpURLConnection.HTTP_BAD_REQUEST));
+        assertFalse(TokenRequestRetryPolicy.isRetryableStatus(HttpURLConnection.HTTP_OK));
+    }
+
+    @Test
+    public void testBackoffIsExponentialWithJitter() {
+        final TokenRequestRetryPolicy policy = new TokenRequestRetryPolicy(10, INITIAL_DELAY, MAX_DELAY, DEADLINE);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            final long expectedDelay = Math.min(MAX_DELAY, INITIAL_DELAY << (attempt - 1));
+            final long delay = policy.getRetryDelayMillis(attempt, 0, null);
+            assertTrue("Delay " + delay + " of attempt " + attempt, delay >= expectedDelay / 2 && delay <= expectedDelay);
+        }
+    }
+
+    @Test
+    public void testNoRetryAfterMaxAttempts() {
+        final TokenRequestRetryPolicy policy = new TokenRequestRetryPolicy(3, INITIAL_DELAY, MAX_DELAY, DEADLINE);
+        assertTrue(policy.getRetryDelayMillis(2, 0, null) >= 0);
+        assertEquals(-1, policy.getRetryDelayMillis(3, 0, null));
+    }
+
+    @Test
+    public void testNoRetryAfterDeadline() {
+        final TokenRequestRetryPolicy policy = new TokenRequestRetryPolicy(3, INITIAL_DELAY, MAX_DELAY, DEADLINE);
+        assertEquals(-1, policy.getRetryDelayMillis(1, DEADLINE - INITIAL_DELAY / 2 + 1, null));
+        assertTrue(policy.getRetryDelayMillis(1, DEADLINE - INITIAL_DELAY, null) >= 0);
+    }
+
+    @Test
+    public void testRetryAfterSeconds() {
+        final TokenRequestRetryPolicy policy = new TokenRequestRetryPolicy(3, INITIAL_DELAY, MAX_DELAY, DEADLINE);
+        assertEquals(2000, policy.getRetryDelayMillis(1, 0,
+                getResponse(TokenRequestRetryPolicy.HTTP_TOO_MANY_REQUESTS, "retry-after", "2")));
+        assertEquals("Retry-After beyond the deadline is not waited for", -1, policy.getRetryDelayMillis(1, 0,
+                getResponse(HttpURLConnection.HTTP_UNAVAILABLE, TokenRequestRetryPolicy.RETRY_AFTER_HEADER, "120")));
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final long now = 1500000000000L;
+        final HttpWebResponse response = getResponse(HttpURLConnection.HTTP_UNAVAILABLE,
+                TokenRequestRetryPolicy.RETRY_AFTER_HEADER, dateFormat.format(new Date(now + 5000)));
+
+        assertEquals(5000, TokenRequestRetryPolicy.getRetryAfterMillis(response, now));
+        assertEquals(0, TokenRequestRetryPolicy.getRetryAfterMillis(response, now + 10000));
+    }
+
+    @Test
+    public void testRetryAfterIgnored() {
+        assertEquals("Invalid value", -1, TokenRequestRetryPolicy.getRetryAfterMillis(
+                getResponse(HttpURLConnection.HTTP_UNAVAILABLE, TokenRequestRetryPolicy.RETRY_AFTER_HEADER, "soon"), 0));
+        assertEquals("Not a retryable status", -1, TokenRequestRetryPolicy.getRetryAfterMillis(
+                getResponse(HttpURLConnection.HTTP_BAD_REQUEST, TokenRequestRetryPolicy.RETRY_AFTER_HEADER, "1"), 0));
+        assertEquals("No response", -1, TokenRequestRetryPolicy.getRetryAfterMillis(null, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxAttempts() {
+        new TokenRequestRetryPolicy(0, INITIAL_DELAY, MAX_DELAY, DEADLINE);
+    }
+
+    private static HttpWebResponse getResponse(final int statusCode, final String header, final String value) {
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put(header, Collections.singletonList(value));
+        return new HttpWebResponse(statusCode, "", headers);
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenResponseParserTests {
+
+    @Test
+    public void testSuccessResponseMatchesJsonObjectParsing() throws JSONException {
+        final String body = getRealisticSuccessResponse();
+        final Map<String, String> parsed = TokenResponseParser.parse(body);
+        final Map<String, String> expected = new HashMap<>();
+        Oauth2.extractJsonObjects(expected, body);
+
+        for (final Map.Entry<String, String> entry : parsed.entrySet()) {
+            assertEquals(entry.getKey(), expected.get(entry.getKey()), entry.getValue());
+        }
+        assertEquals(2000, parsed.get(AuthenticationConstants.OAuth2.ACCESS_TOKEN).length());
+        assertEquals("3599", parsed.get(AuthenticationConstants.OAuth2.EXPIRES_IN));
+        assertEquals("1", parsed.get(AuthenticationConstants.OAuth2.ADAL_CLIENT_FAMILY_ID));
+        assertFalse("Members ADAL does not read are skipped", parsed.containsKey(AuthenticationConstants.OAuth2.SCOPE));
+    }
+
+    @Test
+    public void testErrorResponseMatchesJsonObjectParsing() throws JSONException {
+        final JSONObject response = new JSONObject(Util.getErrorResponseBody("invalid_grant"));
+        response.put(AuthenticationConstants.OAuth2.ERROR_CODES, new JSONArray("[70000, 50173]"));
+        response.put(AuthenticationConstants.AAD.CORRELATION_ID, "b73106d5-419b-4163-8bc6-d2c18f1b1a13");
+        response.put("timestamp", "2014-11-06 18:39:47Z");
+        final String body = response.toString();
+
+        final Map<String, String> parsed = TokenResponseParser.parse(body);
+        final Map<String, String> expected = new HashMap<>();
+        Oauth2.extractJsonObjects(expected, body);
+
+        assertEquals(expected.get(AuthenticationConstants.OAuth2.ERROR), parsed.get(AuthenticationConstants.OAuth2.ERROR));
+        assertEquals(expected.get(AuthenticationConstants.OAuth2.ERROR_DESCRIPTION),
+                parsed.get(AuthenticationConstants.OAuth2.ERROR_DESCRIPTION));
+        assertEquals(expected.get(AuthenticationConstants.OAuth2.ERROR_CODES),
+                parsed.get(AuthenticationConstants.OAuth2.ERROR_CODES));
+        assertEquals(expected.get(AuthenticationConstants.AAD.CORRELATION_ID),
+                parsed.get(AuthenticationConstants.AAD.CORRELATION_ID));
+    }
+
+    @Test
+    public void testMalformedResponse() {
+        for (final String body : new String[]{"", "[]", "{\"access_token\":", "not json"}) {
+            try {
+                TokenResponseParser.parse(body);
+                fail("Expected JSONException for " + body);
+            } catch (final JSONException expected) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Token response with the members and token sizes AAD returns.
+     */
+    private static String getRealisticSuccessResponse() throws JSONException {
+        final JSONObject response = new JSONObject();
+        response.put(AuthenticationConstants.OAuth2.TOKEN_TYPE, "Bearer");
+        response.put(AuthenticationConstants.OAuth2.SCOPE, "User.Read Mail.Read Files.ReadWrite.All");
+        response.put(AuthenticationConstants.OAuth2.EXPIRES_IN, 3599);
+        response.put(AuthenticationConstants.OAuth2.EXT_EXPIRES_IN, 3599);
+        response.put("expires_on", "1568768616");
+        response.put("not_before", "1568764716");
+        response.put(AuthenticationConstants.AAD.RESOURCE, "https://graph.microsoft.com");
+        // Access tokens are JWTs of a couple of kilobytes
+        response.put(AuthenticationConstants.OAuth2.ACCESS_TOKEN, repeat("a", 2000));
+        response.put(AuthenticationConstants.OAuth2.REFRESH_TOKEN, repeat("r", 1200));
+        response.put(AuthenticationConstants.OAuth2.ID_TOKEN, Util.TEST_IDTOKEN);
+        response.put(AuthenticationConstants.OAuth2.CLIENT_INFO, Util.TEST_CLIENT_INFO);
+        response.put(AuthenticationConstants.OAuth2.ADAL_CLIENT_FAMILY_ID, "1");
+        response.put("id_token_claims", new JSONObject().put("aud", "clientId").put("tid", "tenantId"));
+        return response.toString();
+    }
+
+    private static String repeat(final String value, final int count) {
+        final StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+
+        return builder.toString();
+    }
+}
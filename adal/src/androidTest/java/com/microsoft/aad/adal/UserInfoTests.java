@@ -111,6 +111,35 @@ public class UserInfoTests extends TestCase {
                 info.getPasswordChangeUrl().toString());
     }
 
+    @SmallTest
+    public void testIdTokenParsedClaimsReused() throws UnsupportedEncodingException, AuthenticationException {
+        IdToken.clearParsedIdTokens();
+        final String rawIdToken = getIdToken("objectid", "upnid", "email", "subj");
+        final IdToken first = new IdToken(rawIdToken);
+        final IdToken second = new IdToken(rawIdToken);
+
+        assertNotSame(first, second);
+        assertEquals("objectid", second.getObjectId());
+        assertEquals("upnid", second.getUpn());
+        assertEquals("tenantid", second.getTenantId());
+        assertEquals("pwdUrl", second.getPasswordChangeUrl());
+        assertEquals(first.getPasswordExpiration(), second.getPasswordExpiration());
+
+        // Tokens evicted from the parsed tokens are parsed again
+        for (int i = 0; i < IdToken.MAX_PARSED_TOKENS; i++) {
+            new IdToken(getIdToken("objectid" + i, "upnid", "email", "subj"));
+        }
+        assertEquals("objectid", new IdToken(rawIdToken).getObjectId());
+
+        try {
+            new IdToken("header.bm90IGpzb24.");
+            fail("Expected parsing failure");
+        } catch (final AuthenticationException exception) {
+            assertEquals(ADALError.JSON_PARSE_ERROR, exception.getCode());
+        }
+        IdToken.clearParsedIdTokens();
+    }
+
     private String getIdToken(String objId, String upnStr, String emailStr, String subjectStr)
             throws UnsupportedEncodingException {
         final String sIdTokenClaims = "{\"aud\":\"c3c7f5e5-7153-44d4-90e6-329686d48d76\",\"iss\":\"https://sts.windows.net/6fd1f5cd-a94c-4335-889b-6c598e6d8048/\",\"iat\":1387224169,\"nbf\":1387224170,\"exp\":1387227769,\"pwd_exp\":1387227772,\"pwd_url\":\"pwdUrl\",\"ver\":\"1.0\",\"tid\":\"%s\",\"oid\":\"%s\",\"upn\":\"%s\",\"uniqueName\":\"%s\",\"sub\":\"%s\",\"family_name\":\"%s\",\"given_name\":\"%s\",\"altsecid\":\"%s\",\"idp\":\"%s\",\"email\":\"%s\"}";
@@ -207,6 +207,11 @@ public enum ADALError {
      */
     AUTH_FAILED_CANCELLED("The user cancelled the authorization request"),
 
+    /**
+     * The token request did not complete before the deadline given by the caller.
+     */
+    REQUEST_DEADLINE_EXCEEDED("The token request did not complete before its deadline"),
+
     /**
      * Invalid parameters for authorization operation.
      */
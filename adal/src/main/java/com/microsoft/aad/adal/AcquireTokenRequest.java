@@ -46,10 +46,16 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import static com.microsoft.identity.common.adal.internal.AuthenticationConstants.Broker.AZURE_AUTHENTICATOR_APP_PACKAGE_NAME;
 import static com.microsoft.identity.common.adal.internal.AuthenticationConstants.Broker.BROKER_HOST_APP_PACKAGE_NAME;
@@ -65,9 +71,27 @@ class AcquireTokenRequest {
     private static final String TAG = AcquireTokenRequest.class.getSimpleName();
 
     /**
-     * Singled threaded Executor for async work.
+     * Maximum number of requests running at the same time.
      */
-    private static final ExecutorService THREAD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Executor for async work. Requests for the same authority, client id and user run in
+     * submission order, others run in parallel so a slow request does not hold up the rest.
+     */
+    private static final KeyedSerialExecutor THREAD_EXECUTOR =
+            new KeyedSerialExecutor("adal-request-", MAX_CONCURRENT_REQUESTS);
+
+    /**
+     * Executor acquiring the tokens of a batch silent request in parallel.
+     */
+    private static final KeyedSerialExecutor BATCH_EXECUTOR =
+            new KeyedSerialExecutor("adal-batch-", MAX_CONCURRENT_REQUESTS);
+
+    /**
+     * Silent requests in flight, identical silent requests share their result.
+     */
+    private static final SilentRequestCoalescer SILENT_REQUESTS = new SilentRequestCoalescer();
 
     private final Context mContext;
     private final AuthenticationContext mAuthContext;
@@ -116,13 +140,23 @@ class AcquireTokenRequest {
     void acquireToken(final IWindowComponent activity, final boolean useDialog, final AuthenticationRequest authRequest,
                       final AuthenticationCallback<AuthenticationResult> authenticationCallback) {
         final String methodName = ":acquireToken";
-        final CallbackHandler callbackHandle = new CallbackHandler(getHandler(), authenticationCallback);
+        AuthenticationCallback<AuthenticationResult> callback = authenticationCallback;
+        final Object silentRequestKey = getSilentRequestKey(authRequest);
+        if (silentRequestKey != null) {
+            if (SILENT_REQUESTS.tryAttach(silentRequestKey, getAttachedCallback(authRequest, authenticationCallback))) {
+                return;
+            }
+
+            callback = SILENT_REQUESTS.getCompletingCallback(silentRequestKey, authenticationCallback);
+        }
+
+        final CallbackHandler<AuthenticationResult> callbackHandle = new CallbackHandler<>(getHandler(), callback);
         // Executes all the calls inside the Runnable to return immediately to
         // user. All UI
         // related actions will be performed using Handler.
         Logger.setCorrelationId(authRequest.getCorrelationId());
-        Logger.v(TAG + methodName, "Sending async task from thread:" + android.os.Process.myTid());
-        THREAD_EXECUTOR.execute(new Runnable() {
+        Logger.verbose(TAG, methodName, "Sending async task from thread:", android.os.Process.myTid());
+        THREAD_EXECUTOR.execute(getSerializationKey(authRequest), new Runnable() {
             @Override
             public void run() {
                 // With the introduction of DiagnosticContext, correlationIds are now tracked
@@ -130,10 +164,19 @@ class AcquireTokenRequest {
                 // to call setCorrelationId() again.
                 Logger.setCorrelationId(authRequest.getCorrelationId());
 
-                Logger.v(TAG + methodName, "Running task in thread:" + android.os.Process.myTid());
+                Logger.verbose(TAG, methodName, "Running task in thread:", android.os.Process.myTid());
+                final RequestCancellation cancellation = authRequest.getCancellation();
+                if (cancellation != null) {
+                    cancellation.attach();
+                }
+
                 try {
+                    // The request may have been abandoned while it was queued.
+                    RequestCancellation.throwIfDone(authRequest, "start");
+
                     // Validate acquire token call first.
                     validateAcquireTokenRequest(authRequest);
+                    RequestCancellation.throwIfDone(authRequest, "token acquisition");
                     performAcquireTokenRequest(callbackHandle, activity, useDialog, authRequest);
                 } catch (final AuthenticationException authenticationException) {
                     mAPIEvent.setSpeRing(authenticationException.getSpeRing());
@@ -145,11 +188,83 @@ class AcquireTokenRequest {
                     mAPIEvent.stopTelemetryAndFlush();
 
                     callbackHandle.onError(authenticationException);
+                } catch (final RuntimeException exception) {
+                    if (silentRequestKey == null) {
+                        throw exception;
+                    }
+
+                    // Requests attached to this one would otherwise never complete
+                    Logger.e(TAG + methodName, "Silent request failed unexpectedly.", "",
+                            ADALError.ERROR_SILENT_REQUEST, exception);
+                    final AuthenticationException authenticationException = new AuthenticationException(
+                            ADALError.ERROR_SILENT_REQUEST, exception.getMessage(), exception);
+                    mAPIEvent.setWasApiCallSuccessful(false, authenticationException);
+                    mAPIEvent.setCorrelationId(authRequest.getCorrelationId().toString());
+                    mAPIEvent.stopTelemetryAndFlush();
+
+                    callbackHandle.onError(authenticationException);
+                } finally {
+                    if (cancellation != null) {
+                        cancellation.detach();
+                    }
                 }
             }
         });
     }
 
+    /**
+     * Silent requests are identical if they would look up the same cache entries and send the
+     * same token request. Requests with an assertion or their own deadline are never shared.
+     *
+     * @return key of the silent request, null if it cannot share its result.
+     */
+    private Object getSilentRequestKey(final AuthenticationRequest request) {
+        if (!request.isSilent() || request.getSamlAssertion() != null || request.getCancellation() != null) {
+            return null;
+        }
+
+        return Arrays.asList(mAuthContext.getCache(),
+                request.getAuthority() == null ? null : request.getAuthority().toLowerCase(Locale.US),
+                request.getClientId(),
+                request.getResource(),
+                request.getUserId() == null ? null : request.getUserId().toLowerCase(Locale.US),
+                request.getLoginHint() == null ? null : request.getLoginHint().toLowerCase(Locale.US),
+                request.getUserIdentifierType(),
+                request.getForceRefresh(),
+                request.getClaimsChallenge(),
+                request.getClientCapabilities());
+    }
+
+    /**
+     * @return callback for a request attached to an identical one in flight, which records the
+     * outcome in the telemetry of this request.
+     */
+    private AuthenticationCallback<AuthenticationResult> getAttachedCallback(final AuthenticationRequest request,
+                                                                             final AuthenticationCallback<AuthenticationResult> callback) {
+        return new AuthenticationCallback<AuthenticationResult>() {
+            @Override
+            public void onSuccess(final AuthenticationResult result) {
+                mAPIEvent.setWasApiCallSuccessful(true, null);
+                mAPIEvent.setCorrelationId(request.getCorrelationId().toString());
+                mAPIEvent.setIdToken(result.getIdToken());
+                mAPIEvent.stopTelemetryAndFlush();
+                if (callback != null) {
+                    callback.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onError(final Exception exc) {
+                mAPIEvent.setWasApiCallSuccessful(false, exc);
+                mAPIEvent.setCorrelationId(request.getCorrelationId().toString());
+                mAPIEvent.stopTelemetryAndFlush();
+                if (callback != null) {
+                    callback.onError(exc);
+                }
+            }
+        };
+    }
+
     /**
      * This API allows to obtain a new access token in exchange for a refresh token. The refresh
      * token must be provided to this API. The tokens obtained via this API may or may not be saved
@@ -165,13 +280,13 @@ class AcquireTokenRequest {
                                   final AuthenticationCallback<AuthenticationResult> externalCallback) {
         final String methodName = ":refreshTokenWithoutCache";
         Logger.setCorrelationId(authenticationRequest.getCorrelationId());
-        Logger.v(TAG + methodName, "Refresh token without cache");
+        Logger.verbose(TAG, methodName, "Refresh token without cache");
 
-        final CallbackHandler callbackHandle = new CallbackHandler(getHandler(), externalCallback);
+        final CallbackHandler<AuthenticationResult> callbackHandle = new CallbackHandler<>(getHandler(), externalCallback);
 
         // Execute all the calls inside Runnable to return immediately. All UI
         // related actions will be performed using Handler.
-        THREAD_EXECUTOR.execute(new Runnable() {
+        THREAD_EXECUTOR.execute(getSerializationKey(authenticationRequest), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -250,6 +365,179 @@ class AcquireTokenRequest {
         });
     }
 
+    /**
+     * Acquires tokens silently for several resources of one user. Access tokens are looked up
+     * in the cache first, tokens missing from the cache are then acquired in parallel, typically
+     * by redeeming the same multi resource refresh token.
+     *
+     * @param authRequests           silent requests differing only by resource.
+     * @param authenticationCallback callback for the results by resource, called on the main thread.
+     *                               A failed resource has a result with {@link AuthenticationResult.AuthenticationStatus#Failed}
+     *                               status, with the {@link ADALError} name as error code.
+     */
+    void acquireTokensSilent(final List<AuthenticationRequest> authRequests,
+                             final AuthenticationCallback<Map<String, AuthenticationResult>> authenticationCallback) {
+        final String methodName = ":acquireTokensSilent";
+        final AuthenticationRequest firstRequest = authRequests.get(0);
+        Logger.setCorrelationId(firstRequest.getCorrelationId());
+        Logger.verbose(TAG, methodName, "Number of resources to acquire tokens for: ", authRequests.size());
+
+        final CallbackHandler<Map<String, AuthenticationResult>> callbackHandle =
+                new CallbackHandler<>(getHandler(), authenticationCallback);
+
+        THREAD_EXECUTOR.execute(getSerializationKey(firstRequest), new Runnable() {
+            @Override
+            public void run() {
+                Logger.setCorrelationId(firstRequest.getCorrelationId());
+                final Map<String, AuthenticationResult> results = new LinkedHashMap<>();
+                final Map<String, FutureTask<AuthenticationResult>> pendingResults = new LinkedHashMap<>();
+                try {
+                    for (final AuthenticationRequest authRequest : authRequests) {
+                        // Authority validation metadata is cached, only the first request may go to the network.
+                        validateAcquireTokenRequest(authRequest);
+                        final AuthenticationResult cachedResult = getCachedResult(authRequest);
+                        if (cachedResult != null) {
+                            results.put(authRequest.getResource(), cachedResult);
+                            continue;
+                        }
+
+                        final FutureTask<AuthenticationResult> pendingResult = new FutureTask<>(
+                                new Callable<AuthenticationResult>() {
+                                    @Override
+                                    public AuthenticationResult call() throws AuthenticationException {
+                                        Logger.setCorrelationId(authRequest.getCorrelationId());
+                                        // TokenCacheAccessor keeps the authority of the last cache write,
+                                        // each parallel request gets its own.
+                                        return new AcquireTokenRequest(mContext, mAuthContext, mAPIEvent)
+                                                .tryAcquireTokenSilent(authRequest);
+                                    }
+                                });
+                        pendingResults.put(authRequest.getResource(), pendingResult);
+                        BATCH_EXECUTOR.execute(null, pendingResult);
+                    }
+
+                    if (Logger.isLoggable(Logger.LogLevel.Verbose)) {
+                        Logger.verbose(TAG, methodName, (authRequests.size() - pendingResults.size())
+                                + " tokens found in cache, " + pendingResults.size() + " tokens to acquire.");
+                    }
+                    for (final Map.Entry<String, FutureTask<AuthenticationResult>> pendingResult : pendingResults.entrySet()) {
+                        results.put(pendingResult.getKey(), getBatchResult(pendingResult.getValue()));
+                    }
+
+                    mAPIEvent.setWasApiCallSuccessful(true, null);
+                    callbackHandle.onSuccess(results);
+                } catch (final AuthenticationException authenticationException) {
+                    for (final FutureTask<AuthenticationResult> pendingResult : pendingResults.values()) {
+                        pendingResult.cancel(true);
+                    }
+
+                    mAPIEvent.setWasApiCallSuccessful(false, authenticationException);
+                    callbackHandle.onError(authenticationException);
+                } catch (final RuntimeException exception) {
+                    for (final FutureTask<AuthenticationResult> pendingResult : pendingResults.values()) {
+                        pendingResult.cancel(true);
+                    }
+
+                    // The caller would otherwise never be called back
+                    Logger.e(TAG + methodName, "Silent requests failed unexpectedly.", "",
+                            ADALError.ERROR_SILENT_REQUEST, exception);
+                    final AuthenticationException authenticationException = new AuthenticationException(
+                            ADALError.ERROR_SILENT_REQUEST, exception.getMessage(), exception);
+                    mAPIEvent.setWasApiCallSuccessful(false, authenticationException);
+                    callbackHandle.onError(authenticationException);
+                } finally {
+                    mAPIEvent.setCorrelationId(firstRequest.getCorrelationId().toString());
+                    mAPIEvent.stopTelemetryAndFlush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Validates the authority of the request and fetches its metadata in the background, so that
+     * later token requests for the authority find it in the metadata caches.
+     *
+     * @param authRequest            request carrying the authority, and the login hint used to validate
+     *                               an AD FS authority.
+     * @param authenticationCallback optional callback, called on a worker thread.
+     */
+    void prefetch(final AuthenticationRequest authRequest,
+                  @Nullable final AuthenticationCallback<Void> authenticationCallback) {
+        final String methodName = ":prefetch";
+        THREAD_EXECUTOR.execute(null, new Runnable() {
+            @Override
+            public void run() {
+                Logger.setCorrelationId(authRequest.getCorrelationId());
+                Logger.verbose(TAG, methodName, "Prefetching authority metadata.");
+                try {
+                    final URL authorityUrl = StringExtensions.getUrl(authRequest.getAuthority());
+                    if (authorityUrl == null) {
+                        throw new AuthenticationException(ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_URL);
+                    }
+
+                    performAuthorityValidation(authRequest, authorityUrl);
+                    mAPIEvent.setWasApiCallSuccessful(true, null);
+                    if (authenticationCallback != null) {
+                        authenticationCallback.onSuccess(null);
+                    }
+                } catch (final AuthenticationException authenticationException) {
+                    Logger.w(TAG + methodName, "Failed to prefetch authority metadata.",
+                            authenticationException.getMessage(), authenticationException.getCode());
+                    mAPIEvent.setWasApiCallSuccessful(false, authenticationException);
+                    if (authenticationCallback != null) {
+                        authenticationCallback.onError(authenticationException);
+                    }
+                } finally {
+                    mAPIEvent.setCorrelationId(authRequest.getCorrelationId().toString());
+                    mAPIEvent.stopTelemetryAndFlush();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return result with the valid access token in the cache, null if the token has to be acquired.
+     */
+    private AuthenticationResult getCachedResult(final AuthenticationRequest authRequest)
+            throws AuthenticationException {
+        if (mTokenCacheAccessor == null || authRequest.getForceRefresh() || authRequest.isClaimsChallengePresent()) {
+            return null;
+        }
+
+        final TokenCacheItem accessTokenItem = mTokenCacheAccessor.getATFromCache(authRequest.getResource(),
+                authRequest.getClientId(), authRequest.getUserFromRequest());
+        if (accessTokenItem == null || StringExtensions.isNullOrBlank(accessTokenItem.getAccessToken())) {
+            return null;
+        }
+
+        return AuthenticationResult.createResult(accessTokenItem);
+    }
+
+    private AuthenticationResult getBatchResult(final FutureTask<AuthenticationResult> pendingResult)
+            throws AuthenticationException {
+        try {
+            final AuthenticationResult result = pendingResult.get();
+            if (isAccessTokenReturned(result)) {
+                return result;
+            }
+
+            return new AuthenticationResult(ADALError.AUTH_REFRESH_FAILED_PROMPT_NOT_ALLOWED.name(),
+                    "No access token returned from the silent request.", null);
+        } catch (final ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof AuthenticationException && ((AuthenticationException) cause).getCode() != null) {
+                return new AuthenticationResult(((AuthenticationException) cause).getCode().name(),
+                        cause.getMessage(), null);
+            }
+
+            return new AuthenticationResult(ADALError.ERROR_SILENT_REQUEST.name(),
+                    cause == null ? exception.getMessage() : cause.getMessage(), null);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException(ADALError.ERROR_SILENT_REQUEST, exception.getMessage(), exception);
+        }
+    }
+
     private void validateAcquireTokenRequest(final AuthenticationRequest authenticationRequest)
             throws AuthenticationException {
         final URL authorityUrl = StringExtensions.getUrl(authenticationRequest.getAuthority());
@@ -319,7 +607,7 @@ class AcquireTokenRequest {
                     // Ignore the failure, save in the map as a failed instance discovery to avoid it being looked up another times in the same process
                     AuthorityValidationMetadataCache.updateInstanceDiscoveryMap(authorityUrl.getHost(), new InstanceDiscoveryMetadata(false));
                     AzureActiveDirectory.putCloud(authorityUrl.getHost(), new AzureActiveDirectoryCloud(false));
-                    Logger.v(TAG + methodName, "Fail to get authority validation metadata back. Ignore the failure since authority validation is turned off.");
+                    Logger.verbose(TAG, methodName, "Fail to get authority validation metadata back. Ignore the failure since authority validation is turned off.");
                 }
             }
             // Even if it succeeds, we cannot mark the authority as validated authority.
@@ -369,7 +657,7 @@ class AcquireTokenRequest {
             return;
         }
 
-        Logger.v(TAG + methodName, "Start validating authority");
+        Logger.verbose(TAG, methodName, "Start validating authority");
         mDiscovery.setCorrelationId(correlationId);
 
         Discovery.verifyAuthorityValidInstance(authorityUrl);
@@ -378,13 +666,13 @@ class AcquireTokenRequest {
             mDiscovery.validateAuthorityADFS(authorityUrl, domain);
         } else {
             if (isSilent && UrlExtensions.isADFSAuthority(authorityUrl)) {
-                Logger.v(TAG + methodName, "Silent request. Skipping AD FS authority validation");
+                Logger.verbose(TAG, methodName, "Silent request. Skipping AD FS authority validation");
             }
 
             mDiscovery.validateAuthority(authorityUrl);
         }
 
-        Logger.v(TAG + methodName, "The passed in authority is valid.");
+        Logger.verbose(TAG, methodName, "The passed in authority is valid.");
         mAuthContext.setIsAuthorityValidated(true);
     }
 
@@ -401,7 +689,7 @@ class AcquireTokenRequest {
      * If silent request fails and no prompt is allowed, we'll return the exception back via callback.
      * If silent request fails and prompt is allowed, we'll prompt the user and launch webview.
      */
-    private void performAcquireTokenRequest(final CallbackHandler callbackHandle,
+    private void performAcquireTokenRequest(final CallbackHandler<AuthenticationResult> callbackHandle,
                                             final IWindowComponent activity,
                                             final boolean useDialog,
                                             final AuthenticationRequest authenticationRequest)
@@ -441,7 +729,7 @@ class AcquireTokenRequest {
         AuthenticationResult authenticationResult = null;
 
         if (shouldTrySilentFlow(authenticationRequest)) {
-            Logger.v(TAG + methodName, "Try to acquire token silently, return valid AT or use RT in the cache.");
+            Logger.verbose(TAG, methodName, "Try to acquire token silently, return valid AT or use RT in the cache.");
             authenticationResult = acquireTokenSilentFlow(authenticationRequest);
 
             final boolean isAccessTokenReturned = isAccessTokenReturned(authenticationResult);
@@ -468,7 +756,7 @@ class AcquireTokenRequest {
             }
 
             if (isAccessTokenReturned) {
-                Logger.v(TAG + methodName, "Token is successfully returned from silent flow. ");
+                Logger.verbose(TAG, methodName, "Token is successfully returned from silent flow. ");
             }
         }
 
@@ -558,7 +846,7 @@ class AcquireTokenRequest {
         if (authenticationRequest.getSamlAssertion() != null && authenticationRequest.getAssertionType() != null) {
             final AuthenticationResult authResultFromSaml = tryAcquireTokenSilentWithAssertion(authenticationRequest);
             if (isAccessTokenReturned(authResultFromSaml)) {
-                Logger.v(TAG + methodName, "Access token has been acquired using the saml assertion.");
+                Logger.verbose(TAG, methodName, "Access token has been acquired using the saml assertion.");
                 return authResultFromSaml;
             } else {
                 Logger.w(TAG + methodName, "Failed to acquire tokens using saml assertion.");
@@ -580,7 +868,7 @@ class AcquireTokenRequest {
     private AuthenticationResult tryAcquireTokenSilentLocally(final AuthenticationRequest authenticationRequest)
             throws AuthenticationException {
         final String methodName = ":tryAcquireTokenSilentLocally";
-        Logger.v(TAG + methodName, "Try to silently get token from local cache.");
+        Logger.verbose(TAG, methodName, "Try to silently get token from local cache.");
         final AcquireTokenSilentHandler acquireTokenSilentHandler = new AcquireTokenSilentHandler(mContext,
                 authenticationRequest, mTokenCacheAccessor);
 
@@ -593,7 +881,7 @@ class AcquireTokenRequest {
     private AuthenticationResult tryAcquireTokenSilentWithAssertion(final AuthenticationRequest authenticationRequest)
             throws AuthenticationException {
         final String methodName = ":tryAcquireTokenSilentWithAssertion";
-        Logger.v(TAG + methodName, "Try to silently get token using SAML Assertion.");
+        Logger.verbose(TAG, methodName, "Try to silently get token using SAML Assertion.");
         final AcquireTokenSilentHandler acquireTokenSilentHandler = new AcquireTokenSilentHandler(mContext,
                 authenticationRequest, mTokenCacheAccessor);
 
@@ -669,7 +957,7 @@ class AcquireTokenRequest {
         } else if (regularTokenCacheItem != null) {
             mTokenCacheAccessor.removeTokenCacheItem(regularTokenCacheItem, request.getResource());
         } else {
-            Logger.v(TAG + methodName, "No token items need to be deleted for the user.");
+            Logger.verbose(TAG, methodName, "No token items need to be deleted for the user.");
         }
     }
 
@@ -677,7 +965,7 @@ class AcquireTokenRequest {
      * Handles the acquire token interactive flow. If we can switch to broker, will always launch webview via broker.
      * If we cannot switch to broker, will launch webview locally.
      */
-    private void acquireTokenInteractiveFlow(final CallbackHandler callbackHandle,
+    private void acquireTokenInteractiveFlow(final CallbackHandler<AuthenticationResult> callbackHandle,
                                              final IWindowComponent activity,
                                              final boolean useDialog,
                                              final AuthenticationRequest authenticationRequest)
@@ -796,7 +1084,7 @@ class AcquireTokenRequest {
                     "The base64 url encoded signature component of the redirect uri does not match the expected value.");
         }
 
-        Logger.v(TAG + methodName, "The broker redirect URI is valid.");
+        Logger.verbose(TAG, methodName, "The broker redirect URI is valid.");
     }
 
 
@@ -991,14 +1279,14 @@ class AcquireTokenRequest {
                     } else {
                         // Browser has the url and it will exchange auth code
                         // for token
-                        final CallbackHandler callbackHandle = new CallbackHandler(getHandler(),
+                        final CallbackHandler<AuthenticationResult> callbackHandle = new CallbackHandler<>(getHandler(),
                                 waitingRequest.getDelegate());
 
                         // Executes all the calls inside the Runnable to return
                         // immediately to
                         // UI thread. All UI
                         // related actions will be performed using the Handler.
-                        THREAD_EXECUTOR.execute(new Runnable() {
+                        THREAD_EXECUTOR.execute(getSerializationKey(waitingRequest.getRequest()), new Runnable() {
 
                             @Override
                             public void run() {
@@ -1044,6 +1332,29 @@ class AcquireTokenRequest {
         }
     }
 
+    /**
+     * @return executor running the async work, exposing its queue depth and wait times.
+     */
+    static KeyedSerialExecutor getRequestExecutor() {
+        return THREAD_EXECUTOR;
+    }
+
+    /**
+     * Requests are serialized per authority, client id and user, the user being the user id
+     * or the login hint.
+     */
+    private static String getSerializationKey(final AuthenticationRequest request) {
+        if (request == null) {
+            return null;
+        }
+
+        final String user = !StringExtensions.isNullOrBlank(request.getUserId())
+                ? request.getUserId() : request.getLoginHint();
+        return (request.getAuthority() == null ? "" : request.getAuthority().toLowerCase(Locale.US))
+                + '|' + request.getClientId()
+                + '|' + (user == null ? "" : user.toLowerCase(Locale.US));
+    }
+
     private boolean isAccessTokenReturned(final AuthenticationResult authResult) {
         return authResult != null && !StringExtensions.isNullOrBlank(authResult.getAccessToken());
     }
@@ -1062,7 +1373,7 @@ class AcquireTokenRequest {
         waitingRequestOnError(null, waitingRequest, requestId, exc);
     }
 
-    private void waitingRequestOnError(final CallbackHandler handler, final AuthenticationRequestState waitingRequest,
+    private void waitingRequestOnError(final CallbackHandler<AuthenticationResult> handler, final AuthenticationRequestState waitingRequest,
                                        final int requestId, final AuthenticationException exc) {
         final String methodName = ":waitingRequestOnError";
         try {
@@ -1087,12 +1398,12 @@ class AcquireTokenRequest {
         }
     }
 
-    private static class CallbackHandler {
+    private static class CallbackHandler<T> {
         private Handler mRefHandler;
 
-        private AuthenticationCallback<AuthenticationResult> mCallback;
+        private AuthenticationCallback<T> mCallback;
 
-        CallbackHandler(Handler ref, AuthenticationCallback<AuthenticationResult> callbackExt) {
+        CallbackHandler(Handler ref, AuthenticationCallback<T> callbackExt) {
             mRefHandler = ref;
             mCallback = callbackExt;
         }
@@ -1112,7 +1423,7 @@ class AcquireTokenRequest {
             }
         }
 
-        public void onSuccess(final AuthenticationResult result) {
+        public void onSuccess(final T result) {
             if (mCallback != null) {
                 if (mRefHandler != null) {
                     mRefHandler.post(new Runnable() {
@@ -1127,7 +1438,7 @@ class AcquireTokenRequest {
             }
         }
 
-        AuthenticationCallback<AuthenticationResult> getCallback() {
+        AuthenticationCallback<T> getCallback() {
             return mCallback;
         }
     }
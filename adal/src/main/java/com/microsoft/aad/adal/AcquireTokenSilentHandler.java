@@ -111,11 +111,11 @@ class AcquireTokenSilentHandler {
                 mAuthRequest.getClientId(), mAuthRequest.getUserFromRequest());
         // If accessToken is null or if the user requested force refresh or if claims challenge is present then get a new access token using local refresh tokens
         if (accessTokenItem == null || mAuthRequest.getForceRefresh() || mAuthRequest.isClaimsChallengePresent()) {
-            Logger.v(TAG + methodName, "No valid access token exists, try with refresh token.");
+            Logger.verbose(TAG, methodName, "No valid access token exists, try with refresh token.");
             return tryRT();
         }
 
-        Logger.v(TAG + methodName, "Return AT from cache.");
+        Logger.verbose(TAG, methodName, "Return AT from cache.");
         return AuthenticationResult.createResult(accessTokenItem);
     }
 
@@ -263,7 +263,7 @@ class AcquireTokenSilentHandler {
         }
 
         if (regularRTItem == null) {
-            Logger.v(TAG + methodName, "Regular token cache entry does not exist, try with MRRT.");
+            Logger.verbose(TAG, methodName, "Regular token cache entry does not exist, try with MRRT.");
             return tryMRRT();
         }
 
@@ -285,7 +285,7 @@ class AcquireTokenSilentHandler {
             throw new AuthenticationException(ADALError.AUTH_FAILED_USER_MISMATCH, "Multiple refresh tokens exists for the given client id and resource");
         }
 
-        Logger.v(TAG + methodName, "Send request to use regular RT for new AT.");
+        Logger.verbose(TAG, methodName, "Send request to use regular RT for new AT.");
         return acquireTokenWithCachedItem(regularRTItem);
     }
 
@@ -308,13 +308,13 @@ class AcquireTokenSilentHandler {
 
         // MRRT does not exist, try with FRT.
         if (mMrrtTokenCacheItem == null) {
-            Logger.v(TAG + methodName, "MRRT token does not exist, try with FRT");
+            Logger.verbose(TAG, methodName, "MRRT token does not exist, try with FRT");
             return tryFRT(AuthenticationConstants.MS_FAMILY_ID, null);
         }
 
         // If MRRT is also a FRT, we try FRT first. 
         if (mMrrtTokenCacheItem.isFamilyToken()) {
-            Logger.v(TAG + methodName, "MRRT item exists but it's also a FRT, try with FRT.");
+            Logger.verbose(TAG, methodName, "MRRT item exists but it's also a FRT, try with FRT.");
             return tryFRT(mMrrtTokenCacheItem.getFamilyClientId(), null);
         }
 
@@ -359,14 +359,14 @@ class AcquireTokenSilentHandler {
             // already tried our best, null will be returned. If it exists, try with it.
             // If we have already tried an MRRT and no FRT found, we return the MRRT result passed in. 
             if (!mAttemptedWithMRRT) {
-                Logger.v(TAG + methodName, "FRT cache item does not exist, fall back to try MRRT.");
+                Logger.verbose(TAG, methodName, "FRT cache item does not exist, fall back to try MRRT.");
                 return useMRRT();
             } else {
                 return mrrtResult;
             }
         }
 
-        Logger.v(TAG + methodName, "Send request to use FRT for new AT.");
+        Logger.verbose(TAG, methodName, "Send request to use FRT for new AT.");
         AuthenticationResult frtResult = acquireTokenWithCachedItem(frtTokenCacheItem);
         if (isTokenRequestFailed(frtResult) && !mAttemptedWithMRRT) {
             // FRT request fails, fallback to MRRT if we haven't tried with MRRT. 
@@ -382,10 +382,10 @@ class AcquireTokenSilentHandler {
      */
     private AuthenticationResult useMRRT() throws AuthenticationException {
         final String methodName = ":useMRRT";
-        Logger.v(TAG + methodName, "Send request to use MRRT for new AT.");
+        Logger.verbose(TAG, methodName, "Send request to use MRRT for new AT.");
         mAttemptedWithMRRT = true;
         if (mMrrtTokenCacheItem == null) {
-            Logger.v(TAG + methodName, "MRRT does not exist, cannot proceed with MRRT for new AT.");
+            Logger.verbose(TAG, methodName, "MRRT does not exist, cannot proceed with MRRT for new AT.");
             return null;
         }
 
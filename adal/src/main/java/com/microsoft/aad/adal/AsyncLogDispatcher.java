@@ -0,0 +1,307 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers log messages to the external logger on a dedicated thread, so that a slow logger does
+ * not add latency to token requests. Messages go through a bounded lock-free ring buffer; when it
+ * is full, messages are dropped according to the {@link Logger.DropPolicy} and counted.
+ */
+final class AsyncLogDispatcher {
+    private static final String TAG = AsyncLogDispatcher.class.getSimpleName();
+
+    /**
+     * Receives the messages on the dispatcher thread.
+     */
+    interface Sink {
+        void deliver(String tag, String message, Logger.LogLevel level);
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FLUSH_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final RingBuffer<LogRecord> mQueue;
+
+    private final Logger.DropPolicy mDropPolicy;
+
+    private final Sink mSink;
+
+    private final Thread mConsumer;
+
+    private final AtomicLong mEnqueuedCount = new AtomicLong();
+
+    /**
+     * Messages delivered or evicted from the buffer by {@link Logger.DropPolicy#DropOldest}.
+     */
+    private final AtomicLong mProcessedCount = new AtomicLong();
+
+    private final AtomicLong mDroppedCount;
+
+    private volatile boolean mIsConsumerWaiting;
+
+    private volatile boolean mIsStopped;
+
+    /**
+     * @param capacity   Maximum number of queued messages, rounded up to a power of two.
+     * @param dropPolicy Messages to drop when the buffer is full.
+     * @param sink       Receives the messages on the dispatcher thread.
+     * @param droppedCount Counter of the dropped messages, shared with the dispatchers this one replaces.
+     */
+    AsyncLogDispatcher(final int capacity, final Logger.DropPolicy dropPolicy, final Sink sink,
+                       final AtomicLong droppedCount) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+
+        if (dropPolicy == null) {
+            throw new IllegalArgumentException("dropPolicy");
+        }
+
+        mQueue = new RingBuffer<>(capacity);
+        mDropPolicy = dropPolicy;
+        mSink = sink;
+        mDroppedCount = droppedCount;
+        mConsumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "adal-log");
+        mConsumer.setDaemon(true);
+        mConsumer.start();
+    }
+
+    /**
+     * Queues a message without blocking. A full buffer drops messages according to the drop policy.
+     *
+     * @return false if the dispatcher is stopped and the caller has to deliver the message itself.
+     */
+    boolean dispatch(final String tag, final String message, final Logger.LogLevel level) {
+        if (mIsStopped) {
+            return false;
+        }
+
+        final LogRecord record = new LogRecord(tag, message, level);
+        while (!mQueue.offer(record)) {
+            if (mDropPolicy == Logger.DropPolicy.DropNewest) {
+                mDroppedCount.incrementAndGet();
+                return true;
+            }
+
+            // Make room by evicting the oldest message, the consumer may have taken it in the meantime
+            if (mQueue.poll() != null) {
+                mDroppedCount.incrementAndGet();
+                mProcessedCount.incrementAndGet();
+            }
+        }
+
+        mEnqueuedCount.incrementAndGet();
+        if (mIsStopped) {
+            // Stopped while queuing, the dispatcher thread may have exited before the message was queued
+            drain();
+        } else if (mIsConsumerWaiting) {
+            LockSupport.unpark(mConsumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits until the messages queued before the call are delivered.
+     *
+     * @return true if they were delivered before the timeout.
+     */
+    boolean flush(final long timeoutMillis) {
+        final long target = mEnqueuedCount.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (mProcessedCount.get() < target) {
+            if (Thread.currentThread() == mConsumer || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+
+            LockSupport.unpark(mConsumer);
+            LockSupport.parkNanos(this, FLUSH_PARK_NANOS);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops the dispatcher thread once the queued messages are delivered. Messages dispatched
+     * afterwards are left to the caller, messages queued while stopping are delivered either by
+     * the dispatcher thread or on the thread queuing them.
+     */
+    void stop() {
+        mIsStopped = true;
+        LockSupport.unpark(mConsumer);
+    }
+
+    private void consume() {
+        while (true) {
+            final LogRecord record = mQueue.poll();
+            if (record != null) {
+                deliver(record);
+                continue;
+            }
+
+            if (mIsStopped) {
+                // A producer that did not see the stop has queued its message before it, take it too
+                drain();
+                return;
+            }
+
+            // Re-check after announcing the wait, a producer either sees the flag or its message is polled
+            mIsConsumerWaiting = true;
+            final LogRecord next = mQueue.poll();
+            if (next == null) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                mIsConsumerWaiting = false;
+            } else {
+                mIsConsumerWaiting = false;
+                deliver(next);
+            }
+        }
+    }
+
+    private void drain() {
+        LogRecord record;
+        while ((record = mQueue.poll()) != null) {
+            deliver(record);
+        }
+    }
+
+    private void deliver(final LogRecord record) {
+        try {
+            mSink.deliver(record.mTag, record.mMessage, record.mLevel);
+        } catch (final RuntimeException exception) {
+            // A failing external logger must not stop the delivery of the next messages
+            // and must not be logged through itself
+            Log.w(TAG, "External logger failed.", exception);
+        } finally {
+            mProcessedCount.incrementAndGet();
+        }
+    }
+
+    private static final class LogRecord {
+        private final String mTag;
+
+        private final String mMessage;
+
+        private final Logger.LogLevel mLevel;
+
+        LogRecord(final String tag, final String message, final Logger.LogLevel level) {
+            mTag = tag;
+            mMessage = message;
+            mLevel = level;
+        }
+    }
+
+    /**
+     * Bounded multi-producer multi-consumer queue. Each slot carries a sequence number telling
+     * whether it is free for the producer of a position or filled for its consumer, so producers
+     * and consumers only contend on the head and tail counters.
+     */
+    static final class RingBuffer<E> {
+        private final AtomicReferenceArray<E> mSlots;
+
+        private final AtomicLongArray mSequences;
+
+        private final int mMask;
+
+        private final AtomicLong mHead = new AtomicLong();
+
+        private final AtomicLong mTail = new AtomicLong();
+
+        RingBuffer(final int capacity) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+
+            mSlots = new AtomicReferenceArray<>(size);
+            mSequences = new AtomicLongArray(size);
+            mMask = size - 1;
+            for (int i = 0; i < size; i++) {
+                mSequences.set(i, i);
+            }
+        }
+
+        int capacity() {
+            return mMask + 1;
+        }
+
+        /**
+         * @return false if the buffer is full.
+         */
+        boolean offer(final E element) {
+            long position = mTail.get();
+            while (true) {
+                final int index = (int) (position & mMask);
+                final long difference = mSequences.get(index) - position;
+                if (difference == 0) {
+                    if (mTail.compareAndSet(position, position + 1)) {
+                        mSlots.set(index, element);
+                        mSequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+
+                position = mTail.get();
+            }
+        }
+
+        /**
+         * @return the oldest element, null if the buffer is empty.
+         */
+        E poll() {
+            long position = mHead.get();
+            while (true) {
+                final int index = (int) (position & mMask);
+                final long difference = mSequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (mHead.compareAndSet(position, position + 1)) {
+                        final E element = mSlots.getAndSet(index, null);
+                        mSequences.set(index, position + mMask + 1);
+                        return element;
+                    }
+                } else if (difference < 0) {
+                    return null;
+                }
+
+                position = mHead.get();
+            }
+        }
+    }
+}
@@ -52,13 +52,17 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.aad.adal.TokenCacheAccessor.getMsalOAuth2TokenCache;
@@ -90,6 +94,8 @@ public class AuthenticationContext {
     private boolean mExtendedLifetimeEnabled = false;
 
     private List<String> mClientCapabilites = null;
+
+    private ProactiveTokenRefresher mProactiveTokenRefresher = null;
     /**
      * Delegate map is needed to handle activity recreate without asking
      * developer to handle context instance for config changes.
@@ -782,6 +788,121 @@ public class AuthenticationContext {
         return authenticationResult.get();
     }
 
+    /**
+     * Validates the authority and fetches its instance discovery metadata in the background, for example
+     * while a splash screen is shown. Token requests started afterwards skip these network calls. For an
+     * AD FS authority, the domain of the login hint is used to establish trust through DRS and WebFinger,
+     * like an interactive request does.
+     *
+     * @param clientId  required client identifier.
+     * @param loginHint optional login hint of the user who is going to sign in.
+     * @param callback  optional {@link AuthenticationCallback} notified when the metadata is fetched,
+     *                  called on a background thread.
+     */
+    public void prefetch(@NonNull final String clientId,
+                         @Nullable final String loginHint,
+                         @Nullable final AuthenticationCallback<Void> callback) {
+        if (StringExtensions.isNullOrBlank(clientId)) {
+            throw new IllegalArgumentException("clientId");
+        }
+
+        final String requestId = Telemetry.registerNewRequest();
+        final APIEvent apiEvent = createApiEvent(mContext, clientId, requestId, EventStrings.PREFETCH);
+        final AuthenticationRequest request = new AuthenticationRequest(mAuthority, null, clientId, null,
+                loginHint, getRequestCorrelationId(), getExtendedLifetimeEnabled());
+        request.setTelemetryRequestId(requestId);
+        createAcquireTokenRequest(apiEvent).prefetch(request, callback);
+    }
+
+    /**
+     * This is sync function acquiring tokens for several resources of the same user at once.
+     * Valid access tokens are read from the cache in a single pass, the missing ones are acquired
+     * in parallel with the refresh token of the user, so a multi resource refresh token is redeemed
+     * once per resource without serializing the requests. This method will not show UI for the user.
+     *
+     * @param resources required resource identifiers.
+     * @param clientId  required client identifier.
+     * @param userId    UserID obtained from
+     *                  {@link AuthenticationResult #getUserInfo()}
+     * @return {@link AuthenticationResult} of each resource, in the order of the resources. A resource
+     * whose token could not be acquired silently has a result with
+     * {@link AuthenticationResult.AuthenticationStatus#Failed} status, its error code is the
+     * {@link ADALError} name.
+     * @throws AuthenticationException If the request fails before any resource is attempted,
+     *                                 such as failing authority validation.
+     * @throws InterruptedException    If the main thread is interrupted before or during the activity.
+     */
+    public Map<String, AuthenticationResult> acquireTokensSilentSync(@NonNull final List<String> resources,
+                                                                     @NonNull final String clientId,
+                                                                     final String userId)
+            throws AuthenticationException, InterruptedException {
+        final String methodName = ":acquireTokensSilentSync";
+        if (resources == null || resources.isEmpty()) {
+            throw new IllegalArgumentException("resources");
+        }
+
+        for (final String resource : resources) {
+            checkPreRequirements(resource, clientId);
+        }
+        checkADFSValidationRequirements(null);
+
+        final AtomicReference<Map<String, AuthenticationResult>> authenticationResults = new AtomicReference<>();
+        final AtomicReference<Exception> exception = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final String requestId = Telemetry.registerNewRequest();
+        final APIEvent apiEvent = createApiEvent(mContext, clientId, requestId, EventStrings.ACQUIRE_TOKENS_SILENT_SYNC);
+        apiEvent.setPromptBehavior(PromptBehavior.Auto.toString());
+        final UUID correlationId = getRequestCorrelationId();
+        final List<AuthenticationRequest> requests = new ArrayList<>(resources.size());
+        for (final String resource : new LinkedHashSet<>(resources)) {
+            final AuthenticationRequest request = new AuthenticationRequest(null, null, mAuthority, resource,
+                    clientId, userId, correlationId, getExtendedLifetimeEnabled(), false, null);
+            request.setSilent(true);
+            request.setPrompt(PromptBehavior.Auto);
+            request.setUserIdentifierType(UserIdentifierType.UniqueId);
+            request.setTelemetryRequestId(requestId);
+            request.setClientCapabilities(mClientCapabilites);
+            setAppInfoToRequest(request);
+            requests.add(request);
+        }
+
+        final Looper currentLooper = Looper.myLooper();
+        if (currentLooper != null && currentLooper == mContext.getMainLooper()) {
+            Logger.e(TAG + methodName,
+                    "Sync network calls must not be invoked in main thread. "
+                            + "This method will throw android.os.NetworkOnMainThreadException in next major release",
+                    new NetworkOnMainThreadException());
+        }
+        createAcquireTokenRequest(apiEvent).acquireTokensSilent(requests,
+                new AuthenticationCallback<Map<String, AuthenticationResult>>() {
+                    @Override
+                    public void onSuccess(Map<String, AuthenticationResult> result) {
+                        authenticationResults.set(result);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onError(Exception exc) {
+                        exception.set(exc);
+                        latch.countDown();
+                    }
+                });
+
+        latch.await();
+
+        final Exception e = exception.get();
+        if (e instanceof AuthenticationException) {
+            throw (AuthenticationException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new AuthenticationException(ADALError.ERROR_SILENT_REQUEST, e.getMessage(), e);
+        }
+
+        return authenticationResults.get();
+    }
+
     /**
      * The function will first look at the cache and automatically checks for
      * the token expiration. Additionally, if no suitable access token is found
@@ -882,7 +1003,7 @@ public class AuthenticationContext {
                                         String userId,
                                         AuthenticationCallback<AuthenticationResult> callback) {
         acquireTokenSilentAsync(null, null, resource, clientId, userId, UserIdentifierType.UniqueId,
-                false, null, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC, callback);
+                false, null, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC, callback, null);
     }
 
     /**
@@ -906,7 +1027,7 @@ public class AuthenticationContext {
                                         boolean forceRefresh,
                                         AuthenticationCallback<AuthenticationResult> callback) {
         acquireTokenSilentAsync(null, null, resource, clientId, userId, UserIdentifierType.UniqueId,
-                forceRefresh, null, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC_FORCE_REFRESH, callback);
+                forceRefresh, null, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC_FORCE_REFRESH, callback, null);
     }
 
     /**
@@ -931,7 +1052,43 @@ public class AuthenticationContext {
                                         @Nullable String claims,
                                         AuthenticationCallback<AuthenticationResult> callback) {
         acquireTokenSilentAsync(null, null, resource, clientId, userId, UserIdentifierType.UniqueId,
-                false, claims, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC_CLAIMS_CHALLENGE, callback);
+                false, claims, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC_CLAIMS_CHALLENGE, callback, null);
+    }
+
+    /**
+     * Same as {@link #acquireTokenSilentAsync(String, String, String, AuthenticationCallback)}, but the
+     * request has a deadline and can be cancelled through the returned {@link Future}. Once the deadline
+     * has passed, the future fails with {@link ADALError#REQUEST_DEADLINE_EXCEEDED}. A cancelled or expired
+     * request stops before its next authority validation, broker or token endpoint call, and no longer
+     * backs off for retries it would not have time to complete.
+     * Don't block the main thread on the future: the callback and the future are completed on the
+     * main thread, except when the deadline passes first.
+     *
+     * @param resource required resource identifier.
+     * @param clientId required client identifier.
+     * @param userId   UserId obtained from {@link UserInfo} inside
+     *                 {@link AuthenticationResult}
+     * @param timeout  time the request is allowed to take, must be positive.
+     * @param unit     unit of the timeout.
+     * @param callback optional {@link AuthenticationCallback} invoked with the same outcome as the future,
+     *                 not invoked if the future is cancelled.
+     * @return {@link Future} of the {@link AuthenticationResult}, cancelling it cancels the request.
+     */
+    public Future<AuthenticationResult> acquireTokenSilentAsync(final String resource,
+                                                                final String clientId,
+                                                                final String userId,
+                                                                final long timeout,
+                                                                @NonNull final TimeUnit unit,
+                                                                @Nullable final AuthenticationCallback<AuthenticationResult> callback) {
+        if (unit == null) {
+            throw new IllegalArgumentException("unit");
+        }
+
+        final CancellableRequestFuture future = new CancellableRequestFuture(
+                new RequestCancellation(unit.toMillis(timeout)), callback);
+        acquireTokenSilentAsync(null, null, resource, clientId, userId, UserIdentifierType.UniqueId,
+                false, null, EventStrings.ACQUIRE_TOKEN_SILENT_ASYNC_WITH_DEADLINE, future, future.getCancellation());
+        return future;
     }
 
     /**
@@ -959,7 +1116,7 @@ public class AuthenticationContext {
                                                      final String userId,
                                                      AuthenticationCallback<AuthenticationResult> callback) {
         acquireTokenSilentAsync(assertion, assertionType, resource, clientId, userId, UserIdentifierType.LoginHint,
-                false, null, EventStrings.ACQUIRE_TOKEN_WITH_SAML_ASSERTION, callback);
+                false, null, EventStrings.ACQUIRE_TOKEN_WITH_SAML_ASSERTION, callback, null);
     }
 
     private void acquireTokenSilentAsync(final String assertion,
@@ -971,7 +1128,8 @@ public class AuthenticationContext {
                                          final boolean forceRefresh,
                                          final String claims,
                                          final String apiEventString,
-                                         final AuthenticationCallback<AuthenticationResult> callback) {
+                                         final AuthenticationCallback<AuthenticationResult> callback,
+                                         @Nullable final RequestCancellation cancellation) {
 
         if (!checkPreRequirements(resource, clientId, callback) || !checkADFSValidationRequirements(null, callback)) {
             // AD FS validation cannot be perfomed, stop executing
@@ -998,6 +1156,7 @@ public class AuthenticationContext {
         setAppInfoToRequest(request);
 
         request.setTelemetryRequestId(requestId);
+        request.setCancellation(cancellation);
 
         createAcquireTokenRequest(apiEvent).acquireToken(null, false, request, callback);
 
@@ -1619,6 +1778,34 @@ public class AuthenticationContext {
         return BuildConfig.VERSION_NAME;
     }
 
+    /**
+     * Starts refreshing the access tokens of the client in this context's cache in the background
+     * before they expire, so that silent requests find a valid access token. Refreshes are spread
+     * out over time, limited in number and skipped while the device is offline or saving power.
+     * Replaces the refresh started for another client.
+     *
+     * @param clientId client id of the tokens to refresh.
+     */
+    public synchronized void enableProactiveTokenRefresh(@NonNull final String clientId) {
+        if (StringExtensions.isNullOrBlank(clientId)) {
+            throw new IllegalArgumentException("clientId");
+        }
+
+        disableProactiveTokenRefresh();
+        mProactiveTokenRefresher = new ProactiveTokenRefresher(mContext, this, clientId);
+        mProactiveTokenRefresher.start();
+    }
+
+    /**
+     * Stops the background refresh started with {@link #enableProactiveTokenRefresh(String)}.
+     */
+    public synchronized void disableProactiveTokenRefresh() {
+        if (mProactiveTokenRefresher != null) {
+            mProactiveTokenRefresher.stop();
+            mProactiveTokenRefresher = null;
+        }
+    }
+
     public List<String> getClientCapabilites() {
         return mClientCapabilites;
     }
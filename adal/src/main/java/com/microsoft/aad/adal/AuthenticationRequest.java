@@ -81,6 +81,8 @@ class AuthenticationRequest implements Serializable {
 
     private transient InstanceDiscoveryMetadata mInstanceDiscoveryMetadata;
 
+    private transient RequestCancellation mCancellation;
+
     private boolean mForceRefresh = false;
 
     private boolean mSkipCache = false;
@@ -444,6 +446,14 @@ class AuthenticationRequest implements Serializable {
         return mInstanceDiscoveryMetadata;
     }
 
+    void setCancellation(final RequestCancellation cancellation) {
+        mCancellation = cancellation;
+    }
+
+    RequestCancellation getCancellation() {
+        return mCancellation;
+    }
+
     public boolean getForceRefresh() {
         return mForceRefresh;
     }
@@ -36,6 +36,14 @@ public enum AuthenticationSettings {
 
     private static final int DEFAULT_READ_CONNECT_TIMEOUT = 30000;
 
+    private static final int DEFAULT_MAX_TOKEN_REQUEST_ATTEMPTS = 2;
+
+    private static final int DEFAULT_TOKEN_REQUEST_RETRY_DELAY = 1000;
+
+    private static final int DEFAULT_TOKEN_REQUEST_MAX_RETRY_DELAY = 8000;
+
+    private static final int DEFAULT_TOKEN_REQUEST_DEADLINE = 60000;
+
     private String mActivityPackageName;
 
     private boolean mEnableHardwareAcceleration = true;
@@ -61,6 +69,14 @@ public enum AuthenticationSettings {
 
     private int mReadTimeOut = DEFAULT_READ_CONNECT_TIMEOUT;
 
+    private volatile int mMaxTokenRequestAttempts = DEFAULT_MAX_TOKEN_REQUEST_ATTEMPTS;
+
+    private volatile int mTokenRequestRetryDelay = DEFAULT_TOKEN_REQUEST_RETRY_DELAY;
+
+    private volatile int mTokenRequestMaxRetryDelay = DEFAULT_TOKEN_REQUEST_MAX_RETRY_DELAY;
+
+    private volatile int mTokenRequestDeadline = DEFAULT_TOKEN_REQUEST_DEADLINE;
+
 
     /**
      * Get bytes to derive secretKey to use in encrypt/decrypt.
@@ -275,6 +291,90 @@ public enum AuthenticationSettings {
         com.microsoft.identity.common.adal.internal.AuthenticationSettings.INSTANCE.setReadTimeOut(timeOutMillis);
     }
 
+    /**
+     * Get the maximum number of attempts of a token request.
+     *
+     * @return maximum number of attempts, including the first one
+     */
+    public int getMaxTokenRequestAttempts() {
+        return mMaxTokenRequestAttempts;
+    }
+
+    /**
+     * Sets the maximum number of times a token request is sent when the server
+     * times out, throttles the request or fails with a 5xx status code. The
+     * default value is 2, which retries a failed request once.
+     *
+     * @param maxAttempts the number of attempts including the first one, at least 1.
+     */
+    public void setMaxTokenRequestAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts");
+        }
+
+        mMaxTokenRequestAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the delay before the first retry of a token request.
+     *
+     * @return retry delay in milliseconds
+     */
+    public int getTokenRequestRetryDelay() {
+        return mTokenRequestRetryDelay;
+    }
+
+    /**
+     * Get the upper bound of the delay between two attempts of a token request.
+     *
+     * @return maximum retry delay in milliseconds
+     */
+    public int getTokenRequestMaxRetryDelay() {
+        return mTokenRequestMaxRetryDelay;
+    }
+
+    /**
+     * Sets the backoff between the attempts of a token request. The delay starts at
+     * retryDelayMillis and doubles for each further retry up to maxRetryDelayMillis, with
+     * a random jitter of up to half the delay. A Retry-After header sent by the server
+     * takes precedence. Default values are 1000 and 8000 milliseconds.
+     *
+     * @param retryDelayMillis    the non-negative delay before the first retry in milliseconds.
+     * @param maxRetryDelayMillis the maximum delay in milliseconds, not less than retryDelayMillis.
+     */
+    public void setTokenRequestRetryDelays(int retryDelayMillis, int maxRetryDelayMillis) {
+        if (retryDelayMillis < 0 || maxRetryDelayMillis < retryDelayMillis) {
+            throw new IllegalArgumentException("retryDelayMillis");
+        }
+
+        mTokenRequestRetryDelay = retryDelayMillis;
+        mTokenRequestMaxRetryDelay = maxRetryDelayMillis;
+    }
+
+    /**
+     * Get the time after which a failed token request is not retried anymore.
+     *
+     * @return deadline in milliseconds
+     */
+    public int getTokenRequestDeadline() {
+        return mTokenRequestDeadline;
+    }
+
+    /**
+     * Sets the time, counted from the first attempt of a token request, after which
+     * no further attempt is started. A retry whose delay would pass the deadline is not
+     * attempted. The default value is 60000 milliseconds.
+     *
+     * @param deadlineMillis the non-negative deadline in milliseconds.
+     */
+    public void setTokenRequestDeadline(int deadlineMillis) {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("deadlineMillis");
+        }
+
+        mTokenRequestDeadline = deadlineMillis;
+    }
+
     /**
      * Method to enable/disable WebView hardware acceleration used in
      * {@link AuthenticationActivity} and {@link AuthenticationDialog}.
@@ -23,6 +23,8 @@
 
 package com.microsoft.aad.adal;
 
+import android.content.Context;
+
 import androidx.annotation.Nullable;
 
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
@@ -58,6 +60,13 @@ final class AuthorityValidationMetadataCache {
 
     private static ConcurrentMap<String, InstanceDiscoveryMetadata> sAadAuthorityHostMetadata = new ConcurrentHashMap<>();
 
+    private static InstanceDiscoveryMetadataStore sPersistentStore;
+
+    /**
+     * Set when the cache is cleared before the persistent store is initialized.
+     */
+    private static boolean sIsPersistentStoreCleared;
+
     private AuthorityValidationMetadataCache() {
         // Utility class, no public constructor
     }
@@ -101,12 +110,42 @@ final class AuthorityValidationMetadataCache {
         sAadAuthorityHostMetadata.put(host.toLowerCase(Locale.US), metadata);
     }
 
+    static void removeAuthorityHost(final URL authorityUrl) {
+        sAadAuthorityHostMetadata.remove(authorityUrl.getHost().toLowerCase(Locale.US));
+    }
+
     static Map<String, InstanceDiscoveryMetadata> getAuthorityValidationMetadataCache() {
         return Collections.unmodifiableMap(sAadAuthorityHostMetadata);
     }
 
+    /**
+     * Clears the in-memory and the persisted metadata.
+     */
     static void clearAuthorityValidationCache() {
         sAadAuthorityHostMetadata.clear();
+        synchronized (AuthorityValidationMetadataCache.class) {
+            if (sPersistentStore == null) {
+                sIsPersistentStoreCleared = true;
+            } else {
+                sPersistentStore.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the store persisting the discovery responses, created on first use.
+     */
+    static synchronized InstanceDiscoveryMetadataStore getPersistentStore(final Context context) {
+        if (sPersistentStore == null) {
+            final Context applicationContext = context.getApplicationContext();
+            sPersistentStore = new InstanceDiscoveryMetadataStore(applicationContext == null ? context : applicationContext);
+            if (sIsPersistentStoreCleared) {
+                sPersistentStore.clear();
+                sIsPersistentStoreCleared = false;
+            }
+        }
+
+        return sPersistentStore;
     }
 
     private static void processInstanceDiscoveryResponse(final String metadata) throws JSONException {
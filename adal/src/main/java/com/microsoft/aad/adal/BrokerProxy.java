@@ -68,6 +68,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles interactions to authenticator inside the Account Manager.
@@ -366,9 +367,21 @@ class BrokerProxy implements IBrokerProxy {
                         null, //set to null to avoid callback
                         mHandler);
 
-                // Making blocking request here
+                // Making blocking request here, bounded by the request deadline if there is one
                 Logger.v(TAG + methodName, "Received result from broker");
-                bundleResult = result.getResult();
+                final RequestCancellation cancellation = request.getCancellation();
+                if (cancellation == null) {
+                    bundleResult = result.getResult();
+                } else {
+                    cancellation.throwIfDone("broker request");
+                    try {
+                        bundleResult = result.getResult(cancellation.getRemainingMillis(), TimeUnit.MILLISECONDS);
+                    } catch (final OperationCanceledException e) {
+                        result.cancel(true);
+                        cancellation.throwIfDone("broker result");
+                        throw e;
+                    }
+                }
             } catch (final OperationCanceledException e) {
                 // Error code AUTH_FAILED_CANCELLED will be thrown if the request was canceled for any reason.
                 Logger.e(TAG + methodName, AUTHENTICATOR_CANCELS_REQUEST, "", ADALError.AUTH_FAILED_CANCELLED, e);
@@ -0,0 +1,142 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link java.util.concurrent.Future} of a token request with a deadline. The future completes
+ * exactly once: with the result of the request, with {@link ADALError#REQUEST_DEADLINE_EXCEEDED}
+ * when the deadline passes first, or as cancelled. In the latter two cases the request itself is
+ * cancelled through its {@link RequestCancellation}, so it stops at the next phase boundary and
+ * releases its thread. The optional callback is invoked once, with the same outcome as the future,
+ * and is not invoked at all if the future was cancelled.
+ */
+final class CancellableRequestFuture extends FutureTask<AuthenticationResult>
+        implements AuthenticationCallback<AuthenticationResult> {
+    private static final String TAG = CancellableRequestFuture.class.getSimpleName();
+
+    private static final ScheduledExecutorService DEADLINE_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "adal-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final RequestCancellation mCancellation;
+
+    private final AuthenticationCallback<AuthenticationResult> mCallback;
+
+    private final AtomicBoolean mIsCompleted = new AtomicBoolean(false);
+
+    private final ScheduledFuture<?> mDeadlineTask;
+
+    /**
+     * @param cancellation Cancellation of the request this future tracks, the deadline timer starts right away.
+     * @param callback     Optional callback to invoke when the request completes.
+     */
+    CancellableRequestFuture(final RequestCancellation cancellation,
+                             final AuthenticationCallback<AuthenticationResult> callback) {
+        super(new Callable<AuthenticationResult>() {
+            @Override
+            public AuthenticationResult call() throws Exception {
+                return null;
+            }
+        });
+
+        mCancellation = cancellation;
+        mCallback = callback;
+        mDeadlineTask = DEADLINE_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (complete(null, getDeadlineExceededException())) {
+                    Logger.v(TAG + ":run", "Request deadline passed, cancelling the request.");
+                    mCancellation.cancel(true);
+                }
+            }
+        }, cancellation.getRemainingMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    RequestCancellation getCancellation() {
+        return mCancellation;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        if (!mIsCompleted.compareAndSet(false, true)) {
+            return false;
+        }
+
+        mDeadlineTask.cancel(false);
+        mCancellation.cancel(mayInterruptIfRunning);
+        return super.cancel(false);
+    }
+
+    @Override
+    public void onSuccess(final AuthenticationResult result) {
+        complete(result, null);
+    }
+
+    @Override
+    public void onError(final Exception exc) {
+        // Whatever the request failed with once its deadline has passed, the reason is the deadline.
+        complete(null, mCancellation.isExpired() ? getDeadlineExceededException() : exc);
+    }
+
+    private boolean complete(final AuthenticationResult result, final Exception exc) {
+        if (!mIsCompleted.compareAndSet(false, true)) {
+            return false;
+        }
+
+        mDeadlineTask.cancel(false);
+        if (exc == null) {
+            set(result);
+            if (mCallback != null) {
+                mCallback.onSuccess(result);
+            }
+        } else {
+            setException(exc);
+            if (mCallback != null) {
+                mCallback.onError(exc);
+            }
+        }
+
+        return true;
+    }
+
+    private static AuthenticationException getDeadlineExceededException() {
+        return new AuthenticationException(ADALError.REQUEST_DEADLINE_EXCEEDED,
+                "Request did not complete before its deadline.");
+    }
+}
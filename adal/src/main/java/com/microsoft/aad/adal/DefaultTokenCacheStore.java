@@ -25,6 +25,7 @@ package com.microsoft.aad.adal;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
 
@@ -38,15 +39,14 @@ import com.microsoft.identity.common.java.adal.cache.DateTimeAdapter;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.microsoft.aad.adal.ADALError.ARGUMENT_EXCEPTION;
 
@@ -54,7 +54,7 @@ import static com.microsoft.aad.adal.ADALError.ARGUMENT_EXCEPTION;
  * Store/Retrieve TokenCacheItem from SharedPreferencesFileManager.
  * SharedPreferencesFileManager saves items when it is committed in an atomic operation.
  */
-public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuery {
+public class DefaultTokenCacheStore implements ITokenCacheBatchStore, ITokenStoreQuery {
 
     private static final long serialVersionUID = 1L;
 
@@ -75,6 +75,12 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
     private static final Object LOCK = new Object();
 
+    private final TokenCacheIndex mIndex = new TokenCacheIndex();
+
+    private final AtomicLong mDecryptedItemCacheHits = new AtomicLong();
+
+    private final AtomicLong mDecryptedItemCacheMisses = new AtomicLong();
+
     /**
      * @param context {@link Context}
      */
@@ -168,14 +174,33 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         if (mPrefs.contains(key)) {
             String json = mPrefs.getString(key);
             json = null != json ? json : "";
-            String decrypted = decrypt(key, json);
-            if (decrypted != null) {
-                try {
-                    return mGson.fromJson(decrypted, TokenCacheItem.class);
-                } catch (final JsonSyntaxException exception) {
-                    Logger.e(TAG, "Fail to parse Json. ", exception.getMessage(), ARGUMENT_EXCEPTION, exception);
+
+            // The indexed entry is only reused if the persisted value is still the one it was
+            // decrypted from, so writes from other instances or processes are picked up.
+            final TokenCacheItem indexedItem = mIndex.getIfCurrent(key, json);
+            if (indexedItem != null) {
+                mDecryptedItemCacheHits.incrementAndGet();
+                return indexedItem;
+            }
+
+            mDecryptedItemCacheMisses.incrementAndGet();
+            final TokenCacheItem item = parse(key, json);
+            if (item != null) {
+                synchronized (mIndex) {
+                    // Don't overwrite the entry of a write made while decrypting.
+                    if (json.equals(mPrefs.getString(key))) {
+                        mIndex.put(key, json, item);
+                    }
                 }
             }
+
+            return item;
+        }
+
+        synchronized (mIndex) {
+            if (!mPrefs.contains(key)) {
+                mIndex.remove(key);
+            }
         }
 
         return null;
@@ -187,8 +212,12 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
             throw new IllegalArgumentException("key");
         }
 
-        if (mPrefs.contains(key)) {
-            mPrefs.remove(key);
+        synchronized (mIndex) {
+            if (mPrefs.contains(key)) {
+                mPrefs.remove(key);
+            }
+
+            mIndex.remove(key);
         }
     }
 
@@ -205,15 +234,92 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         String json = mGson.toJson(item);
         String encrypted = encrypt(json);
         if (encrypted != null) {
-            mPrefs.putString(key, encrypted);
+            synchronized (mIndex) {
+                mPrefs.putString(key, encrypted);
+                mIndex.put(key, encrypted, item);
+            }
         } else {
             Logger.e(TAG, "Encrypted output is null. ", "", ADALError.ENCRYPTION_FAILED);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * {@link SharedPreferencesFileManager} has no multi-entry write, so the batch is applied
+     * through a single editor on the preferences file it wraps and committed once. Android
+     * keeps one instance per preferences file in the process, so the committed entries are
+     * visible through {@link SharedPreferencesFileManager} right away. Items that cannot be
+     * encrypted are skipped, as in {@link #setItem(String, TokenCacheItem)}.
+     */
+    @Override
+    public void applyBatch(final TokenCacheBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final String[] encryptedValues = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            final TokenCacheItem item = batch.getItem(i);
+            if (item != null) {
+                encryptedValues[i] = encrypt(mGson.toJson(item));
+                if (encryptedValues[i] == null) {
+                    Logger.e(TAG, "Encrypted output is null. ", "", ADALError.ENCRYPTION_FAILED);
+                }
+            }
+        }
+
+        synchronized (mIndex) {
+            final SharedPreferences.Editor editor = mContext.getSharedPreferences(
+                    SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE).edit();
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.getItem(i) == null) {
+                    editor.remove(batch.getKey(i));
+                } else if (encryptedValues[i] != null) {
+                    editor.putString(batch.getKey(i), encryptedValues[i]);
+                }
+            }
+
+            if (!editor.commit()) {
+                Logger.w(TAG, "Failed to write the token cache batch to disk.");
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                final String key = batch.getKey(i);
+                final TokenCacheItem item = batch.getItem(i);
+                if (item == null) {
+                    mIndex.remove(key);
+                } else if (encryptedValues[i] != null) {
+                    mIndex.put(key, encryptedValues[i], item);
+                }
+            }
+        }
+    }
+
     @Override
     public void removeAll() {
-        mPrefs.clear();
+        synchronized (mIndex) {
+            mPrefs.clear();
+            mIndex.clear();
+        }
+    }
+
+    /**
+     * @return number of {@link #getItem(String)} calls served without decryption.
+     */
+    long getDecryptedItemCacheHitCount() {
+        return mDecryptedItemCacheHits.get();
+    }
+
+    /**
+     * @return number of {@link #getItem(String)} calls that had to decrypt the persisted value.
+     */
+    long getDecryptedItemCacheMissCount() {
+        return mDecryptedItemCacheMisses.get();
     }
 
     // Extra helper methods can be implemented here for queries
@@ -225,30 +331,7 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
      */
     @Override
     public Iterator<TokenCacheItem> getAll() {
-        @SuppressWarnings("unchecked")
-        Map<String, String> results = (Map<String, String>) mPrefs.getAll();
-
-        // create objects
-        final List<TokenCacheItem> tokens = new ArrayList<>(results.values().size());
-
-        Iterator<Entry<String, String>> tokenResultEntrySet = results.entrySet().iterator();
-        while (tokenResultEntrySet.hasNext()) {
-            final Entry<String, String> tokenEntry = tokenResultEntrySet.next();
-            final String tokenKey = tokenEntry.getKey();
-            final String tokenValue = tokenEntry.getValue();
-
-            final String decryptedValue = decrypt(tokenKey, tokenValue);
-            if (decryptedValue != null) {
-                try {
-                    final TokenCacheItem tokenCacheItem = mGson.fromJson(decryptedValue, TokenCacheItem.class);
-                    tokens.add(tokenCacheItem);
-                } catch (final JsonSyntaxException exception) {
-                    Logger.e(TAG, "Fail to parse Json. ", exception.getMessage(), ARGUMENT_EXCEPTION, exception);
-                }
-            }
-        }
-
-        return tokens.iterator();
+        return getIndex().getAll().iterator();
     }
 
     /**
@@ -258,17 +341,7 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
      */
     @Override
     public Set<String> getUniqueUsersWithTokenCache() {
-        Iterator<TokenCacheItem> results = this.getAll();
-        final Set<String> users = new HashSet<>();
-
-        while (results.hasNext()) {
-            final TokenCacheItem tokenCacheItem = results.next();
-            if (tokenCacheItem.getUserInfo() != null && !users.contains(tokenCacheItem.getUserInfo().getUserId())) {
-                users.add(tokenCacheItem.getUserInfo().getUserId());
-            }
-        }
-
-        return users;
+        return getIndex().getUniqueUserIds();
     }
 
     /**
@@ -279,18 +352,8 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
      */
     @Override
     public List<TokenCacheItem> getTokensForResource(String resource) {
-        Iterator<TokenCacheItem> results = this.getAll();
-        final List<TokenCacheItem> tokenItems = new ArrayList<>();
-
-        while (results.hasNext()) {
-            final TokenCacheItem tokenCacheItem = results.next();
-            // MRRT and FRT don't store resource in the token cache item. 
-            if (resource.equals(tokenCacheItem.getResource())) {
-                tokenItems.add(tokenCacheItem);
-            }
-        }
-
-        return tokenItems;
+        // MRRT and FRT don't store resource in the token cache item.
+        return getIndex().getItemsForResource(resource);
     }
 
     /**
@@ -301,18 +364,17 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
      */
     @Override
     public List<TokenCacheItem> getTokensForUser(String userId) {
-        Iterator<TokenCacheItem> results = this.getAll();
-        final List<TokenCacheItem> tokenItems = new ArrayList<>();
-
-        while (results.hasNext()) {
-            final TokenCacheItem tokenCacheItem = results.next();
-            if (tokenCacheItem.getUserInfo() != null
-                    && tokenCacheItem.getUserInfo().getUserId().equalsIgnoreCase(userId)) {
-                tokenItems.add(tokenCacheItem);
-            }
-        }
+        return getIndex().getItemsForUser(userId);
+    }
 
-        return tokenItems;
+    /**
+     * Get tokens issued to the given client id. FRT entries don't store client id.
+     *
+     * @param clientId client id
+     * @return list of {@link TokenCacheItem}
+     */
+    List<TokenCacheItem> getTokensForClientId(final String clientId) {
+        return getIndex().getItemsForClientId(clientId);
     }
 
     /**
@@ -346,18 +408,70 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
      */
     @Override
     public List<TokenCacheItem> getTokensAboutToExpire() {
-        Iterator<TokenCacheItem> results = this.getAll();
-        final List<TokenCacheItem> tokenItems = new ArrayList<>();
+        return getIndex().getItemsExpiringBefore(getTokenValidityTime().getTime());
+    }
+
+    /**
+     * Get tokens expiring before the given time.
+     *
+     * @param time time the tokens expire before.
+     * @return list of {@link TokenCacheItem}
+     */
+    List<TokenCacheItem> getTokensExpiringBefore(final Date time) {
+        return getIndex().getItemsExpiringBefore(time);
+    }
+
+    /**
+     * The persisted entries are reconciled with the index on every query, since the cache is
+     * also written without going through this class, e.g. by the common cache or another
+     * process. Only entries whose encrypted value differs from the one the index was built
+     * from are decrypted.
+     */
+    private TokenCacheIndex getIndex() {
+        synchronized (mIndex) {
+            reconcileIndex();
+        }
+
+        return mIndex;
+    }
 
-        while (results.hasNext()) {
-            final TokenCacheItem tokenCacheItem = results.next();
-            if (isAboutToExpire(tokenCacheItem.getExpiresOn())) {
-                tokenItems.add(tokenCacheItem);
+    private void reconcileIndex() {
+        @SuppressWarnings("unchecked")
+        final Map<String, String> persisted = (Map<String, String>) mPrefs.getAll();
+
+        for (final String indexedKey : mIndex.getKeys()) {
+            if (!persisted.containsKey(indexedKey)) {
+                mIndex.remove(indexedKey);
             }
         }
 
+        for (final Entry<String, String> tokenEntry : persisted.entrySet()) {
+            final String tokenKey = tokenEntry.getKey();
+            final String tokenValue = tokenEntry.getValue();
+            if (tokenValue == null || mIndex.isCurrent(tokenKey, tokenValue)) {
+                continue;
+            }
 
-        return tokenItems;
+            final TokenCacheItem tokenCacheItem = parse(tokenKey, tokenValue);
+            if (tokenCacheItem != null) {
+                mIndex.put(tokenKey, tokenValue, tokenCacheItem);
+            } else {
+                mIndex.remove(tokenKey);
+            }
+        }
+    }
+
+    private TokenCacheItem parse(final String key, final String encryptedValue) {
+        final String decryptedValue = decrypt(key, encryptedValue);
+        if (decryptedValue != null) {
+            try {
+                return mGson.fromJson(decryptedValue, TokenCacheItem.class);
+            } catch (final JsonSyntaxException exception) {
+                Logger.e(TAG, "Fail to parse Json. ", exception.getMessage(), ARGUMENT_EXCEPTION, exception);
+            }
+        }
+
+        return null;
     }
 
     private void validateSecretKeySetting() {
@@ -368,12 +482,6 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
         }
     }
 
-    private boolean isAboutToExpire(Date expires) {
-        Date validity = getTokenValidityTime().getTime();
-
-        return expires != null && expires.before(validity);
-    }
-
     private static final int TOKEN_VALIDITY_WINDOW = 10;
 
     private static Calendar getTokenValidityTime() {
@@ -390,5 +498,4 @@ public class DefaultTokenCacheStore implements ITokenCacheStore, ITokenStoreQuer
 
         return mPrefs.contains(key);
     }
-
 }
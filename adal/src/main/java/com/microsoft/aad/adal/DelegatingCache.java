@@ -33,7 +33,7 @@ import java.util.Iterator;
 /**
  * An implementation of {@link ITokenCacheStore} that delegates to a constructor-provided instance.
  */
-class DelegatingCache implements ITokenCacheStore {
+class DelegatingCache implements ITokenCacheBatchStore {
 
     private final Context mContext;
     private final ITokenCacheStore mDelegate;
@@ -84,6 +84,11 @@ class DelegatingCache implements ITokenCacheStore {
         mDelegate.removeItem(key);
     }
 
+    @Override
+    public void applyBatch(final TokenCacheBatch batch) {
+        batch.applyTo(mDelegate);
+    }
+
     @Override
     public void removeAll() {
         // Clear our original cache
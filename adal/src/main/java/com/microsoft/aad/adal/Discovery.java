@@ -50,6 +50,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -75,9 +78,32 @@ class Discovery {
     private static final String AUTHORIZATION_COMMON_ENDPOINT = "/common/oauth2/authorize";
 
     /**
-     * {@link ReentrantLock} for making sure there is only one instance discovery request sent out at a time.
+     * Persisted discovery metadata younger than this is used without revalidation.
      */
-    private static volatile ReentrantLock sInstanceDiscoveryNetworkRequestLock;
+    static final long METADATA_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Persisted discovery metadata younger than this is used while it is revalidated in the background,
+     * older metadata is discarded.
+     */
+    static final long METADATA_MAX_STALENESS_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Executor revalidating stale persisted metadata.
+     */
+    private static final KeyedSerialExecutor REVALIDATION_EXECUTOR = new KeyedSerialExecutor("adal-discovery-", 1);
+
+    /**
+     * Authority hosts whose metadata is being revalidated.
+     */
+    private static final Set<String> REVALIDATING_HOSTS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * {@link ReentrantLock} by authority host, making sure there is only one instance discovery request
+     * sent out at a time for a host while different hosts are validated concurrently.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> INSTANCE_DISCOVERY_NETWORK_REQUEST_LOCKS =
+            new ConcurrentHashMap<>();
 
     /**
      * Sync set of valid hosts to skip query to server if host was verified
@@ -107,10 +133,13 @@ class Discovery {
      */
     private final IWebRequestHandler mWebrequestHandler;
 
+    private final InstanceDiscoveryMetadataStore mMetadataStore;
+
     public Discovery(final Context context) {
         initValidList();
         mContext = context;
         mWebrequestHandler = new WebRequestHandler();
+        mMetadataStore = AuthorityValidationMetadataCache.getPersistentStore(context);
     }
 
     void validateAuthorityADFS(final URL authorizationEndpoint, final String domain)
@@ -136,12 +165,20 @@ class Discovery {
             trustedHost = TRUSTED_QUERY_INSTANCE;
         }
 
+        final ReentrantLock instanceDiscoveryNetworkRequestLock = getLock(authorityHost);
+        try {
+            // A cancelled request interrupts its thread, don't keep it queued behind another discovery.
+            instanceDiscoveryNetworkRequestLock.lockInterruptibly();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException(ADALError.AUTH_FAILED_CANCELLED,
+                    "Interrupted while waiting for instance discovery.", e);
+        }
+
         try {
-            sInstanceDiscoveryNetworkRequestLock = getLock();
-            sInstanceDiscoveryNetworkRequestLock.lock();
             performInstanceDiscovery(authorizationEndpoint, trustedHost);
         } finally {
-            sInstanceDiscoveryNetworkRequestLock.unlock();
+            instanceDiscoveryNetworkRequestLock.unlock();
         }
     }
 
@@ -233,6 +270,10 @@ class Discovery {
             return;
         }
 
+        if (loadPersistedMetadata(authorityUrl, trustedHost)) {
+            return;
+        }
+
         //Check if the network connection available
         HttpUtil.throwIfNetworkNotAvailable(mContext);
 
@@ -243,21 +284,10 @@ class Discovery {
         try {
             queryUrl = buildQueryString(trustedHost, getAuthorizationCommonEndpoint(authorityUrl));
             final Map<String, String> discoveryResponse = sendRequest(queryUrl);
-
-            // Set the Cloud instance discovery metadata on the AAD IdentityProvider
-            AzureActiveDirectory.initializeCloudMetadata(
-                    authorityUrl.getHost().toLowerCase(Locale.US),
-                    discoveryResponse
-            );
-
-            AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(authorityUrl, discoveryResponse);
-            if (!AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
-                ArrayList<String> aliases = new ArrayList<String>();
-                aliases.add(authorityUrl.getHost());
-                AuthorityValidationMetadataCache.updateInstanceDiscoveryMap(authorityUrl.getHost(),
-                        new InstanceDiscoveryMetadata(authorityUrl.getHost(), authorityUrl.getHost(), aliases));
+            result = processDiscoveryResponse(authorityUrl, discoveryResponse);
+            if (result) {
+                mMetadataStore.save(authorityUrl.getHost(), discoveryResponse);
             }
-            result = AuthorityValidationMetadataCache.isAuthorityValidated(authorityUrl);
         } catch (JSONException e) {
             Logger.e(TAG + methodName, "Error when validating authority. ", "", ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE, e);
             throw new AuthenticationException(ADALError.DEVELOPER_AUTHORITY_IS_NOT_VALID_INSTANCE, e.getMessage(), e);
@@ -275,6 +305,99 @@ class Discovery {
         }
     }
 
+    /**
+     * Fills in the metadata cache from the discovery response.
+     *
+     * @return true if the authority is validated.
+     */
+    private static boolean processDiscoveryResponse(final URL authorityUrl, final Map<String, String> discoveryResponse)
+            throws JSONException {
+        // Set the Cloud instance discovery metadata on the AAD IdentityProvider
+        AzureActiveDirectory.initializeCloudMetadata(
+                authorityUrl.getHost().toLowerCase(Locale.US),
+                discoveryResponse
+        );
+
+        AuthorityValidationMetadataCache.processInstanceDiscoveryMetadata(authorityUrl, discoveryResponse);
+        if (!AuthorityValidationMetadataCache.containsAuthorityHost(authorityUrl)) {
+            ArrayList<String> aliases = new ArrayList<String>();
+            aliases.add(authorityUrl.getHost());
+            AuthorityValidationMetadataCache.updateInstanceDiscoveryMap(authorityUrl.getHost(),
+                    new InstanceDiscoveryMetadata(authorityUrl.getHost(), authorityUrl.getHost(), aliases));
+        }
+
+        return AuthorityValidationMetadataCache.isAuthorityValidated(authorityUrl);
+    }
+
+    /**
+     * Validates the authority with the persisted discovery response, if it is recent enough. Metadata
+     * older than {@link #METADATA_TIME_TO_LIVE_MILLIS} is used but revalidated in the background.
+     *
+     * @return true if the authority is validated with the persisted metadata.
+     */
+    private boolean loadPersistedMetadata(final URL authorityUrl, final String trustedHost) {
+        final String methodName = ":loadPersistedMetadata";
+        final InstanceDiscoveryMetadataStore.PersistedResponse persistedResponse =
+                mMetadataStore.load(authorityUrl.getHost());
+        if (persistedResponse == null) {
+            return false;
+        }
+
+        final long age = System.currentTimeMillis() - persistedResponse.getTimestamp();
+        if (age < 0 || age > METADATA_MAX_STALENESS_MILLIS) {
+            Logger.verbose(TAG, methodName, "Persisted discovery metadata is too old.");
+            return false;
+        }
+
+        try {
+            if (!processDiscoveryResponse(authorityUrl, persistedResponse.getResponse())) {
+                AuthorityValidationMetadataCache.removeAuthorityHost(authorityUrl);
+                return false;
+            }
+        } catch (final JSONException e) {
+            Logger.w(TAG + methodName, "Persisted discovery metadata cannot be processed.", e.getMessage(), null);
+            AuthorityValidationMetadataCache.removeAuthorityHost(authorityUrl);
+            return false;
+        }
+
+        Logger.verbose(TAG, methodName, "Authority is validated with persisted discovery metadata.");
+        if (age > METADATA_TIME_TO_LIVE_MILLIS) {
+            revalidate(authorityUrl, trustedHost);
+        }
+
+        return true;
+    }
+
+    /**
+     * Refreshes the persisted metadata of the authority host in the background.
+     */
+    private void revalidate(final URL authorityUrl, final String trustedHost) {
+        final String authorityHost = authorityUrl.getHost().toLowerCase(Locale.US);
+        if (!REVALIDATING_HOSTS.add(authorityHost)) {
+            return;
+        }
+
+        REVALIDATION_EXECUTOR.execute(authorityHost, new Runnable() {
+            @Override
+            public void run() {
+                final String methodName = ":revalidate";
+                try {
+                    HttpUtil.throwIfNetworkNotAvailable(mContext);
+                    final Map<String, String> discoveryResponse = sendRequest(
+                            buildQueryString(trustedHost, getAuthorizationCommonEndpoint(authorityUrl)));
+                    if (processDiscoveryResponse(authorityUrl, discoveryResponse)) {
+                        mMetadataStore.save(authorityHost, discoveryResponse);
+                        Logger.verbose(TAG, methodName, "Discovery metadata is revalidated.");
+                    }
+                } catch (final IOException | JSONException | AuthenticationException e) {
+                    Logger.w(TAG + methodName, "Failed to revalidate discovery metadata.", e.getMessage(), null);
+                } finally {
+                    REVALIDATING_HOSTS.remove(authorityHost);
+                }
+            }
+        });
+    }
+
     private Map<String, String> sendRequest(final URL queryUrl) throws IOException, JSONException, AuthenticationException {
 
         Logger.v(TAG, "Sending discovery request to query url. ", "queryUrl: " + queryUrl, null);
@@ -371,18 +494,17 @@ class Discovery {
     }
 
     /**
-     * @return {@link ReentrantLock} for locking the network request queue.
+     * @return {@link ReentrantLock} for locking the network request queue of the authority host.
      */
-    private static ReentrantLock getLock() {
-        if (sInstanceDiscoveryNetworkRequestLock == null) {
-            synchronized (Discovery.class) {
-                if (sInstanceDiscoveryNetworkRequestLock == null) {
-                    sInstanceDiscoveryNetworkRequestLock = new ReentrantLock();
-                }
-            }
+    private static ReentrantLock getLock(final String authorityHost) {
+        final ReentrantLock lock = INSTANCE_DISCOVERY_NETWORK_REQUEST_LOCKS.get(authorityHost);
+        if (lock != null) {
+            return lock;
         }
 
-        return sInstanceDiscoveryNetworkRequestLock;
+        final ReentrantLock newLock = new ReentrantLock();
+        final ReentrantLock existingLock = INSTANCE_DISCOVERY_NETWORK_REQUEST_LOCKS.putIfAbsent(authorityHost, newLock);
+        return existingLock == null ? newLock : existingLock;
     }
 
     static Set<String> getValidHosts() {
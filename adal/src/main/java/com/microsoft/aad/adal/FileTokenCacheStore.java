@@ -29,18 +29,32 @@ import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Persisted cache that keeps cache in-memory until write operation. Filename
- * should not be used on another instance of FileTokenCacheStore since read
- * operations are not synced to file.
+ * Persisted cache that keeps cache in-memory and records every write operation
+ * in an append-only log file. Filename should not be used on another instance of
+ * FileTokenCacheStore since read operations are not synced to file.
+ * <p>
+ * Write operations can be coalesced: mutations made within the coalescing window are
+ * written to the file together in one commit. Call {@link #flush()} to write pending
+ * mutations immediately, for example before the process is expected to be killed.
+ * <p>
+ * Opening the file only reads the records written since the log was last compacted.
+ * The compacted items are looked up through the index stored with them, and each item
+ * is decoded and validated the first time it is accessed.
  */
-public class FileTokenCacheStore implements ITokenCacheStore {
+public class FileTokenCacheStore implements ITokenCacheBatchStore {
 
     /**
      * Default serial version.
@@ -49,15 +63,90 @@ public class FileTokenCacheStore implements ITokenCacheStore {
 
     private static final String TAG = FileTokenCacheStore.class.getSimpleName();
 
+    /**
+     * Log is compacted once this many records were appended since the last compaction,
+     * which bounds the records read when the file is opened.
+     */
+    private static final int COMPACTION_RECORD_COUNT = 64;
+
+    /**
+     * Suffix of the checkpoint written by background compaction, distinct from the one of
+     * rewrites made while holding the lock.
+     */
+    private static final String BACKGROUND_CHECKPOINT_SUFFIX = ".compacting";
+
+    private static final ScheduledExecutorService BACKGROUND_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Controls whether a commit waits for the file to reach the storage device.
+     */
+    public enum DurabilityPolicy {
+        /**
+         * Commit returns once the data is handed to the OS. A device crash right after
+         * the commit can lose it, an app crash can't.
+         */
+        NONE,
+
+        /**
+         * Commit returns once the data is synced to the storage device.
+         */
+        SYNC_ON_COMMIT
+    }
+
     private final File mFile;
 
     private final MemoryTokenCacheStore mInMemoryCache;
 
-    private final Object mCacheLock = new Object();
+    private final transient TokenCacheFileLog mLog;
+
+    private final transient Object mCacheLock = new Object();
 
     /**
-     * It tracks data in memory until it writes that to a file with write
-     * operation.
+     * False while the file on disk is not a valid log, the next write then rewrites it.
+     */
+    private transient boolean mIsLogValid;
+
+    private transient boolean mIsCompactionScheduled;
+
+    private transient boolean mIsCommitScheduled;
+
+    /**
+     * Incremented by every rewrite made while holding the lock. A background compaction started
+     * before one of them is discarded.
+     */
+    private transient int mRewriteCount;
+
+    /**
+     * Keys mutated while a background compaction writes its checkpoint, null when none runs.
+     */
+    private transient Set<String> mKeysMutatedDuringCompaction;
+
+    /**
+     * Items appended after the checkpoint, read from the file on construction and not
+     * decoded yet, by cache key.
+     */
+    private final transient Map<String, TokenCacheFileLog.ItemLocation> mUndecodedItems = new HashMap<>();
+
+    /**
+     * Compacted items of the file read on construction, null once all of them were decoded.
+     */
+    private transient TokenCacheFileLog.Checkpoint mCheckpoint;
+
+    /**
+     * Keys whose checkpoint item must not be used anymore, because it was decoded, or
+     * replaced or removed since the checkpoint was written.
+     */
+    private final transient Set<String> mResolvedKeys = new HashSet<>();
+
+    private transient volatile boolean mHasUndecodedItems;
+
+    private final long mWriteCoalescingWindowMillis;
+
+    private final DurabilityPolicy mDurabilityPolicy;
+
+    /**
+     * It tracks data in memory and appends each write operation to a file.
      *
      * @param context  {@link Context}
      * @param fileName filename should be unique to this instance since read
@@ -65,6 +154,24 @@ public class FileTokenCacheStore implements ITokenCacheStore {
      *                 write to a file.
      */
     public FileTokenCacheStore(Context context, String fileName) {
+        this(context, fileName, 0, DurabilityPolicy.NONE);
+    }
+
+    /**
+     * It tracks data in memory and appends write operations to a file, coalescing
+     * the ones made within the given window into a single commit.
+     *
+     * @param context                     {@link Context}
+     * @param fileName                    filename should be unique to this instance since read
+     *                                    operations don't read from file directly.
+     * @param writeCoalescingWindowMillis time in milliseconds write operations are held before
+     *                                    being committed to the file, 0 to commit each one.
+     * @param durabilityPolicy            {@link DurabilityPolicy} applied to each commit.
+     */
+    public FileTokenCacheStore(final Context context,
+                               final String fileName,
+                               final long writeCoalescingWindowMillis,
+                               final DurabilityPolicy durabilityPolicy) {
         final String methodName = ":FileTokenCacheStore";
         if (context == null) {
             throw new IllegalArgumentException("context");
@@ -74,6 +181,17 @@ public class FileTokenCacheStore implements ITokenCacheStore {
             throw new IllegalArgumentException("fileName");
         }
 
+        if (writeCoalescingWindowMillis < 0) {
+            throw new IllegalArgumentException("writeCoalescingWindowMillis");
+        }
+
+        if (durabilityPolicy == null) {
+            throw new IllegalArgumentException("durabilityPolicy");
+        }
+
+        mWriteCoalescingWindowMillis = writeCoalescingWindowMillis;
+        mDurabilityPolicy = durabilityPolicy;
+
         // It is using package directory not the external storage, so
         // external write permissions are not needed
         final File directory = context.getDir(context.getPackageName(), Context.MODE_PRIVATE);
@@ -85,27 +203,32 @@ public class FileTokenCacheStore implements ITokenCacheStore {
         // Initialize cache from file if it exists
         try {
             mFile = new File(directory, fileName);
+            mLog = new TokenCacheFileLog(mFile);
+            mInMemoryCache = new MemoryTokenCacheStore();
 
-            if (mFile.exists()) {
-                Logger.v(TAG + methodName, "There is previous cache file to load cache. ");
-                FileInputStream inputStream = new FileInputStream(mFile);
-                ObjectInputStream objectStream = new ObjectInputStream(inputStream);
-                Object cacheObj = objectStream.readObject();
-                inputStream.close();
-                objectStream.close();
-
-                if (cacheObj instanceof MemoryTokenCacheStore) {
-                    mInMemoryCache = (MemoryTokenCacheStore) cacheObj;
-                } else {
+            switch (mLog.detectFormat()) {
+                case LOG:
+                    Logger.v(TAG + methodName, "There is previous cache file to load cache. ");
+                    if (mLog.isOutdated()) {
+                        Logger.v(TAG + methodName, "Cache file is in an older log version, migrating it. ");
+                        loadOutdatedLog();
+                    } else {
+                        loadLog();
+                    }
+                    break;
+                case JAVA_SERIALIZATION:
+                    Logger.v(TAG + methodName, "There is previous cache file in serialized format, migrating it. ");
+                    loadSerializedCache();
+                    break;
+                case UNKNOWN:
                     Logger.w(TAG + methodName, "Existing cache format is wrong. ", "",
                             ADALError.DEVICE_FILE_CACHE_FORMAT_IS_WRONG);
-
                     // Write operation will replace with correct file
-                    mInMemoryCache = new MemoryTokenCacheStore();
-                }
-            } else {
-                Logger.v(TAG + methodName, "There is not any previous cache file to load cache. ");
-                mInMemoryCache = new MemoryTokenCacheStore();
+                    break;
+                default:
+                    Logger.v(TAG + methodName, "There is not any previous cache file to load cache. ");
+                    mIsLogValid = true;
+                    break;
             }
         } catch (IOException | ClassNotFoundException ex) {
             Logger.e(TAG + methodName, "Exception during cache load. ",
@@ -119,59 +242,428 @@ public class FileTokenCacheStore implements ITokenCacheStore {
         }
     }
 
+    private void loadLog() throws IOException {
+        mCheckpoint = mLog.replayLazily(new TokenCacheFileLog.LazyReplayer() {
+            @Override
+            public void onPut(final String key, final TokenCacheFileLog.ItemLocation location) {
+                mUndecodedItems.put(key, location);
+                mResolvedKeys.add(key);
+            }
+
+            @Override
+            public void onRemove(final String key) {
+                mUndecodedItems.remove(key);
+                mResolvedKeys.add(key);
+            }
+        });
+        updateHasUndecodedItems();
+        mIsLogValid = true;
+    }
+
+    private void loadOutdatedLog() throws IOException {
+        mLog.replay(new TokenCacheFileLog.Replayer() {
+            @Override
+            public void onPut(final String key, final TokenCacheItem item) {
+                mInMemoryCache.setItem(key, item);
+            }
+
+            @Override
+            public void onRemove(final String key) {
+                mInMemoryCache.removeItem(key);
+            }
+        });
+
+        synchronized (mCacheLock) {
+            compact();
+        }
+    }
+
+    /**
+     * Loads the whole-cache serialized format used before the log and rewrites it as a log.
+     */
+    private void loadSerializedCache() throws IOException, ClassNotFoundException {
+        final String methodName = ":loadSerializedCache";
+        FileInputStream inputStream = new FileInputStream(mFile);
+        ObjectInputStream objectStream = new ObjectInputStream(inputStream);
+        Object cacheObj = objectStream.readObject();
+        inputStream.close();
+        objectStream.close();
+
+        if (cacheObj instanceof MemoryTokenCacheStore) {
+            final Map<String, TokenCacheItem> items = ((MemoryTokenCacheStore) cacheObj).getSnapshot();
+            for (final Map.Entry<String, TokenCacheItem> entry : items.entrySet()) {
+                mInMemoryCache.setItem(entry.getKey(), entry.getValue());
+            }
+
+            synchronized (mCacheLock) {
+                compact();
+            }
+        } else {
+            Logger.w(TAG + methodName, "Existing cache format is wrong. ", "",
+                    ADALError.DEVICE_FILE_CACHE_FORMAT_IS_WRONG);
+        }
+    }
+
     @Override
     public TokenCacheItem getItem(String key) {
+        if (mHasUndecodedItems) {
+            synchronized (mCacheLock) {
+                decodeItem(key);
+            }
+        }
+
         return mInMemoryCache.getItem(key);
     }
 
     @Override
     public boolean contains(String key) {
+        if (mHasUndecodedItems) {
+            synchronized (mCacheLock) {
+                decodeItem(key);
+            }
+        }
+
         return mInMemoryCache.contains(key);
     }
 
     @Override
     public void setItem(String key, TokenCacheItem item) {
-        mInMemoryCache.setItem(key, item);
-        writeToFile();
+        synchronized (mCacheLock) {
+            discardUndecodedItem(key);
+            mInMemoryCache.setItem(key, item);
+            stagePut(key, item);
+            onMutation();
+        }
     }
 
-
     @Override
     public void removeItem(String key) {
-        mInMemoryCache.removeItem(key);
-        writeToFile();
+        synchronized (mCacheLock) {
+            if (!discardUndecodedItem(key) && !mInMemoryCache.contains(key)) {
+                return;
+            }
+
+            mInMemoryCache.removeItem(key);
+            stageRemove(key);
+            onMutation();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the operations are staged before a single commit, so the file gets one batch record
+     * and either keeps all of them or none.
+     */
+    @Override
+    public void applyBatch(final TokenCacheBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+
+        synchronized (mCacheLock) {
+            boolean isMutated = false;
+            for (int i = 0; i < batch.size(); i++) {
+                final String key = batch.getKey(i);
+                final TokenCacheItem item = batch.getItem(i);
+                if (item != null) {
+                    discardUndecodedItem(key);
+                    mInMemoryCache.setItem(key, item);
+                    stagePut(key, item);
+                } else if (discardUndecodedItem(key) || mInMemoryCache.contains(key)) {
+                    mInMemoryCache.removeItem(key);
+                    stageRemove(key);
+                } else {
+                    continue;
+                }
+
+                isMutated = true;
+            }
+
+            if (isMutated) {
+                onMutation();
+            }
+        }
     }
 
     @Override
     public void removeAll() {
-        mInMemoryCache.removeAll();
-        writeToFile();
+        synchronized (mCacheLock) {
+            mUndecodedItems.clear();
+            mCheckpoint = null;
+            mResolvedKeys.clear();
+            mHasUndecodedItems = false;
+            mInMemoryCache.removeAll();
+            // Rewriting an empty cache is cheaper than logging a remove per item.
+            compact();
+        }
     }
 
-    private void writeToFile() {
+    /**
+     * Writes mutations still held in the coalescing window to the file.
+     */
+    public void flush() {
         synchronized (mCacheLock) {
-            if (mFile != null && mInMemoryCache != null) {
-                try {
-
-                    // FileOutputStream will create the file.
-                    FileOutputStream outputStream = new FileOutputStream(mFile);
-                    ObjectOutputStream objectStream = new ObjectOutputStream(outputStream);
-                    objectStream.writeObject(mInMemoryCache);
-                    objectStream.flush();
-                    objectStream.close();
-                    outputStream.close();
-
-                } catch (IOException ex) {
-                    Logger.e(TAG, "Exception during cache flush",
-                            ExceptionExtensions.getExceptionMessage(ex),
-                            ADALError.DEVICE_FILE_CACHE_IS_NOT_WRITING_TO_FILE);
+            if (mIsLogValid) {
+                commit();
+            } else {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Moves the item for the key, if not decoded yet, to the in-memory cache. Must be
+     * called while holding {@link #mCacheLock}.
+     */
+    private void decodeItem(final String key) {
+        try {
+            TokenCacheFileLog.ItemLocation location = mUndecodedItems.remove(key);
+            if (location == null && mCheckpoint != null && mResolvedKeys.add(key)) {
+                location = mCheckpoint.get(key);
+            }
+
+            if (location != null) {
+                mInMemoryCache.setItem(key, TokenCacheFileLog.decode(location));
+            }
+        } catch (IOException ex) {
+            Logger.e(TAG, "Exception during cache load. ",
+                    ExceptionExtensions.getExceptionMessage(ex),
+                    ADALError.DEVICE_FILE_CACHE_IS_NOT_LOADED_FROM_FILE);
+        } finally {
+            updateHasUndecodedItems();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void decodeAllItems() {
+        if (mCheckpoint != null) {
+            try {
+                mCheckpoint.readAll(new TokenCacheFileLog.LazyReplayer() {
+                    @Override
+                    public void onPut(final String key, final TokenCacheFileLog.ItemLocation location) {
+                        if (mResolvedKeys.add(key)) {
+                            mUndecodedItems.put(key, location);
+                        }
+                    }
+
+                    @Override
+                    public void onRemove(final String key) {
+                        // Checkpoints only hold puts.
+                    }
+                });
+            } catch (IOException ex) {
+                Logger.e(TAG, "Exception during cache load. ",
+                        ExceptionExtensions.getExceptionMessage(ex),
+                        ADALError.DEVICE_FILE_CACHE_IS_NOT_LOADED_FROM_FILE);
+            }
+
+            mCheckpoint = null;
+            mResolvedKeys.clear();
+        }
+
+        for (final String key : new ArrayList<>(mUndecodedItems.keySet())) {
+            decodeItem(key);
+        }
+    }
+
+    /**
+     * @return true if there was an undecoded item for the key. Must be called while
+     * holding {@link #mCacheLock}.
+     */
+    private boolean discardUndecodedItem(final String key) {
+        boolean isDiscarded = mUndecodedItems.remove(key) != null;
+        if (mCheckpoint != null && mResolvedKeys.add(key)) {
+            isDiscarded |= mCheckpoint.contains(key);
+        }
+
+        updateHasUndecodedItems();
+        return isDiscarded;
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void updateHasUndecodedItems() {
+        mHasUndecodedItems = mCheckpoint != null || !mUndecodedItems.isEmpty();
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void stagePut(final String key, final TokenCacheItem item) {
+        if (mIsLogValid) {
+            mLog.stagePut(key, item);
+        }
+
+        if (mKeysMutatedDuringCompaction != null) {
+            mKeysMutatedDuringCompaction.add(key);
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void stageRemove(final String key) {
+        if (mIsLogValid) {
+            mLog.stageRemove(key);
+        }
+
+        if (mKeysMutatedDuringCompaction != null) {
+            mKeysMutatedDuringCompaction.add(key);
+        }
+    }
+
+    private void onWriteFailure(final IOException ex) {
+        Logger.e(TAG, "Exception during cache flush",
+                ExceptionExtensions.getExceptionMessage(ex),
+                ADALError.DEVICE_FILE_CACHE_IS_NOT_WRITING_TO_FILE);
+        // The tail of the log may be partially written, rewrite it from memory on next write.
+        mIsLogValid = false;
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void onMutation() {
+        if (!mIsLogValid) {
+            compact();
+            return;
+        }
+
+        if (mWriteCoalescingWindowMillis == 0) {
+            commit();
+        } else if (!mIsCommitScheduled) {
+            mIsCommitScheduled = true;
+            BACKGROUND_EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mCacheLock) {
+                        mIsCommitScheduled = false;
+                        flush();
+                    }
+                }
+            }, mWriteCoalescingWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #mCacheLock}.
+     */
+    private void commit() {
+        try {
+            mLog.commit(mDurabilityPolicy == DurabilityPolicy.SYNC_ON_COMMIT);
+        } catch (IOException ex) {
+            onWriteFailure(ex);
+            compact();
+            return;
+        }
+
+        if (!mIsCompactionScheduled && mLog.getRecordCount() >= COMPACTION_RECORD_COUNT) {
+            mIsCompactionScheduled = true;
+            BACKGROUND_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compactInBackground();
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes a snapshot of the items while holding {@link #mCacheLock} and writes the checkpoint
+     * without it, so reads and writes of the cache are only blocked to install it.
+     */
+    private void compactInBackground() {
+        final Map<String, TokenCacheItem> snapshot;
+        final int rewriteCount;
+        synchronized (mCacheLock) {
+            if (!mIsLogValid) {
+                // The next write rewrites the log anyway.
+                mIsCompactionScheduled = false;
+                return;
+            }
+
+            decodeAllItems();
+            snapshot = mInMemoryCache.getSnapshot();
+            rewriteCount = mRewriteCount;
+            mKeysMutatedDuringCompaction = new HashSet<>();
+        }
+
+        File checkpoint = null;
+        try {
+            checkpoint = mLog.writeCheckpoint(snapshot, BACKGROUND_CHECKPOINT_SUFFIX);
+        } catch (IOException ex) {
+            Logger.e(TAG, "Exception during cache compaction",
+                    ExceptionExtensions.getExceptionMessage(ex),
+                    ADALError.DEVICE_FILE_CACHE_IS_NOT_WRITING_TO_FILE);
+        }
+
+        synchronized (mCacheLock) {
+            final Set<String> mutatedKeys = mKeysMutatedDuringCompaction;
+            mKeysMutatedDuringCompaction = null;
+            mIsCompactionScheduled = false;
+            if (checkpoint == null) {
+                return;
+            }
+
+            if (rewriteCount != mRewriteCount || !mIsLogValid) {
+                // The log was rewritten from memory since the snapshot, the checkpoint is outdated.
+                checkpoint.delete();
+                return;
+            }
+
+            // Commits made while the checkpoint was written went to the live file, they are
+            // staged again to be appended to the checkpoint before it replaces that file.
+            for (final String key : mutatedKeys) {
+                final TokenCacheItem item = mInMemoryCache.getItem(key);
+                if (item != null) {
+                    mLog.stagePut(key, item);
+                } else {
+                    mLog.stageRemove(key);
                 }
             }
+
+            try {
+                mLog.replaceWith(checkpoint);
+            } catch (IOException ex) {
+                // The live log is left untouched and still holds every commit.
+                Logger.e(TAG, "Exception during cache compaction",
+                        ExceptionExtensions.getExceptionMessage(ex),
+                        ADALError.DEVICE_FILE_CACHE_IS_NOT_WRITING_TO_FILE);
+                checkpoint.delete();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live items. Must be called while holding {@link #mCacheLock}.
+     */
+    private void compact() {
+        // Rewrite takes the items from memory, and the rewritten log no longer holds the undecoded ones.
+        decodeAllItems();
+        mRewriteCount++;
+        try {
+            mLog.rewrite(mInMemoryCache.getSnapshot());
+            mIsLogValid = true;
+        } catch (IOException ex) {
+            Logger.e(TAG, "Exception during cache flush",
+                    ExceptionExtensions.getExceptionMessage(ex),
+                    ADALError.DEVICE_FILE_CACHE_IS_NOT_WRITING_TO_FILE);
+            mIsLogValid = false;
         }
     }
 
     @Override
     public Iterator<TokenCacheItem> getAll() {
+        if (mHasUndecodedItems) {
+            synchronized (mCacheLock) {
+                decodeAllItems();
+            }
+        }
+
         return mInMemoryCache.getAll();
     }
 }
@@ -24,14 +24,17 @@
 package com.microsoft.aad.adal;
 
 import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
-import com.microsoft.identity.common.adal.internal.util.HashMapExtensions;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
-import org.json.JSONException;
-
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -42,6 +45,19 @@ class IdToken {
 
     private static final String TAG = "IdToken";
 
+    /**
+     * Number of parsed id tokens kept. The same few id tokens are parsed again on every cache read,
+     * broker response and telemetry event.
+     */
+    static final int MAX_PARSED_TOKENS = 16;
+
+    private static final Map<String, IdToken> PARSED_TOKENS = new LinkedHashMap<String, IdToken>(MAX_PARSED_TOKENS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, IdToken> eldest) {
+            return size() > MAX_PARSED_TOKENS;
+        }
+    };
+
     private String mSubject;
 
     private String mTenantId;
@@ -63,26 +79,21 @@ class IdToken {
     private String mPasswordChangeUrl;
 
     IdToken(String idtoken) throws AuthenticationException {
-        // Message segments: Header.Body.Signature
-        final Map<String, String> responseItems = this.parseJWT(idtoken);
-
-        if (responseItems != null && !responseItems.isEmpty()) {
-            this.mSubject = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_SUBJECT);
-            this.mTenantId = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_TENANTID);
-            this.mUpn = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_UPN);
-            this.mEmail = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_EMAIL);
-            this.mGivenName = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_GIVEN_NAME);
-            this.mFamilyName = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_FAMILY_NAME);
-            this.mIdentityProvider = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_IDENTITY_PROVIDER);
-            this.mObjectId = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_OBJECT_ID);
-            final String expiration = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_PASSWORD_EXPIRATION);
-
-            if (!StringExtensions.isNullOrBlank(expiration)) {
-                this.mPasswordExpiration = Long.parseLong(expiration);
-            }
+        final IdToken parsed = getParsedIdToken(idtoken);
+        this.mSubject = parsed.mSubject;
+        this.mTenantId = parsed.mTenantId;
+        this.mUpn = parsed.mUpn;
+        this.mEmail = parsed.mEmail;
+        this.mGivenName = parsed.mGivenName;
+        this.mFamilyName = parsed.mFamilyName;
+        this.mIdentityProvider = parsed.mIdentityProvider;
+        this.mObjectId = parsed.mObjectId;
+        this.mPasswordExpiration = parsed.mPasswordExpiration;
+        this.mPasswordChangeUrl = parsed.mPasswordChangeUrl;
+    }
 
-            this.mPasswordChangeUrl = responseItems.get(AuthenticationConstants.OAuth2.ID_TOKEN_PASSWORD_CHANGE_URL);
-        }
+    private IdToken() {
+        // Filled in by parseJWT
     }
 
     public String getSubject() {
@@ -125,7 +136,36 @@ class IdToken {
         return mPasswordChangeUrl;
     }
 
-    private Map<String, String> parseJWT(final String idtoken) throws AuthenticationException {
+    /**
+     * Clears the parsed id tokens, for tests.
+     */
+    static void clearParsedIdTokens() {
+        synchronized (PARSED_TOKENS) {
+            PARSED_TOKENS.clear();
+        }
+    }
+
+    /**
+     * @return The parsed claims of the id token. Id tokens are immutable, so the parsed claims of
+     * a raw id token are reused until it is evicted.
+     */
+    private static IdToken getParsedIdToken(final String idtoken) throws AuthenticationException {
+        synchronized (PARSED_TOKENS) {
+            final IdToken parsed = PARSED_TOKENS.get(idtoken);
+            if (parsed != null) {
+                return parsed;
+            }
+        }
+
+        final IdToken parsed = parseJWT(idtoken);
+        synchronized (PARSED_TOKENS) {
+            PARSED_TOKENS.put(idtoken, parsed);
+        }
+
+        return parsed;
+    }
+
+    private static IdToken parseJWT(final String idtoken) throws AuthenticationException {
         final String methodName = ":parseJWT";
         final String idbody = extractJWTBody(idtoken);
         // URL_SAFE: Encoder/decoder flag bit to use
@@ -134,20 +174,75 @@ class IdToken {
         // and /.
         final byte[] data = Base64.decode(idbody, Base64.URL_SAFE);
 
+        final IdToken idToken = new IdToken();
+        JsonReader reader = null;
         try {
-            final String decodedBody = new String(data, "UTF-8");
-            return HashMapExtensions.jsonStringAsMap(decodedBody);
+            // Read the claims straight from the decoded bytes, keeping only the ones ADAL uses
+            reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                final JsonToken token = reader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    idToken.setClaim(name, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
         } catch (UnsupportedEncodingException exception) {
             Logger.e(TAG + methodName, "The encoding is not supported.", "", ADALError.ENCODING_IS_NOT_SUPPORTED, exception);
             throw new AuthenticationException(ADALError.ENCODING_IS_NOT_SUPPORTED, exception.getMessage(), exception);
-        } catch (JSONException exception) {
+        } catch (IOException | IllegalStateException exception) {
             Logger.e(TAG + methodName, "Failed to parse the decoded body into JsonObject.", "",
                     ADALError.JSON_PARSE_ERROR, exception);
             throw new AuthenticationException(ADALError.JSON_PARSE_ERROR, exception.getMessage(), exception);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        return idToken;
+    }
+
+    private void setClaim(final String name, final String value) {
+        if (AuthenticationConstants.OAuth2.ID_TOKEN_SUBJECT.equals(name)) {
+            mSubject = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_TENANTID.equals(name)) {
+            mTenantId = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_UPN.equals(name)) {
+            mUpn = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_EMAIL.equals(name)) {
+            mEmail = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_GIVEN_NAME.equals(name)) {
+            mGivenName = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_FAMILY_NAME.equals(name)) {
+            mFamilyName = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_IDENTITY_PROVIDER.equals(name)) {
+            mIdentityProvider = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_OBJECT_ID.equals(name)) {
+            mObjectId = value;
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_PASSWORD_EXPIRATION.equals(name)) {
+            if (!StringExtensions.isNullOrBlank(value)) {
+                mPasswordExpiration = Long.parseLong(value);
+            }
+        } else if (AuthenticationConstants.OAuth2.ID_TOKEN_PASSWORD_CHANGE_URL.equals(name)) {
+            mPasswordChangeUrl = value;
+        }
+    }
+
+    private static void closeQuietly(final JsonReader reader) {
+        if (reader == null) {
+            return;
+        }
+
+        try {
+            reader.close();
+        } catch (final IOException ignored) {
+            // Closing a reader over a byte array cannot fail
         }
     }
 
-    private String extractJWTBody(final String idToken) throws AuthenticationException {
+    private static String extractJWTBody(final String idToken) throws AuthenticationException {
         final int firstDot = idToken.indexOf('.');
         final int secondDot = idToken.indexOf('.', firstDot + 1);
         final int invalidDot = idToken.indexOf('.', secondDot + 1);
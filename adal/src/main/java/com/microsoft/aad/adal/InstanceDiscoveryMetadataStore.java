@@ -0,0 +1,119 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persists the instance discovery responses by authority host, so authority validation in a new
+ * process can be done without the discovery round trip.
+ */
+final class InstanceDiscoveryMetadataStore {
+    private static final String TAG = InstanceDiscoveryMetadataStore.class.getSimpleName();
+
+    private static final String SHARED_PREFERENCE_NAME = "com.microsoft.aad.adal.discovery";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String RESPONSE = "response";
+
+    private final SharedPreferences mPrefs;
+
+    InstanceDiscoveryMetadataStore(final Context context) {
+        mPrefs = context.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the response persisted for the host, null if there is none or it cannot be read.
+     */
+    PersistedResponse load(final String host) {
+        final String value = mPrefs.getString(host.toLowerCase(Locale.US), null);
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            final JSONObject jsonObject = new JSONObject(value);
+            final JSONObject responseObject = jsonObject.getJSONObject(RESPONSE);
+            final Map<String, String> response = new HashMap<>();
+            final Iterator<String> keys = responseObject.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                response.put(key, responseObject.getString(key));
+            }
+
+            return new PersistedResponse(response, jsonObject.getLong(TIMESTAMP));
+        } catch (final JSONException exception) {
+            Logger.w(TAG + ":load", "Ignoring unreadable discovery metadata.", exception.getMessage(), null);
+            mPrefs.edit().remove(host.toLowerCase(Locale.US)).apply();
+            return null;
+        }
+    }
+
+    void save(final String host, final Map<String, String> response) {
+        try {
+            final JSONObject jsonObject = new JSONObject();
+            jsonObject.put(TIMESTAMP, System.currentTimeMillis());
+            jsonObject.put(RESPONSE, new JSONObject(response));
+            mPrefs.edit().putString(host.toLowerCase(Locale.US), jsonObject.toString()).apply();
+        } catch (final JSONException exception) {
+            Logger.w(TAG + ":save", "Failed to persist discovery metadata.", exception.getMessage(), null);
+        }
+    }
+
+    void clear() {
+        mPrefs.edit().clear().apply();
+    }
+
+    /**
+     * Discovery response with the time it was received.
+     */
+    static final class PersistedResponse {
+        private final Map<String, String> mResponse;
+
+        private final long mTimestamp;
+
+        PersistedResponse(final Map<String, String> response, final long timestamp) {
+            mResponse = response;
+            mTimestamp = timestamp;
+        }
+
+        Map<String, String> getResponse() {
+            return mResponse;
+        }
+
+        long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+}
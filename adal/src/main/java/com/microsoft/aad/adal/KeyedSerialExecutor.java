@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a bounded pool of threads. Tasks submitted with the same key run one at a
+ * time in submission order, tasks with different keys run in parallel.
+ */
+final class KeyedSerialExecutor {
+
+    private static final String TAG = KeyedSerialExecutor.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Tasks that waited longer than this before running are logged.
+     */
+    private static final long SLOW_START_THRESHOLD_MILLIS = 1000;
+
+    private final ThreadPoolExecutor mThreadPool;
+
+    /**
+     * Tasks waiting for the running task of their key, by key. A key is present while
+     * one of its tasks is running or queued on the pool.
+     */
+    private final Map<String, Queue<KeyedTask>> mPendingTasks = new HashMap<>();
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+
+    private final AtomicLong mStartedTaskCount = new AtomicLong();
+
+    private final AtomicLong mTotalWaitTimeMillis = new AtomicLong();
+
+    private final AtomicLong mMaxWaitTimeMillis = new AtomicLong();
+
+    /**
+     * @param threadNamePrefix prefix of the names of the pool threads.
+     * @param maxThreadCount   maximum number of tasks running at the same time.
+     */
+    KeyedSerialExecutor(final String threadNamePrefix, final int maxThreadCount) {
+        if (maxThreadCount < 1) {
+            throw new IllegalArgumentException("maxThreadCount");
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        mThreadPool = new ThreadPoolExecutor(maxThreadCount, maxThreadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+                    }
+                });
+        mThreadPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task after all the tasks previously submitted with the same key.
+     *
+     * @param key  serialization key, tasks with a null key are not ordered.
+     * @param task task to run.
+     */
+    void execute(final String key, final Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task");
+        }
+
+        final KeyedTask keyedTask = new KeyedTask(key, task);
+        mQueueDepth.incrementAndGet();
+        if (key == null) {
+            mThreadPool.execute(keyedTask);
+            return;
+        }
+
+        synchronized (mPendingTasks) {
+            final Queue<KeyedTask> pending = mPendingTasks.get(key);
+            if (pending != null) {
+                pending.add(keyedTask);
+                return;
+            }
+
+            mPendingTasks.put(key, new ArrayDeque<KeyedTask>());
+        }
+
+        mThreadPool.execute(keyedTask);
+    }
+
+    /**
+     * @return number of tasks submitted and not started yet.
+     */
+    int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * @return number of tasks started since the executor was created.
+     */
+    long getStartedTaskCount() {
+        return mStartedTaskCount.get();
+    }
+
+    /**
+     * @return average time tasks waited between submission and start, in milliseconds.
+     */
+    long getAverageWaitTimeMillis() {
+        final long startedTaskCount = mStartedTaskCount.get();
+        return startedTaskCount == 0 ? 0 : mTotalWaitTimeMillis.get() / startedTaskCount;
+    }
+
+    /**
+     * @return longest time a task waited between submission and start, in milliseconds.
+     */
+    long getMaxWaitTimeMillis() {
+        return mMaxWaitTimeMillis.get();
+    }
+
+    private void onTaskStarted(final KeyedTask task) {
+        final String methodName = ":onTaskStarted";
+        final long waitTimeMillis = System.currentTimeMillis() - task.mSubmitTimeMillis;
+        mQueueDepth.decrementAndGet();
+        mStartedTaskCount.incrementAndGet();
+        mTotalWaitTimeMillis.addAndGet(waitTimeMillis);
+
+        long maxWaitTimeMillis = mMaxWaitTimeMillis.get();
+        while (waitTimeMillis > maxWaitTimeMillis
+                && !mMaxWaitTimeMillis.compareAndSet(maxWaitTimeMillis, waitTimeMillis)) {
+            maxWaitTimeMillis = mMaxWaitTimeMillis.get();
+        }
+
+        if (waitTimeMillis > SLOW_START_THRESHOLD_MILLIS && Logger.isLoggable(Logger.LogLevel.Verbose)) {
+            Logger.verbose(TAG, methodName, "Task waited " + waitTimeMillis + " ms to start, "
+                    + mQueueDepth.get() + " tasks still queued.");
+        }
+    }
+
+    private void onTaskFinished(final KeyedTask task) {
+        if (task.mKey == null) {
+            return;
+        }
+
+        final KeyedTask next;
+        synchronized (mPendingTasks) {
+            final Queue<KeyedTask> pending = mPendingTasks.get(task.mKey);
+            next = pending.poll();
+            if (next == null) {
+                mPendingTasks.remove(task.mKey);
+            }
+        }
+
+        if (next != null) {
+            mThreadPool.execute(next);
+        }
+    }
+
+    private final class KeyedTask implements Runnable {
+        private final String mKey;
+        private final Runnable mTask;
+        private final long mSubmitTimeMillis = System.currentTimeMillis();
+
+        KeyedTask(final String key, final Runnable task) {
+            mKey = key;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            onTaskStarted(this);
+            try {
+                mTask.run();
+            } finally {
+                onTaskFinished(this);
+            }
+        }
+    }
+}
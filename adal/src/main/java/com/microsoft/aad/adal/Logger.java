@@ -30,6 +30,7 @@ import com.microsoft.identity.common.internal.logging.IRequestContext;
 import com.microsoft.identity.common.internal.logging.RequestContext;
 
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Android log output can. If externalLogger is set, it will use that as well.
@@ -39,10 +40,19 @@ import java.util.UUID;
 public class Logger {
     private static Logger sINSTANCE = new Logger();
 
-    private ILogger mExternalLogger = null;
+    private volatile ILogger mExternalLogger = null;
+
+    private volatile AsyncLogDispatcher mAsyncDispatcher = null;
+
+    private final AtomicLong mDroppedMessageCount = new AtomicLong();
 
     private String mCorrelationId = null;
 
+    /**
+     * Level last set through {@link #setLogLevel(LogLevel)}, the common logger logs at verbose level by default.
+     */
+    private volatile LogLevel mLogLevel = LogLevel.Verbose;
+
     /**
      * @return The single instance of {@link Logger}.
      */
@@ -56,6 +66,8 @@ public class Logger {
      * @param logLevel The {@link LogLevel} to be enabled for the diagnostic logging.
      */
     public void setLogLevel(final LogLevel logLevel) {
+        // Debug is logged as info
+        mLogLevel = logLevel == LogLevel.Debug ? LogLevel.Info : logLevel;
         switch (logLevel) {
             case Error:
                 com.microsoft.identity.common.internal.logging.Logger.getInstance()
@@ -98,21 +110,18 @@ public class Logger {
                     if (!com.microsoft.identity.common.internal.logging.Logger.getAllowPii() && containsPII) {
                         return;
                     } else {
-
-                        ADALError adalError = mapMessageToAdalError(message);
-
                         switch (logLevel) {
                             case ERROR:
-                                mExternalLogger.Log(tag, message, null, LogLevel.Error, adalError);
+                                dispatchToExternalLogger(tag, message, LogLevel.Error);
                                 break;
                             case WARN:
-                                mExternalLogger.Log(tag, message, null, LogLevel.Warn, adalError);
+                                dispatchToExternalLogger(tag, message, LogLevel.Warn);
                                 break;
                             case VERBOSE:
-                                mExternalLogger.Log(tag, message, null, LogLevel.Verbose, adalError);
+                                dispatchToExternalLogger(tag, message, LogLevel.Verbose);
                                 break;
                             case INFO:
-                                mExternalLogger.Log(tag, message, null, LogLevel.Info, adalError);
+                                dispatchToExternalLogger(tag, message, LogLevel.Info);
                                 break;
                             default:
                                 throw new IllegalArgumentException("Unknown logLevel");
@@ -120,22 +129,92 @@ public class Logger {
                     }
                 }
             }
+        });
 
-            private ADALError mapMessageToAdalError(final String message) {
-                ADALError mappedError = null;
+        mExternalLogger = externalLogger;
+    }
 
-                for (final ADALError adalError : ADALError.values()) {
-                    if (null != message && message.contains(adalError.name() + ":")) {
-                        mappedError = adalError;
-                        break;
+    /**
+     * Delivers the messages to the external logger on a dedicated thread instead of the thread
+     * logging them, so that a slow external logger does not slow down token requests. Messages are
+     * queued in a bounded buffer; when it is full, messages are dropped according to the drop policy.
+     * Calling it again replaces the current buffer. Its queued messages are still delivered, possibly
+     * interleaved with the messages of the new buffer.
+     *
+     * @param capacity   Maximum number of messages waiting for the external logger.
+     * @param dropPolicy The {@link DropPolicy} applied when the buffer is full.
+     */
+    public synchronized void enableAsyncDelivery(final int capacity, final DropPolicy dropPolicy) {
+        final AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(capacity, dropPolicy,
+                new AsyncLogDispatcher.Sink() {
+                    @Override
+                    public void deliver(final String tag, final String message, final LogLevel level) {
+                        deliverToExternalLogger(tag, message, level);
                     }
-                }
+                }, mDroppedMessageCount);
+        final AsyncLogDispatcher previous = mAsyncDispatcher;
+        mAsyncDispatcher = dispatcher;
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Delivers the messages on the thread logging them again. The queued messages are still
+     * delivered, possibly after messages logged once this method returns.
+     */
+    public synchronized void disableAsyncDelivery() {
+        final AsyncLogDispatcher previous = mAsyncDispatcher;
+        mAsyncDispatcher = null;
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Waits until the messages logged so far are delivered to the external logger, for instance
+     * before reporting a crash. Returns immediately if the messages are delivered synchronously.
+     *
+     * @param timeoutMillis Maximum time to wait in milliseconds.
+     * @return True if the messages were delivered within the timeout, false otherwise.
+     */
+    public boolean flush(final long timeoutMillis) {
+        final AsyncLogDispatcher dispatcher = mAsyncDispatcher;
+        return dispatcher == null || dispatcher.flush(timeoutMillis);
+    }
+
+    /**
+     * @return Number of messages dropped because the asynchronous delivery buffer was full.
+     */
+    public long getDroppedMessageCount() {
+        return mDroppedMessageCount.get();
+    }
+
+    private void dispatchToExternalLogger(final String tag, final String message, final LogLevel level) {
+        final AsyncLogDispatcher dispatcher = mAsyncDispatcher;
+        if (dispatcher == null || !dispatcher.dispatch(tag, message, level)) {
+            deliverToExternalLogger(tag, message, level);
+        }
+    }
+
+    private void deliverToExternalLogger(final String tag, final String message, final LogLevel level) {
+        final ILogger externalLogger = mExternalLogger;
+        if (externalLogger != null) {
+            externalLogger.Log(tag, message, null, level, mapMessageToAdalError(message));
+        }
+    }
+
+    private static ADALError mapMessageToAdalError(final String message) {
+        ADALError mappedError = null;
 
-                return mappedError;
+        for (final ADALError adalError : ADALError.values()) {
+            if (null != message && message.contains(adalError.name() + ":")) {
+                mappedError = adalError;
+                break;
             }
-        });
+        }
 
-        mExternalLogger = externalLogger;
+        return mappedError;
     }
 
     /**
@@ -186,7 +265,6 @@ public class Logger {
          */
         Debug(4);
 
-        @SuppressWarnings("unused")
         private int mValue;
 
         LogLevel(int val) {
@@ -194,6 +272,20 @@ public class Logger {
         }
     }
 
+    /**
+     * Messages dropped when the asynchronous delivery buffer is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Drop the message being logged, keeping the queued ones.
+         */
+        DropNewest,
+        /**
+         * Drop the oldest queued message to make room for the one being logged.
+         */
+        DropOldest
+    }
+
     /**
      * Interface for apps to configure the external logging.
      */
@@ -211,8 +303,65 @@ public class Logger {
                  ADALError errorCode);
     }
 
+    /**
+     * Checks whether messages of the given level are logged. Hot paths check it before building a log
+     * message, so that nothing is concatenated or formatted while the level is turned off.
+     *
+     * @param logLevel The {@link LogLevel} of the message.
+     * @return True if messages of the level are logged with the current log level, false otherwise.
+     */
+    public static boolean isLoggable(final LogLevel logLevel) {
+        final LogLevel level = logLevel == LogLevel.Debug ? LogLevel.Info : logLevel;
+        return level.mValue <= Logger.getInstance().mLogLevel.mValue;
+    }
+
+    /**
+     * Logs a verbose message. The tag and the method name are only concatenated if verbose
+     * logging is enabled.
+     *
+     * @param tag        tag for the log message
+     * @param methodName name of the logging method, appended to the tag
+     * @param message    body of the log message
+     */
+    static void verbose(final String tag, final String methodName, final String message) {
+        if (isLoggable(LogLevel.Verbose)) {
+            Logger.getInstance().commonCoreWrapper(tag + methodName, message, null, LogLevel.Verbose, null, null);
+        }
+    }
+
+    /**
+     * Logs a verbose message followed by an argument. The message is only built if verbose
+     * logging is enabled.
+     *
+     * @param tag        tag for the log message
+     * @param methodName name of the logging method, appended to the tag
+     * @param message    body of the log message
+     * @param argument   value appended to the message
+     */
+    static void verbose(final String tag, final String methodName, final String message, final Object argument) {
+        if (isLoggable(LogLevel.Verbose)) {
+            Logger.getInstance().commonCoreWrapper(tag + methodName, message + argument, null, LogLevel.Verbose,
+                    null, null);
+        }
+    }
+
+    /**
+     * Same as {@link #verbose(String, String, String, Object)} without boxing the argument.
+     */
+    static void verbose(final String tag, final String methodName, final String message, final long argument) {
+        if (isLoggable(LogLevel.Verbose)) {
+            Logger.getInstance().commonCoreWrapper(tag + methodName, message + argument, null, LogLevel.Verbose,
+                    null, null);
+        }
+    }
+
     private void commonCoreWrapper(String tag, String message, String additionalMessage, LogLevel logLevel,
                                    ADALError errorCode, Throwable throwable) {
+        if (!isLoggable(logLevel)) {
+            // Don't build the error code prefix and the formatted messages for nothing
+            return;
+        }
+
         switch (logLevel) {
             case Error:
                 if (!StringExtensions.isNullOrBlank(message)) {
@@ -26,14 +26,18 @@ package com.microsoft.aad.adal;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * tokenCacheItem is not persisted. Memory cache does not keep static items.
+ * Reads don't take locks and {@link #getAll()} iterates the live items without
+ * copying them, reflecting some or all of the writes made during the iteration.
  */
-public class MemoryTokenCacheStore implements ITokenCacheStore {
+public class MemoryTokenCacheStore implements ITokenCacheBatchStore {
 
     /**
      *
@@ -42,9 +46,17 @@ public class MemoryTokenCacheStore implements ITokenCacheStore {
 
     private static final String TAG = "MemoryTokenCacheStore";
 
-    private final Map<String, TokenCacheItem> mCache = new HashMap<>();
+    private static final String SERIALIZED_CACHE_FIELD = "mCache";
 
-    private transient Object mCacheLock = new Object();
+    /**
+     * Serialized form is kept as the {@link HashMap} written by earlier versions, so
+     * that caches serialized by either version can be read by the other.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField(SERIALIZED_CACHE_FIELD, Map.class)
+    };
+
+    private transient ConcurrentHashMap<String, TokenCacheItem> mCache = new ConcurrentHashMap<>();
 
     /**
      * Creates MemoryTokenCacheStore.
@@ -59,9 +71,7 @@ public class MemoryTokenCacheStore implements ITokenCacheStore {
         }
 
         Logger.i(TAG, "Get Item from cache. ", "Key:" + key);
-        synchronized (mCacheLock) {
-            return mCache.get(key);
-        }
+        return mCache.get(key);
     }
 
     @Override
@@ -75,9 +85,7 @@ public class MemoryTokenCacheStore implements ITokenCacheStore {
         }
 
         Logger.i(TAG, "Set Item to cache. ", "Key: " + key);
-        synchronized (mCacheLock) {
-            mCache.put(key, item);
-        }
+        mCache.put(key, item);
     }
 
     @Override
@@ -87,28 +95,49 @@ public class MemoryTokenCacheStore implements ITokenCacheStore {
         }
 
         Logger.i(TAG, "Remove Item from cache. ", "Key:" + key.hashCode());
-        synchronized (mCacheLock) {
-            mCache.remove(key);
+        mCache.remove(key);
+    }
+
+    @Override
+    public void applyBatch(final TokenCacheBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch");
+        }
+
+        Logger.i(TAG, "Apply batch to cache. ", "Entries: " + batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final TokenCacheItem item = batch.getItem(i);
+            if (item == null) {
+                mCache.remove(batch.getKey(i));
+            } else {
+                mCache.put(batch.getKey(i), item);
+            }
         }
     }
 
     @Override
     public void removeAll() {
         Logger.v(TAG, "Remove all items from cache.");
-        synchronized (mCacheLock) {
-            mCache.clear();
-        }
+        mCache.clear();
     }
 
-    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put(SERIALIZED_CACHE_FIELD, new HashMap<>(mCache));
+        out.writeFields();
     }
 
+    @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream inputStream) throws IOException,
             ClassNotFoundException {
-        inputStream.defaultReadObject();
+        final ObjectInputStream.GetField fields = inputStream.readFields();
+        final Map<String, TokenCacheItem> cache =
+                (Map<String, TokenCacheItem>) fields.get(SERIALIZED_CACHE_FIELD, null);
 
-        mCacheLock = new Object();
+        mCache = new ConcurrentHashMap<>();
+        if (cache != null) {
+            mCache.putAll(cache);
+        }
     }
 
     @Override
@@ -118,16 +147,19 @@ public class MemoryTokenCacheStore implements ITokenCacheStore {
         }
 
         Logger.i(TAG, "contains Item from cache.", "Key: " + key);
-        synchronized (mCacheLock) {
-            return mCache.get(key) != null;
-        }
+        return mCache.containsKey(key);
+    }
+
+    /**
+     * @return copy of the key to item mapping currently held in memory.
+     */
+    Map<String, TokenCacheItem> getSnapshot() {
+        return new HashMap<>(mCache);
     }
 
     @Override
     public Iterator<TokenCacheItem> getAll() {
         Logger.v(TAG, "Retrieving all items from cache. ");
-        synchronized (mCacheLock) {
-            return mCache.values().iterator();
-        }
+        return mCache.values().iterator();
     }
 }
@@ -25,6 +25,7 @@ package com.microsoft.aad.adal;
 
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Base64;
 
@@ -55,6 +56,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
@@ -77,12 +79,6 @@ class Oauth2 {
 
     private static final String TAG = "Oauth";
 
-    private boolean mRetryOnce = true;
-
-    private static final int DELAY_TIME_PERIOD = 1000;
-
-    private static final int MAX_RESILIENCY_ERROR_CODE = 599;
-
     private static final String DEFAULT_AUTHORIZE_ENDPOINT = "/oauth2/authorize";
 
     private static final String DEFAULT_TOKEN_ENDPOINT = "/oauth2/token";
@@ -576,8 +572,16 @@ class Oauth2 {
         // challenge
         headers.put(AuthenticationConstants.Broker.CHALLENGE_TLS_INCAPABLE,
                 AuthenticationConstants.Broker.CHALLENGE_TLS_INCAPABLE_VERSION);
+        final String failureKey = TokenRequestFailureCache.getKey(getTokenEndpoint(), mRequest, refreshToken);
+        final AuthenticationResult cachedFailure = TokenRequestFailureCache.get(failureKey);
+        if (cachedFailure != null) {
+            return cachedFailure;
+        }
+
         Logger.v(TAG, "Sending request to redeem token with refresh token.");
-        return postMessage(requestMessage, headers);
+        final AuthenticationResult result = postMessage(requestMessage, headers);
+        TokenRequestFailureCache.put(failureKey, result);
+        return result;
     }
 
     public AuthenticationResult refreshTokenUsingAssertion(@NonNull final String samlAssertion,
@@ -697,15 +701,80 @@ class Oauth2 {
 
         final Map<String, String> headers = getRequestHeaders();
 
-        Logger.v(TAG + methodName, "Sending request to redeem token with auth code.");
+        Logger.verbose(TAG, methodName, "Sending request to redeem token with auth code.");
         return postMessage(requestMessage, headers);
     }
 
     private AuthenticationResult postMessage(String requestMessage, Map<String, String> headers)
             throws IOException, AuthenticationException {
         final String methodName = ":postMessage";
+        RequestCancellation.throwIfDone(mRequest, "token request");
+        final URL tokenEndpoint = StringExtensions.getUrl(getTokenEndpoint());
+        final String host = tokenEndpoint == null ? null : tokenEndpoint.getHost().toLowerCase(Locale.US);
+        if (host != null && !TokenEndpointCircuitBreaker.allowRequest(host)) {
+            final String message = "Token endpoint " + host + " is failing, the request is not sent until the cool-down is over.";
+            Logger.w(TAG + methodName, message, "", ADALError.SERVER_ERROR);
+            if (mRequest.getIsExtendedLifetimeEnabled()) {
+                throw new ServerRespondingWithRetryableException(message);
+            }
+
+            throw new AuthenticationException(ADALError.SERVER_ERROR, message);
+        }
+
+        boolean isEndpointFailing = false;
+        try {
+            return postMessage(requestMessage, headers, TokenRequestRetryPolicy.fromSettings());
+        } catch (final IOException e) {
+            isEndpointFailing = !(e instanceof UnsupportedEncodingException);
+            throw e;
+        } catch (final AuthenticationException e) {
+            isEndpointFailing = e instanceof ServerRespondingWithRetryableException
+                    || TokenRequestRetryPolicy.isRetryableStatus(e.getServiceStatusCode());
+            throw e;
+        } finally {
+            if (host != null) {
+                if (isEndpointFailing) {
+                    TokenEndpointCircuitBreaker.recordFailure(host);
+                } else {
+                    TokenEndpointCircuitBreaker.recordSuccess(host);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the request until an attempt returns a result or fails in a way the retry policy
+     * does not retry.
+     */
+    private AuthenticationResult postMessage(final String requestMessage,
+                                             final Map<String, String> headers,
+                                             final TokenRequestRetryPolicy retryPolicy)
+            throws IOException, AuthenticationException {
+        final long firstAttemptTime = SystemClock.elapsedRealtime();
+        for (int attempt = 1; ; attempt++) {
+            final AuthenticationResult result = postMessage(requestMessage, headers, retryPolicy, attempt,
+                    firstAttemptTime);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Sends one attempt of the request.
+     *
+     * @return the result, null if the attempt failed and the request is to be sent again.
+     */
+    private AuthenticationResult postMessage(final String requestMessage,
+                                             final Map<String, String> headers,
+                                             final TokenRequestRetryPolicy retryPolicy,
+                                             final int attempt,
+                                             final long firstAttemptTime)
+            throws IOException, AuthenticationException {
+        final String methodName = ":postMessage";
         AuthenticationResult result = null;
         final HttpEvent httpEvent = startHttpEvent();
+        httpEvent.setAttempt(attempt);
 
         final URL authority = StringExtensions.getUrl(getTokenEndpoint());
         if (authority == null) {
@@ -746,16 +815,16 @@ class Oauth2 {
                                 AuthenticationConstants.Broker.CHALLENGE_RESPONSE_TYPE)) {
                             final HttpEvent challengeHttpEvent = startHttpEvent();
                             challengeHttpEvent.setHttpPath(authority);
-                            Logger.v(TAG + methodName, "Received pkeyAuth device challenge.");
+                            Logger.verbose(TAG, methodName, "Received pkeyAuth device challenge.");
                             ChallengeResponseBuilder certHandler = new ChallengeResponseBuilder(
                                     mJWSBuilder);
-                            Logger.v(TAG + methodName, "Processing device challenge.");
+                            Logger.verbose(TAG, methodName, "Processing device challenge.");
                             final ChallengeResponse challengeResponse = certHandler
                                     .getChallengeResponseFromHeader(challengeHeader,
                                             authority.toString());
                             headers.put(AuthenticationConstants.Broker.CHALLENGE_RESPONSE_HEADER,
                                     challengeResponse.getAuthorizationHeaderValue());
-                            Logger.v(TAG + methodName, "Sending request with challenge response.");
+                            Logger.verbose(TAG, methodName, "Sending request with challenge response.");
                             response = mWebRequestHandler.sendPost(authority, headers,
                                     requestMessage.getBytes(AuthenticationConstants.ENCODING_UTF8),
                                     "application/x-www-form-urlencoded");
@@ -771,28 +840,32 @@ class Oauth2 {
                 } else {
                     // AAD server returns 401 response for wrong request
                     // messages
-                    Logger.v(TAG + methodName, "401 http status code is returned without authorization header.");
+                    Logger.verbose(TAG, methodName, "401 http status code is returned without authorization header.");
                 }
             }
 
             boolean isBodyEmpty = TextUtils.isEmpty(response.getBody());
+            if (isBodyEmpty && TokenRequestRetryPolicy.isRetryableStatus(response.getStatusCode())
+                    && waitForRetry(retryPolicy, attempt, firstAttemptTime, response)) {
+                return null;
+            }
+
             if (!isBodyEmpty) {
                 // Protocol related errors will read the error stream and report
                 // the error and error description
-                Logger.v(TAG + methodName, "Token request does not have exception.");
+                Logger.verbose(TAG, methodName, "Token request does not have exception.");
                 try {
                     result = processTokenResponse(response, httpEvent);
                 } catch (final ServerRespondingWithRetryableException e) {
-                    result = retry(requestMessage, headers);
-                    if (result != null) {
-                        return result;
+                    if (waitForRetry(retryPolicy, attempt, firstAttemptTime, response)) {
+                        return null;
                     }
 
                     if (mRequest.getIsExtendedLifetimeEnabled()) {
-                        Logger.v(TAG + methodName, "WebResponse is not a success due to: " + response.getStatusCode());
+                        Logger.verbose(TAG, methodName, "WebResponse is not a success due to: ", response.getStatusCode());
                         throw e;
                     } else {
-                        Logger.v(TAG + methodName, "WebResponse is not a success due to: " + response.getStatusCode());
+                        Logger.verbose(TAG, methodName, "WebResponse is not a success due to: ", response.getStatusCode());
                         throw new AuthenticationException(ADALError.SERVER_ERROR, "WebResponse is not a success due to: " + response.getStatusCode(), response);
                     }
                 }
@@ -814,9 +887,8 @@ class Oauth2 {
                     ADALError.ENCODING_IS_NOT_SUPPORTED, e);
             throw e;
         } catch (final SocketTimeoutException e) {
-            result = retry(requestMessage, headers);
-            if (result != null) {
-                return result;
+            if (waitForRetry(retryPolicy, attempt, firstAttemptTime, null)) {
+                return null;
             }
 
             ClientMetrics.INSTANCE.setLastError(null);
@@ -838,22 +910,43 @@ class Oauth2 {
         return result;
     }
 
-    private AuthenticationResult retry(String requestMessage, Map<String, String> headers) throws IOException, AuthenticationException {
-        final String methodName = ":retry";
-        //retry once if there is an observation of a network timeout by the client
-        if (mRetryOnce) {
-            mRetryOnce = false;
-            try {
-                Thread.sleep(DELAY_TIME_PERIOD);
-            } catch (final InterruptedException exception) {
-                Logger.v(TAG + methodName, "The thread is interrupted while it is sleeping. ");
-            }
+    /**
+     * Waits for the delay before the next attempt if the retry policy allows one.
+     *
+     * @param response the failed response, null if the request timed out.
+     * @return true if the request is to be sent again.
+     */
+    private boolean waitForRetry(final TokenRequestRetryPolicy retryPolicy,
+                                 final int attempt,
+                                 final long firstAttemptTime,
+                                 final HttpWebResponse response) {
+        final String methodName = ":waitForRetry";
+        final long delayMillis = retryPolicy.getRetryDelayMillis(attempt,
+                SystemClock.elapsedRealtime() - firstAttemptTime, response);
+        if (delayMillis < 0) {
+            return false;
+        }
 
-            Logger.v(TAG + methodName, "Try again...");
-            return postMessage(requestMessage, headers);
+        // Don't retry an abandoned request, or sleep past its deadline for an attempt that cannot finish in time.
+        final RequestCancellation cancellation = mRequest.getCancellation();
+        if (cancellation != null
+                && (cancellation.isCancelled() || delayMillis >= cancellation.getRemainingMillis())) {
+            Logger.verbose(TAG, methodName, "The request is cancelled or its deadline is too close, not retrying.");
+            return false;
         }
 
-        return null;
+        try {
+            Thread.sleep(delayMillis);
+        } catch (final InterruptedException exception) {
+            Logger.verbose(TAG, methodName, "The thread is interrupted while it is sleeping, not retrying.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (Logger.isLoggable(Logger.LogLevel.Verbose)) {
+            Logger.verbose(TAG, methodName, "Try again after " + delayMillis + " ms, attempt " + (attempt + 1) + ".");
+        }
+        return true;
     }
 
     public static String decodeProtocolState(String encodedState) throws UnsupportedEncodingException {
@@ -947,7 +1040,7 @@ class Oauth2 {
                         "Can't parse server response. " + webResponse.getBody(),
                         webResponse, jsonException);
             }
-        } else if (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR && statusCode <= MAX_RESILIENCY_ERROR_CODE) {
+        } else if (TokenRequestRetryPolicy.isRetryableStatus(statusCode)) {
             throw new ServerRespondingWithRetryableException("Server Error " + statusCode + " "
                     + webResponse.getBody(), webResponse);
         } else {
@@ -965,7 +1058,7 @@ class Oauth2 {
                             ADALError.CORRELATION_ID_NOT_MATCHING_REQUEST_RESPONSE);
                 }
 
-                Logger.v(TAG + methodName, "Response correlationId:" + correlationIdInHeader);
+                Logger.verbose(TAG, methodName, "Response correlationId:", correlationIdInHeader);
             } catch (IllegalArgumentException ex) {
                 Logger.e(TAG + methodName, "Wrong format of the correlation ID:" + correlationIdInHeader, "",
                         ADALError.CORRELATION_ID_FORMAT, ex);
@@ -990,9 +1083,7 @@ class Oauth2 {
     private AuthenticationResult parseJsonResponse(final String responseBody)
             throws JSONException,
             AuthenticationException {
-        final Map<String, String> responseItems = new HashMap<>();
-        extractJsonObjects(responseItems, responseBody);
-        return processUIResponseParams(responseItems);
+        return processUIResponseParams(TokenResponseParser.parse(responseBody));
     }
 
     private HttpEvent startHttpEvent() {
@@ -0,0 +1,423 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import com.microsoft.identity.common.adal.internal.util.StringExtensions;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes access tokens of an {@link AuthenticationContext} in the background shortly before
+ * they expire, so that silent requests find a valid access token in the cache.
+ * <p>
+ * The cache is scanned periodically. Each token expiring within the refresh lead time, on top
+ * of {@link AuthenticationSettings#getExpirationBuffer()}, is refreshed after a random delay so
+ * that tokens issued together are not refreshed in a burst. Refreshes are skipped while the
+ * device is offline, in power save mode or low on battery. A token whose refresh failed is retried
+ * with an exponential backoff, or not at all if the refresh token was rejected, until a new
+ * refresh token is written for it. A refreshed token is not refreshed again while its cache
+ * entry still holds the access token it was refreshed from, e.g. because the new one was saved
+ * under another key, until the new access token itself gets close to expiry.
+ */
+final class ProactiveTokenRefresher {
+
+    private static final String TAG = ProactiveTokenRefresher.class.getSimpleName();
+
+    private static final long SCAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Tokens are refreshed when they expire within this time, on top of the expiration buffer.
+     */
+    private static final long REFRESH_LEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Maximum random delay before a refresh.
+     */
+    private static final long MAX_REFRESH_JITTER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_CONCURRENT_REFRESHES = 2;
+
+    /**
+     * Bounds of the delay before a failed refresh is tried again, doubled on each failure.
+     */
+    private static final long MIN_RETRY_DELAY_MILLIS = SCAN_INTERVAL_MILLIS;
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int MAX_RETRY_DELAY_DOUBLINGS = 5;
+
+    /**
+     * Battery percentage under which refreshes are skipped while not charging.
+     */
+    private static final int MIN_BATTERY_PERCENT = 15;
+
+    private final Context mContext;
+    private final AuthenticationContext mAuthContext;
+    private final String mClientId;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    /**
+     * Cache keys of the tokens with a refresh scheduled or running.
+     */
+    private final Set<String> mPendingRefreshes = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Failed refreshes by cache key.
+     */
+    private final Map<String, RefreshFailure> mFailedRefreshes = new ConcurrentHashMap<>();
+
+    /**
+     * Successful refreshes by cache key.
+     */
+    private final Map<String, RefreshSuccess> mSucceededRefreshes = new ConcurrentHashMap<>();
+
+    ProactiveTokenRefresher(final Context context, final AuthenticationContext authContext, final String clientId) {
+        mContext = context.getApplicationContext();
+        mAuthContext = authContext;
+        mClientId = clientId;
+        mExecutor = new ScheduledThreadPoolExecutor(MAX_CONCURRENT_REFRESHES, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "adal-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts scanning the cache.
+     */
+    void start() {
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0, SCAN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops scanning the cache and cancels the pending refreshes.
+     */
+    void stop() {
+        mExecutor.shutdownNow();
+        mPendingRefreshes.clear();
+        mFailedRefreshes.clear();
+        mSucceededRefreshes.clear();
+    }
+
+    private void scan() {
+        final String methodName = ":scan";
+        try {
+            if (!isRefreshAllowed()) {
+                Logger.v(TAG + methodName, "Skipping proactive refresh, device is offline or saving power.");
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final long bufferMillis = TimeUnit.SECONDS.toMillis(AuthenticationSettings.INSTANCE.getExpirationBuffer());
+            final Date refreshBefore = new Date(now + bufferMillis + REFRESH_LEAD_MILLIS);
+            final Set<String> authorities = getCacheAuthorities();
+            final Set<String> scannedKeys = new HashSet<>();
+            for (final TokenCacheItem item : getTokensExpiringBefore(refreshBefore)) {
+                // Tokens that expired without being used are left to be refreshed on use
+                if (!isRefreshable(item, authorities) || item.getExpiresOn().getTime() <= now) {
+                    continue;
+                }
+
+                final String key = CacheKey.createCacheKey(item);
+                scannedKeys.add(key);
+                if (isBackingOff(key, item, now) || isRefreshed(key, item, refreshBefore)
+                        || !mPendingRefreshes.add(key)) {
+                    continue;
+                }
+
+                // Refresh no later than when silent requests would start refreshing the token themselves
+                final long timeLeftMillis = item.getExpiresOn().getTime() - bufferMillis - now;
+                final long maxJitterMillis = Math.max(0, Math.min(MAX_REFRESH_JITTER_MILLIS, timeLeftMillis));
+                final long delayMillis = maxJitterMillis == 0 ? 0 : (long) (mRandom.nextDouble() * maxJitterMillis);
+                mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh(key, item);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            }
+
+            // Forget refreshes of tokens that were replaced or expired
+            mSucceededRefreshes.keySet().retainAll(scannedKeys);
+        } catch (final AuthenticationException | MalformedURLException | RuntimeException exception) {
+            Logger.w(TAG + methodName, "Failed to scan the cache for tokens to refresh.",
+                    exception.getMessage(), ADALError.ERROR_SILENT_REQUEST);
+        }
+    }
+
+    private void refresh(final String key, final TokenCacheItem item) {
+        final String methodName = ":refresh";
+        try {
+            if (!isRefreshAllowed()) {
+                return;
+            }
+
+            Logger.v(TAG + methodName, "Refreshing access token before it expires.");
+            final String userId = item.getUserInfo() == null ? null : item.getUserInfo().getUserId();
+            final AuthenticationResult result =
+                    mAuthContext.acquireTokenSilentSync(item.getResource(), item.getClientId(), userId, true);
+            mFailedRefreshes.remove(key);
+            if (result != null && result.getExpiresOn() != null) {
+                mSucceededRefreshes.put(key, new RefreshSuccess(item.getAccessToken(), result.getExpiresOn().getTime()));
+            }
+        } catch (final AuthenticationException exception) {
+            Logger.w(TAG + methodName, "Proactive refresh failed, token will be refreshed on use.",
+                    exception.getMessage(), exception.getCode());
+            // The server answered the refresh token request with an error, retrying will not help
+            recordFailure(key, item, exception.getCode() == ADALError.AUTH_REFRESH_FAILED_PROMPT_NOT_ALLOWED);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException exception) {
+            Logger.w(TAG + methodName, "Proactive refresh failed, token will be refreshed on use.",
+                    exception.getMessage(), ADALError.ERROR_SILENT_REQUEST);
+            recordFailure(key, item, false);
+        } finally {
+            mPendingRefreshes.remove(key);
+        }
+    }
+
+    private boolean isBackingOff(final String key, final TokenCacheItem item, final long now) {
+        final RefreshFailure failure = mFailedRefreshes.get(key);
+        if (failure == null) {
+            return false;
+        }
+
+        // A new refresh token was written since the failure, e.g. by an interactive request
+        if (!failure.mRefreshToken.equals(item.getRefreshToken())) {
+            mFailedRefreshes.remove(key);
+            return false;
+        }
+
+        return now < failure.mRetryAtMillis;
+    }
+
+    /**
+     * @return true if the token was refreshed already and the cache still holds the access token
+     * it was refreshed from, unless the refreshed access token expires before the given time too.
+     */
+    private boolean isRefreshed(final String key, final TokenCacheItem item, final Date refreshBefore) {
+        final RefreshSuccess success = mSucceededRefreshes.get(key);
+        if (success == null) {
+            return false;
+        }
+
+        // The cache entry holds a newer access token, its expiry is the one to go by
+        if (!success.mRefreshedAccessToken.equals(item.getAccessToken())) {
+            mSucceededRefreshes.remove(key);
+            return false;
+        }
+
+        return success.mExpiresOnMillis >= refreshBefore.getTime();
+    }
+
+    private void recordFailure(final String key, final TokenCacheItem item, final boolean isDefinitive) {
+        final RefreshFailure previous = mFailedRefreshes.get(key);
+        final int failureCount = previous != null && previous.mRefreshToken.equals(item.getRefreshToken())
+                ? previous.mFailureCount + 1 : 1;
+        final long retryAtMillis;
+        if (isDefinitive) {
+            retryAtMillis = Long.MAX_VALUE;
+        } else {
+            final long delayMillis = MIN_RETRY_DELAY_MILLIS << Math.min(failureCount - 1, MAX_RETRY_DELAY_DOUBLINGS);
+            retryAtMillis = System.currentTimeMillis() + Math.min(delayMillis, MAX_RETRY_DELAY_MILLIS);
+        }
+
+        mFailedRefreshes.put(key, new RefreshFailure(item.getRefreshToken(), failureCount, retryAtMillis));
+    }
+
+    /**
+     * Only regular token entries of this client and authority with both tokens are refreshed,
+     * MRRT and FRT entries get updated when their regular entries are.
+     */
+    private boolean isRefreshable(final TokenCacheItem item, final Set<String> authorities) {
+        return item.getExpiresOn() != null
+                && !StringExtensions.isNullOrBlank(item.getResource())
+                && !StringExtensions.isNullOrBlank(item.getAccessToken())
+                && !StringExtensions.isNullOrBlank(item.getRefreshToken())
+                && mClientId.equals(item.getClientId())
+                && item.getAuthority() != null
+                && authorities.contains(item.getAuthority().toLowerCase(Locale.US));
+    }
+
+    /**
+     * Tokens are written under the preferred cache location of the authority and may have been
+     * written under any of its aliases, see {@link TokenCacheAccessor}.
+     *
+     * @return the lower cased authorities the tokens of this context can be cached under.
+     */
+    private Set<String> getCacheAuthorities() throws MalformedURLException {
+        final String authority = mAuthContext.getAuthority();
+        final Set<String> authorities = new HashSet<>();
+        authorities.add(authority.toLowerCase(Locale.US));
+
+        final URL authorityUrl = new URL(authority);
+        final InstanceDiscoveryMetadata metadata =
+                AuthorityValidationMetadataCache.getCachedInstanceDiscoveryMetadata(authorityUrl);
+        if (metadata == null || !metadata.isValidated()) {
+            return authorities;
+        }
+
+        final List<String> hosts = new ArrayList<>(metadata.getAliases());
+        hosts.add(metadata.getPreferredCache());
+        for (final String host : hosts) {
+            if (!StringExtensions.isNullOrBlank(host)) {
+                authorities.add(Discovery.constructAuthorityUrl(authorityUrl, host).toString().toLowerCase(Locale.US));
+            }
+        }
+
+        return authorities;
+    }
+
+    private List<TokenCacheItem> getTokensExpiringBefore(final Date time) {
+        ITokenCacheStore cache = mAuthContext.getCache();
+        if (cache instanceof DelegatingCache) {
+            cache = ((DelegatingCache) cache).getDelegateCache();
+        }
+
+        // getTokensAboutToExpire only looks a few seconds ahead
+        if (cache instanceof DefaultTokenCacheStore) {
+            return ((DefaultTokenCacheStore) cache).getTokensExpiringBefore(time);
+        }
+
+        final List<TokenCacheItem> items = new ArrayList<>();
+        final Iterator<TokenCacheItem> allItems = cache.getAll();
+        while (allItems.hasNext()) {
+            final TokenCacheItem item = allItems.next();
+            if (item.getExpiresOn() != null && item.getExpiresOn().before(time)) {
+                items.add(item);
+            }
+        }
+
+        return items;
+    }
+
+    private boolean isRefreshAllowed() {
+        return isNetworkConnected() && !isSavingPower();
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isNetworkConnected() {
+        // The library does not request the permission, only apps holding it get the check
+        if (mContext.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return true;
+        }
+
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return true;
+        }
+
+        final NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private boolean isSavingPower() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            final PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null && powerManager.isPowerSaveMode()) {
+                return true;
+            }
+        }
+
+        final Intent batteryStatus = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return false;
+        }
+
+        final int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        final boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        final int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return !isCharging && level >= 0 && scale > 0 && level * 100 / scale < MIN_BATTERY_PERCENT;
+    }
+
+    private static final class RefreshSuccess {
+        /**
+         * Access token the refresh replaced.
+         */
+        private final String mRefreshedAccessToken;
+
+        /**
+         * Expiry of the access token returned by the refresh.
+         */
+        private final long mExpiresOnMillis;
+
+        RefreshSuccess(final String refreshedAccessToken, final long expiresOnMillis) {
+            mRefreshedAccessToken = refreshedAccessToken;
+            mExpiresOnMillis = expiresOnMillis;
+        }
+    }
+
+    private static final class RefreshFailure {
+        private final String mRefreshToken;
+        private final int mFailureCount;
+
+        /**
+         * {@link Long#MAX_VALUE} if the refresh token was rejected.
+         */
+        private final long mRetryAtMillis;
+
+        RefreshFailure(final String refreshToken, final int failureCount, final long retryAtMillis) {
+            mRefreshToken = refreshToken;
+            mFailureCount = failureCount;
+            mRetryAtMillis = retryAtMillis;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.os.SystemClock;
+
+/**
+ * Cancellation state and deadline of a single token request. The request checks it between its
+ * phases (authority validation, broker calls, token endpoint calls and retries), so an abandoned
+ * request stops at the next phase boundary instead of running to completion. Cancelling also
+ * interrupts the thread the request is running on, which wakes it up from retry back-off and
+ * blocking waits.
+ */
+final class RequestCancellation {
+    private static final String TAG = RequestCancellation.class.getSimpleName();
+
+    private final long mDeadline;
+
+    private volatile boolean mIsCancelled;
+
+    private Thread mWorkerThread;
+
+    /**
+     * @param timeoutMillis Time the request is allowed to take, starting now. Must be positive.
+     */
+    RequestCancellation(final long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis");
+        }
+
+        mDeadline = SystemClock.elapsedRealtime() + timeoutMillis;
+    }
+
+    /**
+     * Stops the request at its next phase boundary.
+     *
+     * @param mayInterrupt true to also interrupt the thread the request is currently running on.
+     */
+    synchronized void cancel(final boolean mayInterrupt) {
+        mIsCancelled = true;
+        if (mayInterrupt && mWorkerThread != null) {
+            mWorkerThread.interrupt();
+        }
+    }
+
+    boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    boolean isExpired() {
+        return getRemainingMillis() <= 0;
+    }
+
+    /**
+     * @return Milliseconds left before the deadline, 0 once it has passed.
+     */
+    long getRemainingMillis() {
+        return Math.max(0, mDeadline - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Marks the current thread as the one running the request, so that it can be interrupted on cancel.
+     */
+    synchronized void attach() {
+        mWorkerThread = Thread.currentThread();
+    }
+
+    /**
+     * Releases the current thread. The interrupt flag a cancel may have set is cleared so that it does
+     * not leak into the next task of the pooled thread.
+     */
+    void detach() {
+        synchronized (this) {
+            mWorkerThread = null;
+        }
+
+        if (mIsCancelled) {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * @param phase Name of the phase about to start, used for logging.
+     * @throws AuthenticationException if the request was cancelled or its deadline has passed.
+     */
+    void throwIfDone(final String phase) throws AuthenticationException {
+        if (mIsCancelled) {
+            Logger.verbose(TAG, ":throwIfDone", "Request was cancelled before: ", phase);
+            throw new AuthenticationException(ADALError.AUTH_FAILED_CANCELLED, "Request was cancelled.");
+        }
+
+        if (isExpired()) {
+            Logger.verbose(TAG, ":throwIfDone", "Request deadline passed before: ", phase);
+            throw new AuthenticationException(ADALError.REQUEST_DEADLINE_EXCEEDED,
+                    "Request did not complete before its deadline.");
+        }
+    }
+
+    /**
+     * Convenience for callers that may or may not have a cancellation attached.
+     */
+    static void throwIfDone(final AuthenticationRequest request, final String phase) throws AuthenticationException {
+        final RequestCancellation cancellation = request == null ? null : request.getCancellation();
+        if (cancellation != null) {
+            cancellation.throwIfDone(phase);
+        }
+    }
+}
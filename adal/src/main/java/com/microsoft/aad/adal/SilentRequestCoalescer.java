@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks silent requests in flight so that an identical request submitted before the first one
+ * completes waits for its result instead of looking up the cache and redeeming the refresh
+ * token again.
+ */
+final class SilentRequestCoalescer {
+
+    private static final String TAG = SilentRequestCoalescer.class.getSimpleName();
+
+    /**
+     * Callbacks of the requests attached to each request in flight, by request key.
+     */
+    private final Map<Object, List<AuthenticationCallback<AuthenticationResult>>> mInFlightRequests = new HashMap<>();
+
+    /**
+     * Attaches the callback to the identical request in flight. If there is none, the caller
+     * runs the request and must complete it through the callback returned by
+     * {@link #getCompletingCallback(Object, AuthenticationCallback)}.
+     *
+     * @param key      key identifying identical requests, compared with equals.
+     * @param callback callback for the result of the request in flight.
+     * @return true if the callback was attached, false if the caller has to run the request.
+     */
+    boolean tryAttach(final Object key, final AuthenticationCallback<AuthenticationResult> callback) {
+        final String methodName = ":tryAttach";
+        synchronized (mInFlightRequests) {
+            final List<AuthenticationCallback<AuthenticationResult>> attached = mInFlightRequests.get(key);
+            if (attached == null) {
+                mInFlightRequests.put(key, new ArrayList<AuthenticationCallback<AuthenticationResult>>());
+                return false;
+            }
+
+            attached.add(callback);
+            Logger.verbose(TAG, methodName, "Attached to identical silent request in flight, requests attached: ",
+                    attached.size());
+            return true;
+        }
+    }
+
+    /**
+     * @param key      key of the request the caller runs.
+     * @param callback callback of the request the caller runs.
+     * @return callback that ends the request in flight and sends its result to the callback
+     * and then to the callbacks attached to it.
+     */
+    AuthenticationCallback<AuthenticationResult> getCompletingCallback(final Object key,
+                                                                       final AuthenticationCallback<AuthenticationResult> callback) {
+        return new AuthenticationCallback<AuthenticationResult>() {
+            @Override
+            public void onSuccess(final AuthenticationResult result) {
+                final List<AuthenticationCallback<AuthenticationResult>> attached = complete(key);
+                if (callback != null) {
+                    callback.onSuccess(result);
+                }
+
+                for (final AuthenticationCallback<AuthenticationResult> attachedCallback : attached) {
+                    attachedCallback.onSuccess(result);
+                }
+            }
+
+            @Override
+            public void onError(final Exception exc) {
+                final List<AuthenticationCallback<AuthenticationResult>> attached = complete(key);
+                if (callback != null) {
+                    callback.onError(exc);
+                }
+
+                for (final AuthenticationCallback<AuthenticationResult> attachedCallback : attached) {
+                    attachedCallback.onError(exc);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return number of requests in flight.
+     */
+    int getInFlightRequestCount() {
+        synchronized (mInFlightRequests) {
+            return mInFlightRequests.size();
+        }
+    }
+
+    private List<AuthenticationCallback<AuthenticationResult>> complete(final Object key) {
+        synchronized (mInFlightRequests) {
+            final List<AuthenticationCallback<AuthenticationResult>> attached = mInFlightRequests.remove(key);
+            return attached == null ? new ArrayList<AuthenticationCallback<AuthenticationResult>>() : attached;
+        }
+    }
+}
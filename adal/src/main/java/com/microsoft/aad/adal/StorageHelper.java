@@ -53,7 +53,10 @@ import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -138,6 +141,15 @@ public class StorageHelper {
 
     private static final int KEY_FILE_SIZE = 1024;
 
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final char BASE64_PADDING = '=';
+
+    private static final int BASE64_GROUP_BYTES = 3;
+
+    private static final int BASE64_GROUP_CHARS = 4;
+
     private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
 
     private final Context mContext;
@@ -152,6 +164,17 @@ public class StorageHelper {
     private SecretKey mHMACKey = null;
     private SecretKey mSecretKeyFromAndroidKeyStore = null;
 
+    /**
+     * HMac keys derived from the encryption keys, by key version.
+     */
+    private final Map<String, DerivedHMacKey> mHMacKeys = new ConcurrentHashMap<>();
+
+    /**
+     * {@link Cipher} and {@link Mac} of the calling thread, by key version. Getting the
+     * instances from the providers is expensive compared to encrypting a cache item.
+     */
+    private final ThreadLocal<Map<String, CryptoContext>> mCryptoContexts = new ThreadLocal<>();
+
     /**
      * Constructor for {@link StorageHelper}.
      *
@@ -181,49 +204,47 @@ public class StorageHelper {
 
         // load key for encryption if not loaded
         mKey = loadSecretKeyForEncryption();
-        mHMACKey = getHMacKey(mKey);
+        mHMACKey = getHMacKey(mBlobVersion, mKey);
 
         Logger.i(TAG + methodName, "", "Encrypt version:" + mBlobVersion);
-        final byte[] blobVersion = mBlobVersion.getBytes(AuthenticationConstants.ENCODING_UTF8);
         final byte[] bytes = clearText.getBytes(AuthenticationConstants.ENCODING_UTF8);
 
         // IV: Initialization vector that is needed to start CBC
-        final byte[] iv = new byte[DATA_KEY_LENGTH];
+        final CryptoContext cryptoContext = getCryptoContext(mBlobVersion, mHMACKey);
+        final byte[] iv = cryptoContext.mIv;
         mRandom.nextBytes(iv);
-        final IvParameterSpec ivSpec = new IvParameterSpec(iv);
 
         // Set to encrypt mode
-        final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, mKey, ivSpec);
+        final Cipher cipher = cryptoContext.mCipher;
+        final Mac mac = cryptoContext.mMac;
+        cipher.init(Cipher.ENCRYPT_MODE, mKey, new IvParameterSpec(iv));
+
+        // blobVersion, encrypted data, iv and macdigest are written in place into one buffer
+        final byte[] blob = new byte[KEY_VERSION_BLOB_LENGTH + cipher.getOutputSize(bytes.length)
+                + DATA_KEY_LENGTH + HMAC_LENGTH];
+        for (int i = 0; i < KEY_VERSION_BLOB_LENGTH; i++) {
+            blob[i] = (byte) mBlobVersion.charAt(i);
+        }
 
-        final byte[] encrypted = cipher.doFinal(bytes);
+        final int ivIndex = KEY_VERSION_BLOB_LENGTH
+                + cipher.doFinal(bytes, 0, bytes.length, blob, KEY_VERSION_BLOB_LENGTH);
+        System.arraycopy(iv, 0, blob, ivIndex, DATA_KEY_LENGTH);
 
         // Mac output to sign encryptedData+IV. Keyversion is not included
         // in the digest. It defines what to use for Mac Key.
-        mac.init(mHMACKey);
-        mac.update(blobVersion);
-        mac.update(encrypted);
-        mac.update(iv);
-        final byte[] macDigest = mac.doFinal();
-
-        // Init array to store blobVersion, encrypted data, iv, macdigest
-        final byte[] blobVerAndEncryptedDataAndIVAndMacDigest = new byte[blobVersion.length
-                + encrypted.length + iv.length + macDigest.length];
-        System.arraycopy(blobVersion, 0, blobVerAndEncryptedDataAndIVAndMacDigest, 0,
-                blobVersion.length);
-        System.arraycopy(encrypted, 0, blobVerAndEncryptedDataAndIVAndMacDigest,
-                blobVersion.length, encrypted.length);
-        System.arraycopy(iv, 0, blobVerAndEncryptedDataAndIVAndMacDigest, blobVersion.length
-                + encrypted.length, iv.length);
-        System.arraycopy(macDigest, 0, blobVerAndEncryptedDataAndIVAndMacDigest, blobVersion.length
-                + encrypted.length + iv.length, macDigest.length);
-
-        final String encryptedText = new String(Base64.encode(blobVerAndEncryptedDataAndIVAndMacDigest,
-                Base64.NO_WRAP), AuthenticationConstants.ENCODING_UTF8);
+        final int macIndex = ivIndex + DATA_KEY_LENGTH;
+        mac.update(blob, 0, macIndex);
+        mac.doFinal(blob, macIndex);
+
+        final int blobLength = macIndex + HMAC_LENGTH;
+        final int prefixLength = 1 + ENCODE_VERSION.length();
+        final char[] encryptedText = new char[prefixLength + getBase64Length(blobLength)];
+        encryptedText[0] = getEncodeVersionLengthPrefix();
+        ENCODE_VERSION.getChars(0, ENCODE_VERSION.length(), encryptedText, 1);
+        encodeBase64(blob, blobLength, encryptedText, prefixLength);
         Logger.v(TAG + methodName, "Finished encryption");
 
-        return getEncodeVersionLengthPrefix() + ENCODE_VERSION + encryptedText;
+        return new String(encryptedText);
     }
 
     /**
@@ -249,23 +270,14 @@ public class StorageHelper {
                     "Encode version length: '%s' is not valid, it must be greater of equal to 0",
                     encodeVersionLength));
         }
-        if (!encryptedBlob.substring(1, 1 + encodeVersionLength).equals(ENCODE_VERSION)) {
+        if (encodeVersionLength != ENCODE_VERSION.length()
+                || !encryptedBlob.regionMatches(1, ENCODE_VERSION, 0, encodeVersionLength)) {
             throw new IllegalArgumentException(String.format(
                     "Encode version received was: '%s', Encode version supported is: '%s'", encryptedBlob,
                     ENCODE_VERSION));
         }
 
-        final byte[] bytes = Base64
-                .decode(encryptedBlob.substring(1 + encodeVersionLength), Base64.DEFAULT);
-
-        // get key version used for this data. If user upgraded to different
-        // API level, data needs to be updated
-        final String keyVersion = new String(bytes, 0, KEY_VERSION_BLOB_LENGTH,
-                AuthenticationConstants.ENCODING_UTF8);
-        Logger.i(TAG + methodName, "", "Encrypt version:" + keyVersion);
-
-        final SecretKey secretKey = getKey(keyVersion);
-        final SecretKey hmacKey = getHMacKey(secretKey);
+        final byte[] bytes = decodeBase64(encryptedBlob, 1 + encodeVersionLength);
 
         // byte input array: encryptedData-iv-macDigest
         final int ivIndex = bytes.length - DATA_KEY_LENGTH - HMAC_LENGTH;
@@ -275,17 +287,25 @@ public class StorageHelper {
             throw new IOException("Invalid byte array input for decryption.");
         }
 
+        // get key version used for this data. If user upgraded to different
+        // API level, data needs to be updated
+        final String keyVersion = getKeyVersion(bytes);
+        Logger.i(TAG + methodName, "", "Encrypt version:" + keyVersion);
+
+        final SecretKey secretKey = getKey(keyVersion);
+        final SecretKey hmacKey = getHMacKey(keyVersion, secretKey);
+
         // Calculate digest again and compare to the appended value
         // incoming message: version+encryptedData+IV+Digest
         // Digest of EncryptedData+IV excluding key Version and digest
-        final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-        mac.init(hmacKey);
+        final CryptoContext cryptoContext = getCryptoContext(keyVersion, hmacKey);
+        final Cipher cipher = cryptoContext.mCipher;
+        final Mac mac = cryptoContext.mMac;
         mac.update(bytes, 0, macIndex);
-        final byte[] macDigest = mac.doFinal();
+        mac.doFinal(cryptoContext.mMacDigest, 0);
 
         // Compare digest of input message and calculated digest
-        assertHMac(bytes, macIndex, bytes.length, macDigest);
+        assertHMac(bytes, macIndex, bytes.length, cryptoContext.mMacDigest);
 
         // Get IV related bytes from the end and set to decrypt mode with
         // that IV.
@@ -294,9 +314,12 @@ public class StorageHelper {
         cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(bytes, ivIndex,
                 DATA_KEY_LENGTH));
 
-        // Decrypt data bytes from 0 to ivindex
-        final String decrypted = new String(cipher.doFinal(bytes, KEY_VERSION_BLOB_LENGTH,
-                encryptedLength), AuthenticationConstants.ENCODING_UTF8);
+        // Decrypt data bytes from 0 to ivindex, in place since the clear text is never
+        // longer than the encrypted data
+        final int decryptedLength = cipher.doFinal(bytes, KEY_VERSION_BLOB_LENGTH, encryptedLength,
+                bytes, KEY_VERSION_BLOB_LENGTH);
+        final String decrypted = new String(bytes, KEY_VERSION_BLOB_LENGTH, decryptedLength,
+                AuthenticationConstants.ENCODING_UTF8);
         Logger.v(TAG + methodName, "Finished decryption");
         return decrypted;
     }
@@ -530,6 +553,180 @@ public class StorageHelper {
         return key;
     }
 
+    /**
+     * Get the HMAC key derived from given key, deriving it only when the key of the version changed.
+     *
+     * @param keyVersion version of the key
+     * @param key        SecretKey from which HMAC key has to be derived
+     * @return SecretKey
+     * @throws NoSuchAlgorithmException
+     */
+    private SecretKey getHMacKey(final String keyVersion, final SecretKey key) throws NoSuchAlgorithmException {
+        final DerivedHMacKey derived = mHMacKeys.get(keyVersion);
+        if (derived != null && (derived.mKey == key || derived.mKey.equals(key))) {
+            return derived.mHMacKey;
+        }
+
+        final SecretKey hmacKey = getHMacKey(key);
+        mHMacKeys.put(keyVersion, new DerivedHMacKey(key, hmacKey));
+        return hmacKey;
+    }
+
+    /**
+     * Get the {@link CryptoContext} of the calling thread for the key version, with its
+     * {@link Mac} initialized with the HMAC key.
+     */
+    private CryptoContext getCryptoContext(final String keyVersion, final SecretKey hmacKey)
+            throws GeneralSecurityException {
+        Map<String, CryptoContext> cryptoContexts = mCryptoContexts.get();
+        if (cryptoContexts == null) {
+            cryptoContexts = new HashMap<>();
+            mCryptoContexts.set(cryptoContexts);
+        }
+
+        CryptoContext cryptoContext = cryptoContexts.get(keyVersion);
+        if (cryptoContext == null) {
+            cryptoContext = new CryptoContext(Cipher.getInstance(CIPHER_ALGORITHM), Mac.getInstance(HMAC_ALGORITHM));
+            cryptoContexts.put(keyVersion, cryptoContext);
+        }
+
+        if (cryptoContext.mMacKey != hmacKey) {
+            cryptoContext.mMac.init(hmacKey);
+            cryptoContext.mMacKey = hmacKey;
+        } else {
+            // doFinal resets the Mac, this only matters if a previous call failed midway.
+            cryptoContext.mMac.reset();
+        }
+
+        return cryptoContext;
+    }
+
+    /**
+     * Get the key version at the start of the blob, without allocating for the known versions.
+     */
+    private static String getKeyVersion(final byte[] blob) throws IOException {
+        if (regionMatches(blob, VERSION_ANDROID_KEY_STORE)) {
+            return VERSION_ANDROID_KEY_STORE;
+        }
+
+        if (regionMatches(blob, VERSION_USER_DEFINED)) {
+            return VERSION_USER_DEFINED;
+        }
+
+        return new String(blob, 0, KEY_VERSION_BLOB_LENGTH, AuthenticationConstants.ENCODING_UTF8);
+    }
+
+    private static boolean regionMatches(final byte[] blob, final String keyVersion) {
+        for (int i = 0; i < KEY_VERSION_BLOB_LENGTH; i++) {
+            if (blob[i] != keyVersion.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int getBase64Length(final int length) {
+        return (length + BASE64_GROUP_BYTES - 1) / BASE64_GROUP_BYTES * BASE64_GROUP_CHARS;
+    }
+
+    /**
+     * Base64 encodes the bytes with padding and without wrapping, same as
+     * {@link Base64#NO_WRAP}, directly into the output chars.
+     */
+    private static void encodeBase64(final byte[] input, final int length, final char[] output, final int offset) {
+        int outputIndex = offset;
+        int i = 0;
+        for (; i + BASE64_GROUP_BYTES <= length; i += BASE64_GROUP_BYTES) {
+            final int group = (input[i] & 0xff) << 16 | (input[i + 1] & 0xff) << 8 | (input[i + 2] & 0xff);
+            output[outputIndex++] = BASE64_ALPHABET[group >>> 18];
+            output[outputIndex++] = BASE64_ALPHABET[(group >>> 12) & 0x3f];
+            output[outputIndex++] = BASE64_ALPHABET[(group >>> 6) & 0x3f];
+            output[outputIndex++] = BASE64_ALPHABET[group & 0x3f];
+        }
+
+        final int remaining = length - i;
+        if (remaining > 0) {
+            final int group = (input[i] & 0xff) << 16 | (remaining > 1 ? (input[i + 1] & 0xff) << 8 : 0);
+            output[outputIndex++] = BASE64_ALPHABET[group >>> 18];
+            output[outputIndex++] = BASE64_ALPHABET[(group >>> 12) & 0x3f];
+            output[outputIndex++] = remaining > 1 ? BASE64_ALPHABET[(group >>> 6) & 0x3f] : BASE64_PADDING;
+            output[outputIndex] = BASE64_PADDING;
+        }
+    }
+
+    /**
+     * Base64 decodes the chars of the text from the offset, same as {@link Base64#DEFAULT}:
+     * chars outside of the alphabet are skipped and decoding stops at the padding.
+     */
+    private static byte[] decodeBase64(final String text, final int offset) {
+        int sextetCount = 0;
+        int end = offset;
+        for (; end < text.length(); end++) {
+            final char c = text.charAt(end);
+            if (c == BASE64_PADDING) {
+                break;
+            }
+
+            if (getBase64Value(c) >= 0) {
+                sextetCount++;
+            }
+        }
+
+        if (sextetCount % BASE64_GROUP_CHARS == 1) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+
+        final byte[] output = new byte[sextetCount * BASE64_GROUP_BYTES / BASE64_GROUP_CHARS];
+        int outputIndex = 0;
+        int group = 0;
+        int groupSize = 0;
+        for (int i = offset; i < end; i++) {
+            final int value = getBase64Value(text.charAt(i));
+            if (value < 0) {
+                continue;
+            }
+
+            group = group << 6 | value;
+            if (++groupSize == BASE64_GROUP_CHARS) {
+                output[outputIndex++] = (byte) (group >>> 16);
+                output[outputIndex++] = (byte) (group >>> 8);
+                output[outputIndex++] = (byte) group;
+                group = 0;
+                groupSize = 0;
+            }
+        }
+
+        if (groupSize == 2) {
+            output[outputIndex] = (byte) (group >>> 4);
+        } else if (groupSize == 3) {
+            output[outputIndex++] = (byte) (group >>> 10);
+            output[outputIndex] = (byte) (group >>> 2);
+        }
+
+        return output;
+    }
+
+    private static int getBase64Value(final char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+
+        if (c == '+') {
+            return 62;
+        }
+
+        return c == '/' ? 63 : -1;
+    }
+
     private char getEncodeVersionLengthPrefix() {
         return (char) ('a' + ENCODE_VERSION.length());
     }
@@ -676,4 +873,33 @@ public class StorageHelper {
         }
     }
 
-}
\ No newline at end of file
+
+    /**
+     * HMAC key and the key it was derived from.
+     */
+    private static final class DerivedHMacKey {
+        private final SecretKey mKey;
+        private final SecretKey mHMacKey;
+
+        DerivedHMacKey(final SecretKey key, final SecretKey hmacKey) {
+            mKey = key;
+            mHMacKey = hmacKey;
+        }
+    }
+
+    /**
+     * Crypto primitives reused by one thread.
+     */
+    private static final class CryptoContext {
+        private final Cipher mCipher;
+        private final Mac mMac;
+        private final byte[] mIv = new byte[DATA_KEY_LENGTH];
+        private final byte[] mMacDigest = new byte[HMAC_LENGTH];
+        private SecretKey mMacKey;
+
+        CryptoContext(final Cipher cipher, final Mac mac) {
+            mCipher = cipher;
+            mMac = mac;
+        }
+    }
+}
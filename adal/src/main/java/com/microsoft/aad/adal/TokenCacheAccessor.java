@@ -149,7 +149,7 @@ class TokenCacheAccessor {
         }
 
         if (accessTokenItem == null) {
-            Logger.v(TAG + methodName, "No access token exists.");
+            Logger.verbose(TAG, methodName, "No access token exists.");
             return null;
         }
 
@@ -157,7 +157,7 @@ class TokenCacheAccessor {
 
         if (!StringExtensions.isNullOrBlank(accessTokenItem.getAccessToken())) {
             if (TokenCacheItem.isTokenExpired(accessTokenItem.getExpiresOn())) {
-                Logger.v(TAG + methodName, "Access token exists, but already expired.");
+                Logger.verbose(TAG, methodName, "Access token exists, but already expired.");
                 return null;
             }
 
@@ -276,7 +276,7 @@ class TokenCacheAccessor {
                                     final TokenCacheItem cachedItem) throws AuthenticationException {
         final String methodName = ":updateCachedItemWithResult";
         if (result == null) {
-            Logger.v(TAG + methodName, "AuthenticationResult is null, cannot update cache.");
+            Logger.verbose(TAG, methodName, "AuthenticationResult is null, cannot update cache.");
             throw new IllegalArgumentException("result");
         }
 
@@ -286,7 +286,7 @@ class TokenCacheAccessor {
         }
 
         if (result.getStatus() == AuthenticationStatus.Succeeded) {
-            Logger.v(TAG + methodName, "Save returned AuthenticationResult into cache.");
+            Logger.verbose(TAG, methodName, "Save returned AuthenticationResult into cache.");
             if (cachedItem != null && cachedItem.getUserInfo() != null && result.getUserInfo() == null) {
                 result.setUserInfo(cachedItem.getUserInfo());
                 result.setIdToken(cachedItem.getRawIdToken());
@@ -306,7 +306,7 @@ class TokenCacheAccessor {
             }
         } else if (OAuth2ErrorCode.INVALID_GRANT.equalsIgnoreCase(result.getErrorCode())) {
             // remove Item if oauth2_error is invalid_grant
-            Logger.v(TAG + methodName, "Received INVALID_GRANT error code, remove existing cache entry.");
+            Logger.verbose(TAG, methodName, "Received INVALID_GRANT error code, remove existing cache entry.");
             removeTokenCacheItem(cachedItem, request.getResource());
         }
     }
@@ -330,22 +330,35 @@ class TokenCacheAccessor {
             return;
         }
 
+        final CacheEvent cacheEvent = new CacheEvent(EventStrings.TOKEN_CACHE_WRITE);
+        cacheEvent.setRequestId(mTelemetryRequestId);
+        Telemetry.getInstance().startEvent(mTelemetryRequestId, EventStrings.TOKEN_CACHE_WRITE);
+
+        // All the entries for the result are written together.
+        final TokenCacheBatch batch = new TokenCacheBatch();
         if (result.getUserInfo() != null) {
             // update cache entry with displayableId
             if (!StringExtensions.isNullOrBlank(result.getUserInfo().getDisplayableId())) {
-                setItemToCacheForUser(request.getResource(), request.getClientId(), result, result.getUserInfo().getDisplayableId());
+                setItemToCacheForUser(batch, cacheEvent, request.getResource(), request.getClientId(), result, result.getUserInfo().getDisplayableId());
             }
 
             // update cache entry with userId
             if (!StringExtensions.isNullOrBlank(result.getUserInfo().getUserId())) {
-                setItemToCacheForUser(request.getResource(), request.getClientId(), result, result.getUserInfo().getUserId());
+                setItemToCacheForUser(batch, cacheEvent, request.getResource(), request.getClientId(), result, result.getUserInfo().getUserId());
             }
         }
 
         // update for empty userid
-        setItemToCacheForUser(request.getResource(), request.getClientId(), result, null);
+        setItemToCacheForUser(batch, cacheEvent, request.getResource(), request.getClientId(), result, null);
+        batch.applyTo(mTokenCacheStore);
+        Telemetry.getInstance().stopEvent(mTelemetryRequestId, cacheEvent,
+                EventStrings.TOKEN_CACHE_WRITE);
     }
 
+    /**
+     * Saves the result through the common cache, which writes the entries to the default
+     * cache one at a time and so bypasses {@link ITokenCacheBatchStore#applyBatch(TokenCacheBatch)}.
+     */
     void updateTokenCacheUsingCommonCache(final AuthenticationRequest request, final AuthenticationResult result)
             throws MalformedURLException, AuthenticationException, ClientException {
         AzureActiveDirectory ad = new AzureActiveDirectory();
@@ -428,9 +441,11 @@ class TokenCacheAccessor {
                 throw new AuthenticationException(ADALError.INVALID_TOKEN_CACHE_ITEM);
         }
 
+        final TokenCacheBatch batch = new TokenCacheBatch();
         for (final String key : keys) {
-            mTokenCacheStore.removeItem(key);
+            batch.remove(key);
         }
+        batch.applyTo(mTokenCacheStore);
         Telemetry.getInstance().stopEvent(mTelemetryRequestId, cacheEvent,
                 EventStrings.TOKEN_CACHE_DELETE);
     }
@@ -468,38 +483,33 @@ class TokenCacheAccessor {
      * Ideally, if returned token is MRRT, we should not store RT along with AT. However, there may be caller taking dependency
      * on RT.
      * If the token is FRT, store three separate entries.
+     * The entries are added to the batch, which the caller applies and reports with the cache event.
      */
-    private void setItemToCacheForUser(final String resource, final String clientId, final AuthenticationResult result, final String userId) throws MalformedURLException {
+    private void setItemToCacheForUser(final TokenCacheBatch batch, final CacheEvent cacheEvent, final String resource, final String clientId, final AuthenticationResult result, final String userId) throws MalformedURLException {
         final String methodName = ":setItemToCacheForUser";
         logReturnedToken(result);
-        Logger.v(TAG + methodName, "Save regular token into cache.");
-
-        final CacheEvent cacheEvent = new CacheEvent(EventStrings.TOKEN_CACHE_WRITE);
-        cacheEvent.setRequestId(mTelemetryRequestId);
-        Telemetry.getInstance().startEvent(mTelemetryRequestId, EventStrings.TOKEN_CACHE_WRITE);
+        Logger.verbose(TAG, methodName, "Save regular token into cache.");
 
         // new tokens will only be saved into preferred cache location
-        mTokenCacheStore.setItem(CacheKey.createCacheKeyForRTEntry(getAuthorityUrlWithPreferredCache(), resource, clientId, userId),
+        batch.put(CacheKey.createCacheKeyForRTEntry(getAuthorityUrlWithPreferredCache(), resource, clientId, userId),
                 TokenCacheItem.createRegularTokenCacheItem(getAuthorityUrlWithPreferredCache(), resource, clientId, result));
         cacheEvent.setTokenTypeRT(true);
 
         // Store separate entries for MRRT.  
         if (result.getIsMultiResourceRefreshToken()) {
-            Logger.v(TAG + methodName, "Save Multi Resource Refresh token to cache.");
-            mTokenCacheStore.setItem(CacheKey.createCacheKeyForMRRT(getAuthorityUrlWithPreferredCache(), clientId, userId),
+            Logger.verbose(TAG, methodName, "Save Multi Resource Refresh token to cache.");
+            batch.put(CacheKey.createCacheKeyForMRRT(getAuthorityUrlWithPreferredCache(), clientId, userId),
                     TokenCacheItem.createMRRTTokenCacheItem(getAuthorityUrlWithPreferredCache(), clientId, result));
             cacheEvent.setTokenTypeMRRT(true);
         }
 
         // Store separate entries for FRT.
         if (!StringExtensions.isNullOrBlank(result.getFamilyClientId()) && !StringExtensions.isNullOrBlank(userId)) {
-            Logger.v(TAG + methodName, "Save Family Refresh token into cache.");
+            Logger.verbose(TAG, methodName, "Save Family Refresh token into cache.");
             final TokenCacheItem familyTokenCacheItem = TokenCacheItem.createFRRTTokenCacheItem(getAuthorityUrlWithPreferredCache(), result);
-            mTokenCacheStore.setItem(CacheKey.createCacheKeyForFRT(getAuthorityUrlWithPreferredCache(), result.getFamilyClientId(), userId), familyTokenCacheItem);
+            batch.put(CacheKey.createCacheKeyForFRT(getAuthorityUrlWithPreferredCache(), result.getFamilyClientId(), userId), familyTokenCacheItem);
             cacheEvent.setTokenTypeFRT(true);
         }
-        Telemetry.getInstance().stopEvent(mTelemetryRequestId, cacheEvent,
-                EventStrings.TOKEN_CACHE_WRITE);
     }
 
     /**
@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered puts and removes of {@link TokenCacheItem}s applied to a cache together.
+ * Stores implementing {@link ITokenCacheBatchStore} persist a batch in a single
+ * write, other stores get one call per operation.
+ */
+public final class TokenCacheBatch {
+
+    private final List<String> mKeys = new ArrayList<>();
+
+    /**
+     * Item to put at the same index as its key, null for removes.
+     */
+    private final List<TokenCacheItem> mItems = new ArrayList<>();
+
+    /**
+     * Adds a put of the item.
+     *
+     * @param key  {@link CacheKey}
+     * @param item Cache item
+     * @return this batch.
+     */
+    public TokenCacheBatch put(final String key, final TokenCacheItem item) {
+        if (key == null) {
+            throw new IllegalArgumentException("key");
+        }
+
+        if (item == null) {
+            throw new IllegalArgumentException("item");
+        }
+
+        mKeys.add(key);
+        mItems.add(item);
+        return this;
+    }
+
+    /**
+     * Adds a remove of the item with the key.
+     *
+     * @param key {@link CacheKey}
+     * @return this batch.
+     */
+    public TokenCacheBatch remove(final String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key");
+        }
+
+        mKeys.add(key);
+        mItems.add(null);
+        return this;
+    }
+
+    /**
+     * @return number of operations in the batch.
+     */
+    public int size() {
+        return mKeys.size();
+    }
+
+    /**
+     * @return true if the batch has no operation.
+     */
+    public boolean isEmpty() {
+        return mKeys.isEmpty();
+    }
+
+    /**
+     * @param index index of the operation, in the order they were added.
+     * @return {@link CacheKey} of the operation.
+     */
+    public String getKey(final int index) {
+        return mKeys.get(index);
+    }
+
+    /**
+     * @param index index of the operation, in the order they were added.
+     * @return item to put, or null if the operation is a remove.
+     */
+    public TokenCacheItem getItem(final int index) {
+        return mItems.get(index);
+    }
+
+    /**
+     * Applies the batch to the store, with a single {@link ITokenCacheBatchStore#applyBatch(TokenCacheBatch)}
+     * call if the store supports it.
+     *
+     * @param store {@link ITokenCacheStore} to apply the batch to.
+     */
+    public void applyTo(final ITokenCacheStore store) {
+        if (store instanceof ITokenCacheBatchStore) {
+            ((ITokenCacheBatchStore) store).applyBatch(this);
+        } else {
+            applyEach(store);
+        }
+    }
+
+    /**
+     * Applies the operations one at a time through {@link ITokenCacheStore#setItem(String, TokenCacheItem)}
+     * and {@link ITokenCacheStore#removeItem(String)}.
+     */
+    void applyEach(final ITokenCacheStore store) {
+        for (int i = 0; i < mKeys.size(); i++) {
+            final TokenCacheItem item = mItems.get(i);
+            if (item != null) {
+                store.setItem(mKeys.get(i), item);
+            } else {
+                store.removeItem(mKeys.get(i));
+            }
+        }
+    }
+}
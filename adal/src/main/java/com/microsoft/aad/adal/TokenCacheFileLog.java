@@ -0,0 +1,1005 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record log backing {@link FileTokenCacheStore}. Every mutation is a
+ * put or remove record protected by a checksum, so a mutation costs one small
+ * sequential append instead of rewriting the whole cache. A torn or corrupted tail
+ * left by a crash is detected on replay and cut off. Mutations are staged and
+ * committed together as one batch record, so a commit is applied entirely or not at
+ * all.
+ * <p>
+ * The log is periodically rewritten with only the live items through a temp file and
+ * a rename. The rewritten items form a checkpoint at the start of the file: a hash
+ * index of the cache keys, a string table shared by the items and one checksummed
+ * entry per item. Opening the log only reads the records appended after the
+ * checkpoint, checkpoint entries are looked up through the index and validated the
+ * first time they are accessed. Appended records are encoded with
+ * {@link TokenCacheItemCodec} against a string table of their own.
+ * <p>
+ * Logs of version 1 held Java serialized items and logs of version 2 shared one string
+ * table across all records, they are still read and {@link #isOutdated()} tells the
+ * owner to rewrite them.
+ */
+final class TokenCacheFileLog {
+
+    private static final String TAG = TokenCacheFileLog.class.getSimpleName();
+
+    private static final int LOG_MAGIC = 0x4144414C;
+
+    private static final byte LOG_VERSION_JAVA_SERIALIZED_ITEMS = 1;
+
+    private static final byte LOG_VERSION_SHARED_STRINGS = 2;
+
+    private static final byte LOG_VERSION = 3;
+
+    private static final int LEGACY_HEADER_LENGTH = 5;
+
+    /**
+     * Magic, version and end offset of the checkpoint.
+     */
+    private static final int HEADER_LENGTH = 9;
+
+    /**
+     * Type, payload length and checksum around each record payload.
+     */
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    private static final byte RECORD_PUT = 1;
+
+    private static final byte RECORD_REMOVE = 2;
+
+    private static final byte RECORD_BATCH = 3;
+
+    /**
+     * Type mixed into the checksum of the checkpoint entries.
+     */
+    private static final byte CHECKPOINT_ENTRY = 4;
+
+    /**
+     * Payload length and checksum before each checkpoint entry.
+     */
+    private static final int CHECKPOINT_ENTRY_OVERHEAD = 4 + 4;
+
+    /**
+     * Key hash and entry offset of each checkpoint index slot.
+     */
+    private static final int INDEX_SLOT_LENGTH = 4 + 4;
+
+    /**
+     * Java serialization stream magic, used by the format the cache was written in before
+     * the log.
+     */
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final int CHECKSUM_CHUNK_LENGTH = 4096;
+
+    private final File mFile;
+
+    private int mRecordCount;
+
+    private byte mVersion = LOG_VERSION;
+
+    /**
+     * Strings shared across a version 2 log, collected while replaying it.
+     */
+    private TokenCacheItemCodec.StringTable mStrings = new TokenCacheItemCodec.StringTable();
+
+    /**
+     * Mutations not committed yet, by cache key. A later mutation of the same key
+     * supersedes the staged one. Items are encoded on commit.
+     */
+    private final Map<String, TokenCacheItem> mStagedItems = new LinkedHashMap<>();
+
+    /**
+     * Format of the cache file on disk.
+     */
+    enum Format {
+        MISSING,
+        LOG,
+        JAVA_SERIALIZATION,
+        UNKNOWN
+    }
+
+    /**
+     * Receives the records of the log in the order they were written.
+     */
+    interface Replayer {
+        void onPut(String key, TokenCacheItem item);
+
+        void onRemove(String key);
+    }
+
+    /**
+     * Receives the records of the log in the order they were written, with put records
+     * pointing at their still encoded item.
+     */
+    interface LazyReplayer {
+        void onPut(String key, ItemLocation location);
+
+        void onRemove(String key);
+    }
+
+    /**
+     * Encoded item inside a memory mapped log, see {@link #decode(ItemLocation)}.
+     */
+    static final class ItemLocation {
+        private final ByteBuffer mMappedLog;
+
+        private final TokenCacheItemCodec.StringTable mStrings;
+
+        private final int mOffset;
+
+        private final int mLength;
+
+        ItemLocation(final ByteBuffer mappedLog, final TokenCacheItemCodec.StringTable strings,
+                     final int offset, final int length) {
+            mMappedLog = mappedLog;
+            mStrings = strings;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Items of the last rewrite inside a memory mapped log. Nothing is read until an item
+     * is looked up, and each entry is validated against its checksum when it is read. Not
+     * thread safe.
+     */
+    static final class Checkpoint {
+        private final ByteBuffer mMappedLog;
+
+        private final int mSlotCount;
+
+        private final int mIndexOffset;
+
+        /**
+         * Offset of the string table entry, followed by the item entries.
+         */
+        private final int mEntriesOffset;
+
+        private final int mEnd;
+
+        private final byte[] mScratch = new byte[CHECKSUM_CHUNK_LENGTH];
+
+        /**
+         * Read on first decode.
+         */
+        private TokenCacheItemCodec.StringTable mStrings;
+
+        private Checkpoint(final ByteBuffer mappedLog, final int end) throws IOException {
+            mMappedLog = mappedLog;
+            mEnd = end;
+            mIndexOffset = HEADER_LENGTH + 4;
+            if (end < mIndexOffset) {
+                throw new IOException("Malformed cache log checkpoint");
+            }
+
+            mSlotCount = mappedLog.getInt(HEADER_LENGTH);
+            if (mSlotCount <= 0 || mSlotCount > (end - mIndexOffset) / INDEX_SLOT_LENGTH) {
+                throw new IOException("Malformed cache log checkpoint");
+            }
+
+            mEntriesOffset = mIndexOffset + mSlotCount * INDEX_SLOT_LENGTH;
+        }
+
+        boolean contains(final String key) {
+            return findEntry(key) != null;
+        }
+
+        /**
+         * @return the location of the item for the key, null if the checkpoint has no valid
+         * entry for it.
+         */
+        ItemLocation get(final String key) throws IOException {
+            final Entry entry = findEntry(key);
+            return entry == null ? null : new ItemLocation(mMappedLog, getStrings(), entry.mItemOffset,
+                    entry.mItemLength);
+        }
+
+        /**
+         * Reports every valid entry as a put, corrupted entries are skipped.
+         */
+        void readAll(final LazyReplayer replayer) throws IOException {
+            for (int slot = 0; slot < mSlotCount; slot++) {
+                final int entryOffset = mMappedLog.getInt(mIndexOffset + slot * INDEX_SLOT_LENGTH + 4);
+                final Entry entry = entryOffset == 0 ? null : readEntry(entryOffset);
+                if (entry != null) {
+                    replayer.onPut(entry.mKey, new ItemLocation(mMappedLog, getStrings(), entry.mItemOffset,
+                            entry.mItemLength));
+                }
+            }
+        }
+
+        private Entry findEntry(final String key) {
+            final int hash = key.hashCode();
+            int slot = (hash & Integer.MAX_VALUE) % mSlotCount;
+            for (int probe = 0; probe < mSlotCount; probe++) {
+                final int slotOffset = mIndexOffset + slot * INDEX_SLOT_LENGTH;
+                final int entryOffset = mMappedLog.getInt(slotOffset + 4);
+                if (entryOffset == 0) {
+                    return null;
+                }
+
+                if (mMappedLog.getInt(slotOffset) == hash) {
+                    final Entry entry = readEntry(entryOffset);
+                    if (entry != null && entry.mKey.equals(key)) {
+                        return entry;
+                    }
+                }
+
+                slot = (slot + 1) % mSlotCount;
+            }
+
+            return null;
+        }
+
+        /**
+         * @return null if the entry is out of bounds or does not match its checksum.
+         */
+        private Entry readEntry(final int offset) {
+            // The first entry is the string table.
+            final int payloadOffset = offset > mEntriesOffset ? readEntryPayload(offset) : -1;
+            if (payloadOffset < 0) {
+                Logger.w(TAG, "Cache log checkpoint has a corrupted entry, dropping it. ", "",
+                        ADALError.DEVICE_FILE_CACHE_FORMAT_IS_WRONG);
+                return null;
+            }
+
+            final int payloadLength = mMappedLog.getInt(offset);
+            final ByteBuffer payload = mMappedLog.duplicate();
+            payload.limit(payloadOffset + payloadLength);
+            payload.position(payloadOffset);
+            try {
+                final String key = new DataInputStream(new ByteBufferInputStream(payload)).readUTF();
+                return new Entry(key, payload.position(), payloadOffset + payloadLength - payload.position());
+            } catch (final IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return offset of the payload of the entry, -1 if it is not valid.
+         */
+        private int readEntryPayload(final int offset) {
+            if (offset < mEntriesOffset || offset > mEnd - CHECKPOINT_ENTRY_OVERHEAD) {
+                return -1;
+            }
+
+            final int payloadOffset = offset + CHECKPOINT_ENTRY_OVERHEAD;
+            final int payloadLength = mMappedLog.getInt(offset);
+            if (payloadLength < 0 || payloadLength > mEnd - payloadOffset
+                    || mMappedLog.getInt(offset + 4) != checksum(CHECKPOINT_ENTRY, mMappedLog, payloadOffset,
+                    payloadLength, mScratch)) {
+                return -1;
+            }
+
+            return payloadOffset;
+        }
+
+        private TokenCacheItemCodec.StringTable getStrings() throws IOException {
+            if (mStrings != null) {
+                return mStrings;
+            }
+
+            final int payloadOffset = readEntryPayload(mEntriesOffset);
+            if (payloadOffset < 0) {
+                throw new IOException("Cache log checkpoint has a corrupted string table");
+            }
+
+            final ByteBuffer payload = mMappedLog.duplicate();
+            payload.limit(payloadOffset + mMappedLog.getInt(mEntriesOffset));
+            payload.position(payloadOffset);
+            final DataInputStream inputStream = new DataInputStream(new ByteBufferInputStream(payload));
+            final TokenCacheItemCodec.StringTable strings = new TokenCacheItemCodec.StringTable();
+            final int count = inputStream.readInt();
+            for (int i = 0; i < count; i++) {
+                strings.intern(inputStream.readUTF());
+            }
+
+            mStrings = strings;
+            return strings;
+        }
+    }
+
+    private static final class Entry {
+        private final String mKey;
+
+        private final int mItemOffset;
+
+        private final int mItemLength;
+
+        Entry(final String key, final int itemOffset, final int itemLength) {
+            mKey = key;
+            mItemOffset = itemOffset;
+            mItemLength = itemLength;
+        }
+    }
+
+    TokenCacheFileLog(final File file) {
+        mFile = file;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return number of records appended since the last rewrite, live or superseded.
+     */
+    int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return true if the detected or replayed log was written in an older version and
+     * has to be rewritten before records can be appended.
+     */
+    boolean isOutdated() {
+        return mVersion != LOG_VERSION;
+    }
+
+    Format detectFormat() throws IOException {
+        if (!mFile.exists() || mFile.length() == 0) {
+            return Format.MISSING;
+        }
+
+        final DataInputStream inputStream = new DataInputStream(new FileInputStream(mFile));
+        try {
+            if (mFile.length() >= LEGACY_HEADER_LENGTH) {
+                final int magic = inputStream.readInt();
+                if (magic == LOG_MAGIC) {
+                    mVersion = inputStream.readByte();
+                    return Format.LOG;
+                }
+
+                if (magic >>> 16 == JAVA_SERIALIZATION_MAGIC) {
+                    return Format.JAVA_SERIALIZATION;
+                }
+            }
+
+            return Format.UNKNOWN;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Replays all valid records of an outdated log. Records after the first torn or
+     * corrupted one are dropped and the file is truncated to the last valid record.
+     */
+    void replay(final Replayer replayer) throws IOException {
+        final String methodName = ":replay";
+        final DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)));
+        long validLength = LEGACY_HEADER_LENGTH;
+        int recordCount = 0;
+        boolean isTailCorrupted = false;
+        mStrings = new TokenCacheItemCodec.StringTable();
+        try {
+            if (inputStream.readInt() != LOG_MAGIC) {
+                throw new IOException("Not a cache log");
+            }
+
+            mVersion = inputStream.readByte();
+            if (mVersion != LOG_VERSION_SHARED_STRINGS && mVersion != LOG_VERSION_JAVA_SERIALIZED_ITEMS) {
+                throw new IOException("Unsupported cache log version");
+            }
+
+            while (true) {
+                final byte type;
+                try {
+                    type = inputStream.readByte();
+                } catch (final EOFException e) {
+                    break;
+                }
+
+                final byte[] payload;
+                try {
+                    final int length = inputStream.readInt();
+                    if (length < 0 || length > mFile.length() - validLength) {
+                        isTailCorrupted = true;
+                        break;
+                    }
+
+                    payload = new byte[length];
+                    inputStream.readFully(payload);
+                    if (inputStream.readInt() != checksum(type, payload)) {
+                        isTailCorrupted = true;
+                        break;
+                    }
+                } catch (final EOFException e) {
+                    isTailCorrupted = true;
+                    break;
+                }
+
+                if (!applyRecord(type, payload, replayer)) {
+                    isTailCorrupted = true;
+                    break;
+                }
+
+                validLength += RECORD_OVERHEAD + payload.length;
+                recordCount++;
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        if (isTailCorrupted) {
+            Logger.w(TAG + methodName, "Cache log has a corrupted tail, dropping it. ", "",
+                    ADALError.DEVICE_FILE_CACHE_FORMAT_IS_WRONG);
+            truncate(validLength);
+        }
+
+        mRecordCount = recordCount;
+    }
+
+    /**
+     * Opens a log of the current version without decoding any item: the file is memory
+     * mapped, the records appended after the checkpoint are checksummed and reported with
+     * the location of their item, and the checkpoint is returned to be read on demand.
+     * Corrupted tails are handled the same way as in {@link #replay(Replayer)}.
+     *
+     * @return the checkpoint, null if the log has none.
+     */
+    Checkpoint replayLazily(final LazyReplayer replayer) throws IOException {
+        final String methodName = ":replayLazily";
+        final MappedByteBuffer mappedLog;
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            // Mapping stays valid once the file is closed, and after it is replaced by a rename.
+            mappedLog = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+
+        if (mappedLog.remaining() < HEADER_LENGTH || mappedLog.getInt() != LOG_MAGIC
+                || mappedLog.get() != LOG_VERSION) {
+            throw new IOException("Not a cache log of the current version");
+        }
+
+        final int checkpointEnd = mappedLog.getInt();
+        if (checkpointEnd < HEADER_LENGTH || checkpointEnd > mappedLog.limit()) {
+            throw new IOException("Malformed cache log header");
+        }
+
+        final Checkpoint checkpoint = checkpointEnd > HEADER_LENGTH ? new Checkpoint(mappedLog, checkpointEnd) : null;
+        mappedLog.position(checkpointEnd);
+
+        final byte[] scratch = new byte[CHECKSUM_CHUNK_LENGTH];
+        int validLength = checkpointEnd;
+        int recordCount = 0;
+        boolean isTailCorrupted = false;
+        while (mappedLog.hasRemaining()) {
+            if (mappedLog.remaining() < RECORD_OVERHEAD) {
+                isTailCorrupted = true;
+                break;
+            }
+
+            final byte type = mappedLog.get();
+            final int length = mappedLog.getInt();
+            // Payload is followed by its checksum.
+            if (length < 0 || length > mappedLog.remaining() - 4) {
+                isTailCorrupted = true;
+                break;
+            }
+
+            final int payloadOffset = mappedLog.position();
+            final int checksum = checksum(type, mappedLog, payloadOffset, length, scratch);
+            mappedLog.position(payloadOffset + length);
+            if (mappedLog.getInt() != checksum
+                    || !scanRecord(type, mappedLog, payloadOffset, length, replayer)) {
+                isTailCorrupted = true;
+                break;
+            }
+
+            validLength = mappedLog.position();
+            recordCount++;
+        }
+
+        if (isTailCorrupted) {
+            Logger.w(TAG + methodName, "Cache log has a corrupted tail, dropping it. ", "",
+                    ADALError.DEVICE_FILE_CACHE_FORMAT_IS_WRONG);
+            // Nothing points past the valid length, so the mapping is not accessed there.
+            truncate(validLength);
+        }
+
+        mRecordCount = recordCount;
+        return checkpoint;
+    }
+
+    /**
+     * Decodes an item reported by {@link #replayLazily(LazyReplayer)} or read from its
+     * {@link Checkpoint}.
+     */
+    static TokenCacheItem decode(final ItemLocation location) throws IOException {
+        final ByteBuffer item = location.mMappedLog.duplicate();
+        item.limit(location.mOffset + location.mLength);
+        item.position(location.mOffset);
+        return TokenCacheItemCodec.decode(new DataInputStream(new ByteBufferInputStream(item)), location.mStrings);
+    }
+
+    void stagePut(final String key, final TokenCacheItem item) {
+        mStagedItems.put(key, item);
+    }
+
+    void stageRemove(final String key) {
+        mStagedItems.put(key, null);
+    }
+
+    boolean hasStagedRecords() {
+        return !mStagedItems.isEmpty();
+    }
+
+    /**
+     * Appends all staged records in a single write.
+     *
+     * @param sync true to wait until the appended records reach the storage device.
+     */
+    void commit(final boolean sync) throws IOException {
+        if (mStagedItems.isEmpty()) {
+            return;
+        }
+
+        appendStagedRecords(mFile, sync);
+        mRecordCount++;
+    }
+
+    private void appendStagedRecords(final File file, final boolean sync) throws IOException {
+        // Each record defines the strings it uses, so it can be decoded without the ones before it.
+        final TokenCacheItemCodec.StringTable strings = new TokenCacheItemCodec.StringTable();
+        final byte type;
+        final byte[] payload;
+        if (mStagedItems.size() == 1) {
+            final Map.Entry<String, TokenCacheItem> entry = mStagedItems.entrySet().iterator().next();
+            type = entry.getValue() != null ? RECORD_PUT : RECORD_REMOVE;
+            payload = encode(entry.getKey(), entry.getValue(), strings);
+        } else {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream batchStream = new DataOutputStream(bytes);
+            batchStream.writeInt(mStagedItems.size());
+            for (final Map.Entry<String, TokenCacheItem> entry : mStagedItems.entrySet()) {
+                final byte[] recordPayload = encode(entry.getKey(), entry.getValue(), strings);
+                batchStream.writeByte(entry.getValue() != null ? RECORD_PUT : RECORD_REMOVE);
+                batchStream.writeInt(recordPayload.length);
+                batchStream.write(recordPayload);
+            }
+
+            type = RECORD_BATCH;
+            payload = bytes.toByteArray();
+        }
+
+        append(file, type, payload, sync);
+        mStagedItems.clear();
+    }
+
+    /**
+     * Replaces the log with a checkpoint of the items. The new log is written next to
+     * the live file and renamed over it, so a crash leaves either the old or the new log.
+     */
+    void rewrite(final Map<String, TokenCacheItem> items) throws IOException {
+        // Items are written from their in-memory state, staged records are part of it.
+        mStagedItems.clear();
+        replaceWith(writeCheckpoint(items, TEMP_FILE_SUFFIX));
+    }
+
+    /**
+     * Writes a checkpoint of the items to a file next to the live one, to be installed with
+     * {@link #replaceWith(File)}. It doesn't use the state of the log, so records can be
+     * committed to the live file while it runs.
+     *
+     * @param tempFileSuffix suffix of the written file, writers running concurrently must use
+     *                       different ones.
+     * @return the written file.
+     */
+    File writeCheckpoint(final Map<String, TokenCacheItem> items, final String tempFileSuffix) throws IOException {
+        // Every string is defined in the table up front, so items only reference them.
+        final TokenCacheItemCodec.StringTable strings = new TokenCacheItemCodec.StringTable();
+        for (final TokenCacheItem item : items.values()) {
+            TokenCacheItemCodec.internStrings(item, strings);
+        }
+
+        final ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        final DataOutputStream stringStream = new DataOutputStream(stringBytes);
+        stringStream.writeInt(strings.size());
+        for (int i = 0; i < strings.size(); i++) {
+            stringStream.writeUTF(strings.get(i));
+        }
+
+        final byte[] stringTable = stringBytes.toByteArray();
+        final int slotCount = Math.max(1, items.size() * 2);
+        final int[] slotHashes = new int[slotCount];
+        final int[] slotOffsets = new int[slotCount];
+        final List<byte[]> entries = new ArrayList<>(items.size());
+        int offset = HEADER_LENGTH + 4 + slotCount * INDEX_SLOT_LENGTH + CHECKPOINT_ENTRY_OVERHEAD + stringTable.length;
+        for (final Map.Entry<String, TokenCacheItem> item : items.entrySet()) {
+            final byte[] entry = encode(item.getKey(), item.getValue(), strings);
+            final int hash = item.getKey().hashCode();
+            int slot = (hash & Integer.MAX_VALUE) % slotCount;
+            while (slotOffsets[slot] != 0) {
+                slot = (slot + 1) % slotCount;
+            }
+
+            slotHashes[slot] = hash;
+            slotOffsets[slot] = offset;
+            entries.add(entry);
+            offset += CHECKPOINT_ENTRY_OVERHEAD + entry.length;
+        }
+
+        final File tempFile = new File(mFile.getPath() + tempFileSuffix);
+        final FileOutputStream fileStream = new FileOutputStream(tempFile);
+        try {
+            final DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+            writeHeader(outputStream, items.isEmpty() ? HEADER_LENGTH : offset);
+            if (!items.isEmpty()) {
+                outputStream.writeInt(slotCount);
+                for (int slot = 0; slot < slotCount; slot++) {
+                    outputStream.writeInt(slotHashes[slot]);
+                    outputStream.writeInt(slotOffsets[slot]);
+                }
+
+                writeCheckpointEntry(outputStream, stringTable);
+                for (final byte[] entry : entries) {
+                    writeCheckpointEntry(outputStream, entry);
+                }
+            }
+
+            outputStream.flush();
+            fileStream.getFD().sync();
+        } finally {
+            fileStream.close();
+        }
+
+        return tempFile;
+    }
+
+    /**
+     * Replaces the live file with a checkpoint written by {@link #writeCheckpoint(Map, String)}.
+     * Records committed to the live file after the checkpoint was taken are not carried over,
+     * the staged ones are appended to the checkpoint before it replaces the live file.
+     */
+    void replaceWith(final File checkpointFile) throws IOException {
+        final int recordCount = mStagedItems.isEmpty() ? 0 : 1;
+        if (recordCount > 0) {
+            // The rename has to publish a complete log.
+            appendStagedRecords(checkpointFile, true);
+        }
+
+        if (!checkpointFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace cache file with the compacted log");
+        }
+
+        mRecordCount = recordCount;
+        mVersion = LOG_VERSION;
+    }
+
+    private static void append(final File file, final byte type, final byte[] payload, final boolean sync)
+            throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            final DataOutputStream headerStream = new DataOutputStream(new FileOutputStream(file));
+            try {
+                writeHeader(headerStream, HEADER_LENGTH);
+            } finally {
+                headerStream.close();
+            }
+        }
+
+        final FileOutputStream fileStream = new FileOutputStream(file, true);
+        try {
+            final DataOutputStream outputStream = new DataOutputStream(
+                    new BufferedOutputStream(fileStream, RECORD_OVERHEAD + payload.length));
+            writeRecord(outputStream, type, payload);
+            outputStream.flush();
+            if (sync) {
+                fileStream.getFD().sync();
+            }
+        } finally {
+            fileStream.close();
+        }
+    }
+
+    private void truncate(final long length) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param checkpointEnd offset the appended records start at.
+     */
+    private static void writeHeader(final DataOutputStream outputStream, final int checkpointEnd)
+            throws IOException {
+        outputStream.writeInt(LOG_MAGIC);
+        outputStream.writeByte(LOG_VERSION);
+        outputStream.writeInt(checkpointEnd);
+    }
+
+    private static void writeRecord(final DataOutputStream outputStream, final byte type, final byte[] payload)
+            throws IOException {
+        outputStream.writeByte(type);
+        outputStream.writeInt(payload.length);
+        outputStream.write(payload);
+        outputStream.writeInt(checksum(type, payload));
+    }
+
+    private static void writeCheckpointEntry(final DataOutputStream outputStream, final byte[] payload)
+            throws IOException {
+        outputStream.writeInt(payload.length);
+        outputStream.writeInt(checksum(CHECKPOINT_ENTRY, payload));
+        outputStream.write(payload);
+    }
+
+    private static int checksum(final byte type, final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @param item item to put, null for a remove record.
+     */
+    private static byte[] encode(final String key, final TokenCacheItem item,
+                                 final TokenCacheItemCodec.StringTable strings) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream outputStream = new DataOutputStream(bytes);
+        outputStream.writeUTF(key);
+        if (item != null) {
+            TokenCacheItemCodec.encode(outputStream, item, strings);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return false if the record can't be decoded even though its checksum matched.
+     */
+    private boolean applyRecord(final byte type, final byte[] payload, final Replayer replayer) {
+        final int stringCount = mStrings.size();
+        final List<DecodedRecord> records = new ArrayList<>();
+        try {
+            if (type == RECORD_BATCH) {
+                final DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(payload));
+                final int count = inputStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    final byte recordType = inputStream.readByte();
+                    final byte[] recordPayload = new byte[inputStream.readInt()];
+                    inputStream.readFully(recordPayload);
+                    records.add(decodeRecord(recordType, recordPayload));
+                }
+            } else {
+                records.add(decodeRecord(type, payload));
+            }
+        } catch (final IOException | ClassNotFoundException | NegativeArraySizeException e) {
+            mStrings.truncate(stringCount);
+            return false;
+        }
+
+        // Batch is applied only once all of its records decoded.
+        for (final DecodedRecord record : records) {
+            if (record.mItem != null) {
+                replayer.onPut(record.mKey, record.mItem);
+            } else {
+                replayer.onRemove(record.mKey);
+            }
+        }
+
+        return true;
+    }
+
+    private DecodedRecord decodeRecord(final byte type, final byte[] payload)
+            throws IOException, ClassNotFoundException {
+        final DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(payload));
+        final String key = inputStream.readUTF();
+        switch (type) {
+            case RECORD_PUT:
+                return new DecodedRecord(key, decodeItem(inputStream));
+            case RECORD_REMOVE:
+                return new DecodedRecord(key, null);
+            default:
+                throw new IOException("Unknown record type");
+        }
+    }
+
+    private TokenCacheItem decodeItem(final DataInputStream inputStream)
+            throws IOException, ClassNotFoundException {
+        if (mVersion == LOG_VERSION_SHARED_STRINGS) {
+            return TokenCacheItemCodec.decode(inputStream, mStrings);
+        }
+
+        final Object item = new ObjectInputStream(inputStream).readObject();
+        if (!(item instanceof TokenCacheItem)) {
+            throw new IOException("Put record does not hold a token cache item");
+        }
+
+        return (TokenCacheItem) item;
+    }
+
+    /**
+     * @return false if the record can't be read even though its checksum matched.
+     */
+    private boolean scanRecord(final byte type, final ByteBuffer mappedLog, final int offset, final int length,
+                               final LazyReplayer replayer) {
+        final TokenCacheItemCodec.StringTable strings = new TokenCacheItemCodec.StringTable();
+        final List<ScannedRecord> records = new ArrayList<>();
+        try {
+            final ByteBuffer payload = mappedLog.duplicate();
+            payload.limit(offset + length);
+            payload.position(offset);
+            if (type == RECORD_BATCH) {
+                final int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    final byte recordType = payload.get();
+                    final int recordLength = payload.getInt();
+                    final int recordOffset = payload.position();
+                    if (recordLength < 0 || recordLength > payload.remaining()) {
+                        throw new IOException("Malformed batch record");
+                    }
+
+                    records.add(scanItem(recordType, mappedLog, recordOffset, recordLength, strings));
+                    payload.position(recordOffset + recordLength);
+                }
+            } else {
+                records.add(scanItem(type, mappedLog, offset, length, strings));
+            }
+        } catch (final IOException | BufferUnderflowException e) {
+            return false;
+        }
+
+        // Batch is applied only once all of its records were read.
+        for (final ScannedRecord record : records) {
+            if (record.mLocation != null) {
+                replayer.onPut(record.mKey, record.mLocation);
+            } else {
+                replayer.onRemove(record.mKey);
+            }
+        }
+
+        return true;
+    }
+
+    private static ScannedRecord scanItem(final byte type, final ByteBuffer mappedLog, final int offset,
+                                          final int length, final TokenCacheItemCodec.StringTable strings)
+            throws IOException {
+        final ByteBuffer payload = mappedLog.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+        final DataInputStream inputStream = new DataInputStream(new ByteBufferInputStream(payload));
+        final String key = inputStream.readUTF();
+        switch (type) {
+            case RECORD_PUT:
+                final int itemOffset = payload.position();
+                // Registers the strings the item defines, the rest is decoded on first use.
+                TokenCacheItemCodec.skipItem(inputStream, strings);
+                return new ScannedRecord(key, new ItemLocation(mappedLog, strings, itemOffset,
+                        offset + length - itemOffset));
+            case RECORD_REMOVE:
+                return new ScannedRecord(key, null);
+            default:
+                throw new IOException("Unknown record type");
+        }
+    }
+
+    private static int checksum(final byte type, final ByteBuffer mappedLog, final int offset, final int length,
+                                final byte[] scratch) {
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        final ByteBuffer payload = mappedLog.duplicate();
+        payload.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            final int chunkLength = Math.min(remaining, scratch.length);
+            payload.get(scratch, 0, chunkLength);
+            crc.update(scratch, 0, chunkLength);
+            remaining -= chunkLength;
+        }
+
+        return (int) crc.getValue();
+    }
+
+    private static final class ScannedRecord {
+        private final String mKey;
+
+        /**
+         * Null for remove records.
+         */
+        private final ItemLocation mLocation;
+
+        ScannedRecord(final String key, final ItemLocation location) {
+            mKey = key;
+            mLocation = location;
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a {@link ByteBuffer}, advancing its position.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int readLength = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, readLength);
+            return readLength;
+        }
+    }
+
+    private static final class DecodedRecord {
+        private final String mKey;
+
+        /**
+         * Null for remove records.
+         */
+        private final TokenCacheItem mItem;
+
+        DecodedRecord(final String key, final TokenCacheItem item) {
+            mKey = key;
+            mItem = item;
+        }
+    }
+}
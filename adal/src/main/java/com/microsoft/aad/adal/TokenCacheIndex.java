@@ -0,0 +1,262 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decrypted, in-memory projection of the persisted token cache used to answer
+ * {@link ITokenStoreQuery} queries and {@link ITokenCacheStore#getItem(String)} lookups
+ * without decrypting every entry on each call.
+ * Each entry remembers the encrypted value it was built from so that the owner can
+ * detect entries changed outside of this projection and only re-decrypt those.
+ */
+final class TokenCacheIndex {
+
+    private static final long EXPIRY_BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<String, IndexedItem> mItems = new HashMap<>();
+
+    private final Map<String, Set<String>> mKeysByUserId = new HashMap<>();
+
+    private final Map<String, Set<String>> mKeysByResource = new HashMap<>();
+
+    private final Map<String, Set<String>> mKeysByClientId = new HashMap<>();
+
+    private final TreeMap<Long, Set<String>> mKeysByExpiryBucket = new TreeMap<>();
+
+    /**
+     * @param key            cache key of the entry.
+     * @param encryptedValue the persisted value the item was decrypted from or encrypted to.
+     * @return true if the index already holds the entry for the given persisted value.
+     */
+    synchronized boolean isCurrent(final String key, final String encryptedValue) {
+        final IndexedItem indexedItem = mItems.get(key);
+        return indexedItem != null && indexedItem.mEncryptedValue.equals(encryptedValue);
+    }
+
+    /**
+     * @param key            cache key of the entry.
+     * @param encryptedValue the persisted value of the entry.
+     * @return copy of the indexed item if it was built from the given persisted value, null otherwise.
+     */
+    synchronized TokenCacheItem getIfCurrent(final String key, final String encryptedValue) {
+        final IndexedItem indexedItem = mItems.get(key);
+        if (indexedItem == null || !indexedItem.mEncryptedValue.equals(encryptedValue)) {
+            return null;
+        }
+
+        return copyOf(indexedItem.mItem);
+    }
+
+    /**
+     * @return copy of the cache keys currently held by the index.
+     */
+    synchronized Set<String> getKeys() {
+        return new HashSet<>(mItems.keySet());
+    }
+
+    /**
+     * Adds or replaces the entry for the given key. The index keeps its own copy of the item.
+     */
+    synchronized void put(final String key, final String encryptedValue, final TokenCacheItem item) {
+        remove(key);
+
+        final TokenCacheItem indexedCopy = copyOf(item);
+        mItems.put(key, new IndexedItem(encryptedValue, indexedCopy));
+
+        if (indexedCopy.getUserInfo() != null) {
+            addKey(mKeysByUserId, indexedCopy.getUserInfo().getUserId(), key);
+        }
+
+        if (indexedCopy.getResource() != null) {
+            addKey(mKeysByResource, indexedCopy.getResource(), key);
+        }
+
+        if (indexedCopy.getClientId() != null) {
+            addKey(mKeysByClientId, indexedCopy.getClientId(), key);
+        }
+
+        final Date expiresOn = indexedCopy.getExpiresOn();
+        if (expiresOn != null) {
+            addKey(mKeysByExpiryBucket, getExpiryBucket(expiresOn), key);
+        }
+    }
+
+    synchronized void remove(final String key) {
+        final IndexedItem indexedItem = mItems.remove(key);
+        if (indexedItem == null) {
+            return;
+        }
+
+        final TokenCacheItem item = indexedItem.mItem;
+        if (item.getUserInfo() != null) {
+            removeKey(mKeysByUserId, item.getUserInfo().getUserId(), key);
+        }
+
+        if (item.getResource() != null) {
+            removeKey(mKeysByResource, item.getResource(), key);
+        }
+
+        if (item.getClientId() != null) {
+            removeKey(mKeysByClientId, item.getClientId(), key);
+        }
+
+        final Date expiresOn = item.getExpiresOn();
+        if (expiresOn != null) {
+            removeKey(mKeysByExpiryBucket, getExpiryBucket(expiresOn), key);
+        }
+    }
+
+    synchronized void clear() {
+        mItems.clear();
+        mKeysByUserId.clear();
+        mKeysByResource.clear();
+        mKeysByClientId.clear();
+        mKeysByExpiryBucket.clear();
+    }
+
+    synchronized List<TokenCacheItem> getAll() {
+        final List<TokenCacheItem> items = new ArrayList<>(mItems.size());
+        for (final IndexedItem indexedItem : mItems.values()) {
+            items.add(copyOf(indexedItem.mItem));
+        }
+
+        return items;
+    }
+
+    /**
+     * @return user ids exactly as stored, including null for items whose user info has no user id.
+     */
+    synchronized Set<String> getUniqueUserIds() {
+        return new HashSet<>(mKeysByUserId.keySet());
+    }
+
+    /**
+     * User ids are matched ignoring case, same as {@link DefaultTokenCacheStore#getTokensForUser(String)}.
+     */
+    synchronized List<TokenCacheItem> getItemsForUser(final String userId) {
+        final List<TokenCacheItem> items = new ArrayList<>();
+        for (final Map.Entry<String, Set<String>> userEntry : mKeysByUserId.entrySet()) {
+            if (userEntry.getKey() != null && userEntry.getKey().equalsIgnoreCase(userId)) {
+                addItems(items, userEntry.getValue());
+            }
+        }
+
+        return items;
+    }
+
+    synchronized List<TokenCacheItem> getItemsForResource(final String resource) {
+        final List<TokenCacheItem> items = new ArrayList<>();
+        addItems(items, mKeysByResource.get(resource));
+        return items;
+    }
+
+    synchronized List<TokenCacheItem> getItemsForClientId(final String clientId) {
+        final List<TokenCacheItem> items = new ArrayList<>();
+        addItems(items, mKeysByClientId.get(clientId));
+        return items;
+    }
+
+    /**
+     * @param validity items expiring strictly before this time are returned.
+     */
+    synchronized List<TokenCacheItem> getItemsExpiringBefore(final Date validity) {
+        final List<TokenCacheItem> items = new ArrayList<>();
+        for (final Set<String> keys : mKeysByExpiryBucket.headMap(getExpiryBucket(validity), true).values()) {
+            for (final String key : keys) {
+                final TokenCacheItem item = mItems.get(key).mItem;
+                if (item.getExpiresOn().before(validity)) {
+                    items.add(copyOf(item));
+                }
+            }
+        }
+
+        return items;
+    }
+
+    private void addItems(final List<TokenCacheItem> items, final Collection<String> keys) {
+        if (keys == null) {
+            return;
+        }
+
+        for (final String key : keys) {
+            items.add(copyOf(mItems.get(key).mItem));
+        }
+    }
+
+    private static <T> void addKey(final Map<T, Set<String>> index, final T indexKey, final String key) {
+        Set<String> keys = index.get(indexKey);
+        if (keys == null) {
+            keys = new HashSet<>();
+            index.put(indexKey, keys);
+        }
+
+        keys.add(key);
+    }
+
+    private static <T> void removeKey(final Map<T, Set<String>> index, final T indexKey, final String key) {
+        final Set<String> keys = index.get(indexKey);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+
+    private static Long getExpiryBucket(final Date date) {
+        return date.getTime() / EXPIRY_BUCKET_MILLIS;
+    }
+
+    /**
+     * Callers of the store are free to mutate returned items, so the index never hands out
+     * the instances it holds.
+     */
+    static TokenCacheItem copyOf(final TokenCacheItem item) {
+        final TokenCacheItem copy = new TokenCacheItem(item);
+        copy.setTokenUpdateTime(item.getTokenUpdateTime());
+        return copy;
+    }
+
+    private static final class IndexedItem {
+        private final String mEncryptedValue;
+
+        private final TokenCacheItem mItem;
+
+        IndexedItem(final String encryptedValue, final TokenCacheItem item) {
+            mEncryptedValue = encryptedValue;
+            mItem = item;
+        }
+    }
+}
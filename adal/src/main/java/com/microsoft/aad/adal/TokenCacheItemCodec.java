@@ -0,0 +1,315 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned, length-prefixed binary encoding of {@link TokenCacheItem} used by
+ * {@link TokenCacheFileLog}. Values repeated across items (authority, client id,
+ * resource, tenant and user identifiers) are interned in a {@link StringTable}: the
+ * first occurrence in a stream defines the string, later ones only reference it.
+ * <p>
+ * Interned fields are written first so that the string definitions of an item can be
+ * read with {@link #skipItem(DataInput, StringTable)} without decoding its tokens.
+ */
+final class TokenCacheItemCodec {
+
+    static final byte CODEC_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_MULTI_RESOURCE_REFRESH_TOKEN = 1;
+
+    private static final int FLAG_HAS_USER_INFO = 1 << 1;
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private TokenCacheItemCodec() {
+        // Utility class.
+    }
+
+    /**
+     * Strings interned in one stream, by the order they were first written.
+     */
+    static final class StringTable {
+        private final List<String> mStrings = new ArrayList<>();
+
+        private final Map<String, Integer> mIds = new HashMap<>();
+
+        int size() {
+            return mStrings.size();
+        }
+
+        /**
+         * Forgets the strings defined after the table had the given size, used when the
+         * definitions were not persisted.
+         */
+        void truncate(final int size) {
+            while (mStrings.size() > size) {
+                mIds.remove(mStrings.remove(mStrings.size() - 1));
+            }
+        }
+
+        String get(final int id) {
+            return mStrings.get(id);
+        }
+
+        /**
+         * Adds the string unless the table already has it.
+         */
+        void intern(final String value) {
+            if (value != null && !mIds.containsKey(value)) {
+                add(value);
+            }
+        }
+
+        private void add(final String value) {
+            mIds.put(value, mStrings.size());
+            mStrings.add(value);
+        }
+    }
+
+    static void encode(final DataOutput output, final TokenCacheItem item, final StringTable strings)
+            throws IOException {
+        output.writeByte(CODEC_VERSION);
+
+        final UserInfo userInfo = item.getUserInfo();
+        writeInterned(output, item.getAuthority(), strings);
+        writeInterned(output, item.getClientId(), strings);
+        writeInterned(output, item.getResource(), strings);
+        writeInterned(output, item.getTenantId(), strings);
+        writeInterned(output, item.getFamilyClientId(), strings);
+        writeInterned(output, userInfo == null ? null : userInfo.getUserId(), strings);
+        writeInterned(output, userInfo == null ? null : userInfo.getDisplayableId(), strings);
+        writeInterned(output, userInfo == null ? null : userInfo.getIdentityProvider(), strings);
+
+        int flags = 0;
+        if (item.getIsMultiResourceRefreshToken()) {
+            flags |= FLAG_MULTI_RESOURCE_REFRESH_TOKEN;
+        }
+
+        if (userInfo != null) {
+            flags |= FLAG_HAS_USER_INFO;
+        }
+
+        output.writeByte(flags);
+        writeString(output, item.getAccessToken());
+        writeString(output, item.getRefreshToken());
+        writeString(output, item.getRawIdToken());
+        writeString(output, item.getSpeRing());
+        writeDate(output, item.getExpiresOn());
+        writeDate(output, item.getExtendedExpiresOn());
+        writeDate(output, item.getTokenUpdateTime());
+
+        if (userInfo != null) {
+            writeString(output, userInfo.getGivenName());
+            writeString(output, userInfo.getFamilyName());
+        }
+    }
+
+    /**
+     * Adds the strings the item interns to the table, so that encoding it against the table
+     * only writes references.
+     */
+    static void internStrings(final TokenCacheItem item, final StringTable strings) {
+        final UserInfo userInfo = item.getUserInfo();
+        strings.intern(item.getAuthority());
+        strings.intern(item.getClientId());
+        strings.intern(item.getResource());
+        strings.intern(item.getTenantId());
+        strings.intern(item.getFamilyClientId());
+        if (userInfo != null) {
+            strings.intern(userInfo.getUserId());
+            strings.intern(userInfo.getDisplayableId());
+            strings.intern(userInfo.getIdentityProvider());
+        }
+    }
+
+    static TokenCacheItem decode(final DataInput input, final StringTable strings) throws IOException {
+        checkVersion(input);
+
+        final TokenCacheItem item = new TokenCacheItem();
+        item.setAuthority(readInterned(input, strings));
+        item.setClientId(readInterned(input, strings));
+        item.setResource(readInterned(input, strings));
+        item.setTenantId(readInterned(input, strings));
+        item.setFamilyClientId(readInterned(input, strings));
+        final String userId = readInterned(input, strings);
+        final String displayableId = readInterned(input, strings);
+        final String identityProvider = readInterned(input, strings);
+
+        final int flags = input.readByte();
+        item.setIsMultiResourceRefreshToken((flags & FLAG_MULTI_RESOURCE_REFRESH_TOKEN) != 0);
+        item.setAccessToken(readString(input));
+        item.setRefreshToken(readString(input));
+        item.setRawIdToken(readString(input));
+        item.setSpeRing(readString(input));
+        item.setExpiresOn(readDate(input));
+        item.setExtendedExpiresOn(readDate(input));
+        item.setTokenUpdateTime(readDate(input));
+
+        if ((flags & FLAG_HAS_USER_INFO) != 0) {
+            final String givenName = readString(input);
+            final String familyName = readString(input);
+            item.setUserInfo(new UserInfo(userId, givenName, familyName, identityProvider, displayableId));
+        }
+
+        return item;
+    }
+
+    /**
+     * Reads only the interned fields of an encoded item, registering the strings it
+     * defines. The remainder of the item is left unread.
+     */
+    static void skipItem(final DataInput input, final StringTable strings) throws IOException {
+        checkVersion(input);
+
+        final int internedFieldCount = 8;
+        for (int i = 0; i < internedFieldCount; i++) {
+            readInterned(input, strings);
+        }
+    }
+
+    private static void checkVersion(final DataInput input) throws IOException {
+        final byte version = input.readByte();
+        if (version != CODEC_VERSION) {
+            throw new IOException("Unsupported token cache item version " + version);
+        }
+    }
+
+    private static void writeInterned(final DataOutput output, final String value, final StringTable strings)
+            throws IOException {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+
+        final Integer id = strings.mIds.get(value);
+        if (id != null) {
+            writeVarInt(output, (id + 1) << 1);
+        } else {
+            // The lowest bit marks the occurrence defining the string, followed by its value.
+            writeVarInt(output, ((strings.size() + 1) << 1) | 1);
+            writeString(output, value);
+            strings.add(value);
+        }
+    }
+
+    private static String readInterned(final DataInput input, final StringTable strings) throws IOException {
+        final int tag = readVarInt(input);
+        if (tag == 0) {
+            return null;
+        }
+
+        final int id = (tag >>> 1) - 1;
+        if ((tag & 1) == 0) {
+            if (id >= strings.size()) {
+                throw new IOException("Reference to undefined string");
+            }
+
+            return strings.mStrings.get(id);
+        }
+
+        final String value = readString(input);
+        if (id == strings.size()) {
+            strings.add(value);
+            return value;
+        }
+
+        if (id < strings.size()) {
+            // Item decoded again after the table was built, e.g. lazily after a full scan.
+            return strings.mStrings.get(id);
+        }
+
+        throw new IOException("Reference to undefined string");
+    }
+
+    private static void writeString(final DataOutput output, final String value) throws IOException {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(UTF8);
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    private static String readString(final DataInput input) throws IOException {
+        final int length = readVarInt(input) - 1;
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeDate(final DataOutput output, final Date date) throws IOException {
+        output.writeLong(date == null ? NULL_DATE : date.getTime());
+    }
+
+    private static Date readDate(final DataInput input) throws IOException {
+        final long time = input.readLong();
+        return time == NULL_DATE ? null : new Date(time);
+    }
+
+    private static void writeVarInt(final DataOutput output, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            output.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+
+        output.writeByte(remaining);
+    }
+
+    private static int readVarInt(final DataInput input) throws IOException {
+        final int maxShift = 28;
+        int value = 0;
+        for (int shift = 0; shift <= maxShift; shift += 7) {
+            final byte b = input.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Malformed length");
+                }
+
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed length");
+    }
+}
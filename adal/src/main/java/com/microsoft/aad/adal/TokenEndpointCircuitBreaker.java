@@ -0,0 +1,126 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for the token endpoint hosts. After consecutive failures of a host, token requests
+ * to it are short-circuited for a cool-down period instead of waiting for the connection to time out.
+ * Once the cool-down is over, a single request is let through to probe the host: success closes the
+ * circuit again, failure starts another cool-down.
+ */
+final class TokenEndpointCircuitBreaker {
+    private static final String TAG = TokenEndpointCircuitBreaker.class.getSimpleName();
+
+    static final int FAILURE_THRESHOLD = 5;
+
+    static final long COOL_DOWN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static ConcurrentMap<String, HostState> sHostStates = new ConcurrentHashMap<>();
+
+    private TokenEndpointCircuitBreaker() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * @return true if a request can be sent to the host. Every allowed request has to be
+     * followed by {@link #recordSuccess(String)} or {@link #recordFailure(String)}.
+     */
+    static boolean allowRequest(final String host) {
+        final HostState state = sHostStates.get(host);
+        return state == null || state.allowRequest(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Records that the host responded, which closes its circuit.
+     */
+    static void recordSuccess(final String host) {
+        if (sHostStates.remove(host) != null) {
+            Logger.v(TAG + ":recordSuccess", "Token endpoint is responding again.", host, null);
+        }
+    }
+
+    /**
+     * Records that the host timed out, could not be reached or failed with a server error.
+     */
+    static void recordFailure(final String host) {
+        HostState state = sHostStates.get(host);
+        if (state == null) {
+            final HostState newState = new HostState();
+            state = sHostStates.putIfAbsent(host, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+
+        if (state.recordFailure(SystemClock.elapsedRealtime())) {
+            Logger.w(TAG + ":recordFailure", "Token endpoint keeps failing, requests are short-circuited for "
+                    + COOL_DOWN_MILLIS + " ms.", host, ADALError.SERVER_ERROR);
+        }
+    }
+
+    static void clear() {
+        sHostStates.clear();
+    }
+
+    private static final class HostState {
+        private int mConsecutiveFailures;
+
+        private long mOpenUntil;
+
+        private boolean mIsProbeInFlight;
+
+        synchronized boolean allowRequest(final long now) {
+            if (mConsecutiveFailures < FAILURE_THRESHOLD) {
+                return true;
+            }
+
+            if (now < mOpenUntil || mIsProbeInFlight) {
+                return false;
+            }
+
+            mIsProbeInFlight = true;
+            return true;
+        }
+
+        /**
+         * @return true if the failure opened the circuit.
+         */
+        synchronized boolean recordFailure(final long now) {
+            mConsecutiveFailures++;
+            mIsProbeInFlight = false;
+            if (mConsecutiveFailures < FAILURE_THRESHOLD) {
+                return false;
+            }
+
+            mOpenUntil = now + COOL_DOWN_MILLIS;
+            return true;
+        }
+    }
+}
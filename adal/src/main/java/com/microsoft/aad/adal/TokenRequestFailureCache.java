@@ -0,0 +1,153 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.os.SystemClock;
+import android.util.Base64;
+
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of definitive token request failures. A refresh token rejected by the server,
+ * for example with interaction_required, is rejected again if it is sent right away; the cached
+ * failure is returned instead of another round trip. The refresh token is only kept as a hash.
+ */
+final class TokenRequestFailureCache {
+    private static final String TAG = TokenRequestFailureCache.class.getSimpleName();
+
+    static final long TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * OAuth2 errors which cannot be resolved by sending the same request again.
+     */
+    private static final Set<String> DEFINITIVE_ERRORS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "interaction_required", "invalid_grant", "unauthorized_client", "invalid_client")));
+
+    private static final Map<String, Failure> FAILURES = new LinkedHashMap<String, Failure>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Failure> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private TokenRequestFailureCache() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * @return key of a refresh token request, null if it cannot be computed.
+     */
+    static String getKey(final String tokenEndpoint, final AuthenticationRequest request, final String refreshToken) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final String key = tokenEndpoint.toLowerCase(Locale.US) + '\n' + request.getClientId()
+                    + '\n' + request.getResource() + '\n' + request.getClaimsChallenge() + '\n' + refreshToken;
+            return Base64.encodeToString(digest.digest(key.getBytes(AuthenticationConstants.ENCODING_UTF8)),
+                    Base64.NO_WRAP);
+        } catch (final NoSuchAlgorithmException | UnsupportedEncodingException exception) {
+            Logger.w(TAG + ":getKey", "Failed to compute the key, failures are not cached.",
+                    exception.getMessage(), null);
+            return null;
+        }
+    }
+
+    /**
+     * @return a new result with the cached failure, null if no recent definitive failure is cached.
+     */
+    static AuthenticationResult get(final String key) {
+        if (key == null) {
+            return null;
+        }
+
+        final Failure failure;
+        synchronized (FAILURES) {
+            failure = FAILURES.get(key);
+            if (failure == null) {
+                return null;
+            }
+
+            if (SystemClock.elapsedRealtime() - failure.mCreated > TIME_TO_LIVE_MILLIS) {
+                FAILURES.remove(key);
+                return null;
+            }
+        }
+
+        Logger.verbose(TAG, ":get", "Returning cached failure instead of sending the request again. Error code: ",
+                failure.mErrorCode);
+        return new AuthenticationResult(failure.mErrorCode, failure.mErrorDescription, failure.mErrorCodes);
+    }
+
+    /**
+     * Caches the result if it is a definitive failure.
+     */
+    static void put(final String key, final AuthenticationResult result) {
+        if (key == null || result == null || result.getErrorCode() == null
+                || !DEFINITIVE_ERRORS.contains(result.getErrorCode().toLowerCase(Locale.US))) {
+            return;
+        }
+
+        final Failure failure = new Failure(result.getErrorCode(), result.getErrorDescription(), result.mErrorCodes,
+                SystemClock.elapsedRealtime());
+        synchronized (FAILURES) {
+            FAILURES.put(key, failure);
+        }
+    }
+
+    static void clear() {
+        synchronized (FAILURES) {
+            FAILURES.clear();
+        }
+    }
+
+    private static final class Failure {
+        private final String mErrorCode;
+
+        private final String mErrorDescription;
+
+        private final String mErrorCodes;
+
+        private final long mCreated;
+
+        Failure(final String errorCode, final String errorDescription, final String errorCodes, final long created) {
+            mErrorCode = errorCode;
+            mErrorDescription = errorDescription;
+            mErrorCodes = errorCodes;
+            mCreated = created;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import com.microsoft.identity.common.adal.internal.net.HttpWebResponse;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides if and when a failed token request is sent again. Retries back off exponentially with
+ * jitter, unless the server asks for a delay with the Retry-After header. No retry is attempted
+ * once the attempts are used up or the next attempt would start after the request deadline.
+ */
+final class TokenRequestRetryPolicy {
+    private static final String TAG = TokenRequestRetryPolicy.class.getSimpleName();
+
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_RETRYABLE_ERROR_CODE = 599;
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private static final Random JITTER = new Random();
+
+    private final int mMaxAttempts;
+
+    private final long mInitialDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    private final long mDeadlineMillis;
+
+    /**
+     * @param maxAttempts        total number of attempts, including the first one.
+     * @param initialDelayMillis delay before the first retry, doubled for every further retry.
+     * @param maxDelayMillis     upper bound of the backoff delay.
+     * @param deadlineMillis     time after the first attempt when no further attempt is started.
+     */
+    TokenRequestRetryPolicy(final int maxAttempts, final long initialDelayMillis, final long maxDelayMillis,
+                            final long deadlineMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts");
+        }
+
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("delay");
+        }
+
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("deadlineMillis");
+        }
+
+        mMaxAttempts = maxAttempts;
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mDeadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return the policy configured in {@link AuthenticationSettings}.
+     */
+    static TokenRequestRetryPolicy fromSettings() {
+        final AuthenticationSettings settings = AuthenticationSettings.INSTANCE;
+        return new TokenRequestRetryPolicy(settings.getMaxTokenRequestAttempts(),
+                settings.getTokenRequestRetryDelay(), settings.getTokenRequestMaxRetryDelay(),
+                settings.getTokenRequestDeadline());
+    }
+
+    /**
+     * @return true if the status code reports throttling or a transient server error.
+     */
+    static boolean isRetryableStatus(final int statusCode) {
+        return statusCode == HTTP_TOO_MANY_REQUESTS
+                || (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR && statusCode <= MAX_RETRYABLE_ERROR_CODE);
+    }
+
+    /**
+     * @param attempt       number of attempts already made.
+     * @param elapsedMillis time since the first attempt started.
+     * @param response      the failed response, null if no response was received.
+     * @return the delay in milliseconds before the next attempt, -1 if the request should not be retried.
+     */
+    long getRetryDelayMillis(final int attempt, final long elapsedMillis, final HttpWebResponse response) {
+        final String methodName = ":getRetryDelayMillis";
+        if (attempt >= mMaxAttempts) {
+            Logger.verbose(TAG, methodName, "No retry left, attempts: ", attempt);
+            return -1;
+        }
+
+        long delayMillis = getRetryAfterMillis(response, System.currentTimeMillis());
+        if (delayMillis < 0) {
+            delayMillis = getBackoffMillis(attempt);
+        } else {
+            Logger.verbose(TAG, methodName, "Server asked to retry after ms: ", delayMillis);
+        }
+
+        if (elapsedMillis + delayMillis > mDeadlineMillis) {
+            Logger.verbose(TAG, methodName, "Retry would exceed the request deadline, retry delay ms: ", delayMillis);
+            return -1;
+        }
+
+        return delayMillis;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half is random
+     * so that clients failing together do not retry together.
+     */
+    private long getBackoffMillis(final int attempt) {
+        long delayMillis = mInitialDelayMillis;
+        for (int i = 1; i < attempt && delayMillis < mMaxDelayMillis; i++) {
+            delayMillis = delayMillis > mMaxDelayMillis / 2 ? mMaxDelayMillis : delayMillis * 2;
+        }
+
+        final long halfDelayMillis = delayMillis / 2;
+        return halfDelayMillis + (long) (JITTER.nextDouble() * (delayMillis - halfDelayMillis));
+    }
+
+    /**
+     * @return the delay requested with the Retry-After header of the response, -1 if there is none.
+     * The header value is either a number of seconds or an HTTP date.
+     */
+    static long getRetryAfterMillis(final HttpWebResponse response, final long nowMillis) {
+        if (response == null || !isRetryableStatus(response.getStatusCode())
+                || response.getResponseHeaders() == null) {
+            return -1;
+        }
+
+        String retryAfter = null;
+        for (final Map.Entry<String, List<String>> header : response.getResponseHeaders().entrySet()) {
+            if (RETRY_AFTER_HEADER.equalsIgnoreCase(header.getKey())
+                    && header.getValue() != null && !header.getValue().isEmpty()) {
+                retryAfter = header.getValue().get(0);
+                break;
+            }
+        }
+
+        if (retryAfter == null) {
+            return -1;
+        }
+
+        retryAfter = retryAfter.trim();
+        try {
+            final long seconds = Long.parseLong(retryAfter);
+            return seconds < 0 ? -1 : seconds * MILLIS_PER_SECOND;
+        } catch (final NumberFormatException exception) {
+            final SimpleDateFormat dateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                final Date retryDate = dateFormat.parse(retryAfter);
+                return Math.max(0, retryDate.getTime() - nowMillis);
+            } catch (final ParseException parseException) {
+                Logger.verbose(TAG, ":getRetryAfterMillis", "Ignoring invalid Retry-After header.");
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+// Copyright (c) Microsoft Corporation.
+// All rights reserved.
+//
+// This code is licensed under the MIT License.
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files(the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and / or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions :
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.microsoft.aad.adal;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.microsoft.identity.common.adal.internal.AuthenticationConstants;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass parser for token endpoint responses. Unlike {@link Oauth2#extractJsonObjects(Map, String)},
+ * it does not build a {@link JSONObject} tree of the whole body and skips the members ADAL does not read,
+ * so only the tokens and the handful of scalar fields of the response are materialized.
+ * The values are kept in the same string form {@link JSONObject#getString(String)} returns.
+ */
+final class TokenResponseParser {
+
+    /**
+     * Members of the token response read by {@link Oauth2#processUIResponseParams(Map)}.
+     */
+    private static final Set<String> RESPONSE_MEMBERS = new HashSet<>(Arrays.asList(
+            AuthenticationConstants.OAuth2.ERROR,
+            AuthenticationConstants.OAuth2.ERROR_DESCRIPTION,
+            AuthenticationConstants.OAuth2.ERROR_CODES,
+            AuthenticationConstants.AAD.CORRELATION_ID,
+            AuthenticationConstants.OAuth2.CODE,
+            AuthenticationConstants.OAuth2.CLOUD_INSTANCE_HOST_NAME,
+            AuthenticationConstants.OAuth2.ACCESS_TOKEN,
+            AuthenticationConstants.OAuth2.EXPIRES_IN,
+            AuthenticationConstants.OAuth2.EXT_EXPIRES_IN,
+            AuthenticationConstants.OAuth2.REFRESH_TOKEN,
+            AuthenticationConstants.AAD.RESOURCE,
+            AuthenticationConstants.OAuth2.ID_TOKEN,
+            AuthenticationConstants.OAuth2.ADAL_CLIENT_FAMILY_ID,
+            AuthenticationConstants.OAuth2.CLIENT_INFO));
+
+    private TokenResponseParser() {
+        // Utility class, no public constructor
+    }
+
+    /**
+     * @param responseBody JSON object returned by the token endpoint.
+     * @return The members of the response ADAL reads. Null and object members are left out, none of the
+     * members ADAL reads is an object.
+     * @throws JSONException if the body is not a JSON object.
+     */
+    static Map<String, String> parse(final String responseBody) throws JSONException {
+        if (responseBody == null) {
+            throw new JSONException("Response body is null");
+        }
+
+        final Map<String, String> responseItems = new HashMap<>(RESPONSE_MEMBERS.size() * 2);
+        final JsonReader reader = new JsonReader(new StringReader(responseBody));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                final JsonToken token = reader.peek();
+                if (!RESPONSE_MEMBERS.contains(name) || token == JsonToken.NULL || token == JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                responseItems.put(name, readValue(reader));
+            }
+            reader.endObject();
+        } catch (final IOException | IllegalStateException | NumberFormatException exception) {
+            // JsonReader reports malformed input as MalformedJsonException or IllegalStateException
+            final JSONException jsonException = new JSONException("Can't parse token response: "
+                    + exception.getMessage());
+            jsonException.initCause(exception);
+            throw jsonException;
+        } finally {
+            closeQuietly(reader);
+        }
+
+        return responseItems;
+    }
+
+    /**
+     * Reads the next value as a string. Numbers keep their literal form and arrays are written back
+     * compactly, which matches what {@link JSONObject#getString(String)} returns for them.
+     */
+    private static String readValue(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case BEGIN_ARRAY:
+                final StringBuilder builder = new StringBuilder().append('[');
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (builder.length() > 1) {
+                        builder.append(',');
+                    }
+
+                    builder.append(readArrayElement(reader));
+                }
+                reader.endArray();
+                return builder.append(']').toString();
+            default:
+                // Strings and numbers
+                return reader.nextString();
+        }
+    }
+
+    private static String readArrayElement(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+                return JSONObject.quote(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return "null";
+            case NUMBER:
+            case BOOLEAN:
+                return readValue(reader);
+            default:
+                throw new IllegalStateException("Unexpected nested value in token response");
+        }
+    }
+
+    private static void closeQuietly(final JsonReader reader) {
+        try {
+            reader.close();
+        } catch (final IOException ignored) {
+            // Closing a reader over a string cannot fail
+        }
+    }
+}
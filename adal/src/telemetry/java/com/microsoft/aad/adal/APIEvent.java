@@ -30,7 +30,6 @@ import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -187,10 +186,10 @@ final class APIEvent extends DefaultEvent {
     @Override
     public void processEvent(final Map<String, String> dispatchMap) {
         super.processEvent(dispatchMap);
-        final List<Map.Entry<String, String>> eventList = getEventList();
 
-        for (Map.Entry<String, String> eventKeyValuePair : eventList) {
-            final String name = eventKeyValuePair.getKey();
+        final int propertyCount = getPropertyCount();
+        for (int i = 0; i < propertyCount; i++) {
+            final String name = getPropertyName(i);
 
             // API Event specific parameters, push all except the time values
             if (name.equals(EventStrings.AUTHORITY_TYPE) || name.equals(EventStrings.API_DEPRECATED)
@@ -204,7 +203,7 @@ final class APIEvent extends DefaultEvent {
                     || name.equals(EventStrings.API_ERROR_CODE) || name.equals(EventStrings.SERVER_ERROR_CODE)
                     || name.equals(EventStrings.SERVER_SUBERROR_CODE) || name.equals(EventStrings.TOKEN_AGE)
                     || name.equals(EventStrings.SPE_INFO)) {
-                dispatchMap.put(name, eventKeyValuePair.getValue());
+                dispatchMap.put(name, getPropertyValue(i));
             }
         }
     }
@@ -25,7 +25,6 @@ package com.microsoft.aad.adal;
 
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -85,13 +84,12 @@ final class BrokerEvent extends DefaultEvent {
 
     @Override
     public void processEvent(final Map<String, String> dispatchMap) {
-        final List<Map.Entry<String, String>> eventList = getEventList();
-
         dispatchMap.put(EventStrings.BROKER_APP_USED, Boolean.toString(true));
-        for (Map.Entry<String, String> eventKeyValuePair : eventList) {
-            final String name = eventKeyValuePair.getKey();
+        final int propertyCount = getPropertyCount();
+        for (int i = 0; i < propertyCount; i++) {
+            final String name = getPropertyName(i);
             if (!name.equals(EventStrings.EVENT_NAME)) {
-                dispatchMap.put(eventKeyValuePair.getKey(), eventKeyValuePair.getValue());
+                dispatchMap.put(name, getPropertyValue(i));
             }
         }
     }
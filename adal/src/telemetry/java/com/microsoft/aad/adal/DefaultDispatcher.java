@@ -55,11 +55,11 @@ class DefaultDispatcher {
             return;
         }
 
-        final Map<String, String> dispatchMap = new HashMap<>();
-        final List<Map.Entry<String, String>> eventList = events.getEvents();
+        final int count = events.getPropertyCount();
+        final Map<String, String> dispatchMap = new HashMap<>(count * 2);
 
-        for (final Map.Entry<String, String> event : eventList) {
-            dispatchMap.put(event.getKey(), event.getValue());
+        for (int i = 0; i < count; i++) {
+            dispatchMap.put(events.getPropertyName(i), events.getPropertyValue(i));
         }
 
         mDispatcher.dispatchEvent(dispatchMap);
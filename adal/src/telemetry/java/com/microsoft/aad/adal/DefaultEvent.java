@@ -33,15 +33,37 @@ import android.text.TextUtils;
 
 import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
 import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 
 class DefaultEvent implements IEvents {
-    private final List<Map.Entry<String, String>> mEventList;
+    // Properties are kept in two parallel arrays rather than a list of entries so that recording a
+    // property does not allocate; entries are only created if a caller asks for the list view.
+    private String[] mPropertyNames;
+
+    private String[] mPropertyValues;
+
+    private int mPropertyCount;
+
+    private final List<Map.Entry<String, String>> mEventList = new AbstractList<Map.Entry<String, String>>() {
+        @Override
+        public Map.Entry<String, String> get(final int index) {
+            if (index < 0 || index >= mPropertyCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mPropertyCount);
+            }
+
+            return new AbstractMap.SimpleImmutableEntry<>(mPropertyNames[index], mPropertyValues[index]);
+        }
+
+        @Override
+        public int size() {
+            return mPropertyCount;
+        }
+    };
 
     private static String sApplicationName = null;
 
@@ -58,7 +80,8 @@ class DefaultEvent implements IEvents {
     private int mDefaultEventCount;
 
     DefaultEvent() {
-        mEventList = new ArrayList<>(EVENT_LIST_SIZE);
+        mPropertyNames = new String[EVENT_LIST_SIZE];
+        mPropertyValues = new String[EVENT_LIST_SIZE];
 
         // Keying off Application name not being null to decide if the defaults have been set
         if (sApplicationName != null) {
@@ -66,7 +89,7 @@ class DefaultEvent implements IEvents {
             setProperty(EventStrings.APPLICATION_VERSION, sApplicationVersion);
             setProperty(EventStrings.CLIENT_ID, sClientId);
             setProperty(EventStrings.DEVICE_ID, sDeviceId);
-            mDefaultEventCount = mEventList.size();
+            mDefaultEventCount = mPropertyCount;
         }
     }
 
@@ -85,12 +108,27 @@ class DefaultEvent implements IEvents {
             return;
         }
 
-        mEventList.add(new AbstractMap.SimpleEntry<>(name, value));
+        addProperty(name, value);
     }
 
     @Override
     public List<Map.Entry<String, String>> getEvents() {
-        return Collections.unmodifiableList(mEventList);
+        return mEventList;
+    }
+
+    @Override
+    public int getPropertyCount() {
+        return mPropertyCount;
+    }
+
+    @Override
+    public String getPropertyName(final int index) {
+        return mPropertyNames[index];
+    }
+
+    @Override
+    public String getPropertyValue(final int index) {
+        return mPropertyValues[index];
     }
 
     /**
@@ -137,22 +175,46 @@ class DefaultEvent implements IEvents {
             setProperty(EventStrings.APPLICATION_VERSION, sApplicationVersion);
             setProperty(EventStrings.CLIENT_ID, sClientId);
             setProperty(EventStrings.DEVICE_ID, sDeviceId);
-            mDefaultEventCount = mEventList.size();
+            mDefaultEventCount = mPropertyCount;
         }
     }
 
     // Sets the correlation id to the top of the list
     void setCorrelationId(final String correlationId) {
-        mEventList.add(0, new AbstractMap.SimpleEntry<>(EventStrings.CORRELATION_ID, correlationId));
+        insertProperty(0, EventStrings.CORRELATION_ID, correlationId);
         mDefaultEventCount++;
     }
 
     void setRequestId(final String requestId) {
         mRequestId = requestId;
-        mEventList.add(0, new AbstractMap.SimpleEntry<>(EventStrings.REQUEST_ID, requestId));
+        insertProperty(0, EventStrings.REQUEST_ID, requestId);
         mDefaultEventCount++;
     }
 
+    /**
+     * Appends a property without the name and privacy checks done by {@link #setProperty(String, String)}.
+     */
+    void addProperty(final String name, final String value) {
+        insertProperty(mPropertyCount, name, value);
+    }
+
+    private void insertProperty(final int index, final String name, final String value) {
+        if (mPropertyCount == mPropertyNames.length) {
+            final int newLength = mPropertyNames.length * 2;
+            mPropertyNames = Arrays.copyOf(mPropertyNames, newLength);
+            mPropertyValues = Arrays.copyOf(mPropertyValues, newLength);
+        }
+
+        if (index < mPropertyCount) {
+            System.arraycopy(mPropertyNames, index, mPropertyNames, index + 1, mPropertyCount - index);
+            System.arraycopy(mPropertyValues, index, mPropertyValues, index + 1, mPropertyCount - index);
+        }
+
+        mPropertyNames[index] = name;
+        mPropertyValues[index] = value;
+        mPropertyCount++;
+    }
+
     List<Map.Entry<String, String>> getEventList() {
         return mEventList;
     }
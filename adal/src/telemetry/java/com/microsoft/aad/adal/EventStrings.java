@@ -140,6 +140,8 @@ final class EventStrings {
 
     static final String HTTP_API_VERSION = EVENT_PREFIX + "api_version";
 
+    static final String HTTP_ATTEMPT = EVENT_PREFIX + "http_attempt";
+
     static final String REQUEST_ID_HEADER = EVENT_PREFIX + "x_ms_request_id";
 
     static final String SERVER_ERROR_CODE = EVENT_PREFIX + "server_error_code";
@@ -174,6 +176,10 @@ final class EventStrings {
 
     static final String ACQUIRE_TOKEN_SILENT_SYNC_CLAIMS_CHALLENGE = "15";
 
+    static final String ACQUIRE_TOKENS_SILENT_SYNC = "17";
+
+    static final String PREFETCH = "18";
+
     static final String ACQUIRE_TOKEN_SILENT = "2";
 
     static final String ACQUIRE_TOKEN_SILENT_ASYNC = "3";
@@ -182,6 +188,8 @@ final class EventStrings {
 
     static final String ACQUIRE_TOKEN_SILENT_ASYNC_CLAIMS_CHALLENGE = "16";
 
+    static final String ACQUIRE_TOKEN_SILENT_ASYNC_WITH_DEADLINE = "19";
+
     static final String ACQUIRE_TOKEN_WITH_REFRESH_TOKEN = "4";
 
     static final String ACQUIRE_TOKEN_WITH_REFRESH_TOKEN_2 = "5";
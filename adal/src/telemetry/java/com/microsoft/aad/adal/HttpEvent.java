@@ -26,8 +26,6 @@ package com.microsoft.aad.adal;
 import com.microsoft.identity.common.adal.internal.util.StringExtensions;
 
 import java.net.URL;
-import java.util.AbstractMap;
-import java.util.List;
 import java.util.Map;
 
 import static com.microsoft.aad.adal.TelemetryUtils.CliTelemInfo;
@@ -37,7 +35,7 @@ final class HttpEvent extends DefaultEvent {
     private static final String TAG = HttpEvent.class.getSimpleName();
 
     HttpEvent(final String eventName) {
-        getEventList().add(new AbstractMap.SimpleEntry<>(EventStrings.EVENT_NAME, eventName));
+        addProperty(EventStrings.EVENT_NAME, eventName);
     }
 
     void setUserAgent(final String userAgent) {
@@ -56,6 +54,10 @@ final class HttpEvent extends DefaultEvent {
         setProperty(EventStrings.HTTP_RESPONSE_CODE, String.valueOf(responseCode));
     }
 
+    void setAttempt(final int attempt) {
+        setProperty(EventStrings.HTTP_ATTEMPT, String.valueOf(attempt));
+    }
+
     void setApiVersion(final String apiVersion) {
         setProperty(EventStrings.HTTP_API_VERSION, apiVersion);
     }
@@ -151,6 +153,10 @@ final class HttpEvent extends DefaultEvent {
             dispatchMap.put(EventStrings.HTTP_RESPONSE_CODE, "");
         }
 
+        if (dispatchMap.containsKey(EventStrings.HTTP_ATTEMPT)) {
+            dispatchMap.put(EventStrings.HTTP_ATTEMPT, "");
+        }
+
         if (dispatchMap.containsKey(EventStrings.OAUTH_ERROR_CODE)) {
             dispatchMap.put(EventStrings.OAUTH_ERROR_CODE, "");
         }
@@ -179,11 +185,12 @@ final class HttpEvent extends DefaultEvent {
             dispatchMap.remove(EventStrings.SPE_INFO);
         }
 
-        final List<Map.Entry<String, String>> eventList = getEventList();
-        for (Map.Entry<String, String> eventKeyValuePair : eventList) {
-            final String name = eventKeyValuePair.getKey();
+        final int propertyCount = getPropertyCount();
+        for (int i = 0; i < propertyCount; i++) {
+            final String name = getPropertyName(i);
 
             if (name.equals(EventStrings.HTTP_RESPONSE_CODE)
+                    || name.equals(EventStrings.HTTP_ATTEMPT)
                     || name.equals(EventStrings.REQUEST_ID_HEADER)
                     || name.equals(EventStrings.OAUTH_ERROR_CODE)
                     || name.equals(EventStrings.HTTP_PATH)
@@ -191,7 +198,7 @@ final class HttpEvent extends DefaultEvent {
                     || name.equals(EventStrings.SERVER_SUBERROR_CODE)
                     || name.equals(EventStrings.TOKEN_AGE)
                     || name.equals(EventStrings.SPE_INFO)) {
-                dispatchMap.put(name, eventKeyValuePair.getValue());
+                dispatchMap.put(name, getPropertyValue(i));
             }
         }
     }
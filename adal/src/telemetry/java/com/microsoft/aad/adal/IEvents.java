@@ -31,6 +31,12 @@ interface IEvents {
 
     List<Map.Entry<String, String>> getEvents();
 
+    int getPropertyCount();
+
+    String getPropertyName(final int index);
+
+    String getPropertyValue(final int index);
+
     int getDefaultEventCount();
 
     /**
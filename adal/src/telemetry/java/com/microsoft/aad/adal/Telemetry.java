@@ -23,19 +23,18 @@
 
 package com.microsoft.aad.adal;
 
-import com.microsoft.identity.common.adal.internal.util.StringExtensions;
-
-import java.util.AbstractMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class Telemetry {
     private static final String TAG = Telemetry.class.getSimpleName();
     private DefaultDispatcher mDispatcher = null;
     private static boolean sAllowPii = false;
-    private final Map<Map.Entry<String, String>, String> mEventTracking = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RequestEvents> mEventTracking = new ConcurrentHashMap<>();
     private static final Telemetry INSTANCE = new Telemetry();
+    private static final long NANOS_PER_MILLI = 1000000L;
 
     /**
      * Method to get the singleton instance of the Telemetry object.
@@ -98,7 +97,26 @@ public final class Telemetry {
             return;
         }
 
-        mEventTracking.put(new AbstractMap.SimpleEntry<>(requestId, eventName), Long.toString(System.currentTimeMillis()));
+        final long startTime = System.currentTimeMillis();
+        final long startTimeNanos = System.nanoTime();
+        while (true) {
+            RequestEvents requestEvents = mEventTracking.get(requestId);
+            if (requestEvents == null) {
+                final RequestEvents newRequestEvents = new RequestEvents();
+                requestEvents = mEventTracking.putIfAbsent(requestId, newRequestEvents);
+                if (requestEvents == null) {
+                    requestEvents = newRequestEvents;
+                }
+            }
+
+            // A request whose last event was just stopped is retired and dropped from the map, start over with a
+            // fresh one in that case.
+            if (requestEvents.start(eventName, startTime, startTimeNanos)) {
+                return;
+            }
+
+            mEventTracking.remove(requestId, requestEvents);
+        }
     }
 
     void stopEvent(final String requestId, final IEvents events, final String eventName) {
@@ -107,24 +125,39 @@ public final class Telemetry {
             return;
         }
 
-        final String startTime = mEventTracking.remove(new AbstractMap.SimpleEntry<>(requestId, eventName));
+        final long stopTimeNanos = System.nanoTime();
+        final long stopTime = System.currentTimeMillis();
+        final RequestEvents requestEvents = mEventTracking.get(requestId);
+        final long startTime;
+        final long startTimeNanos;
 
-        // If we did not get anything back from the dictionary, most likely its a bug that stopEvent was called without
-        // a corresponding startEvent
-        if (StringExtensions.isNullOrBlank(startTime)) {
+        // If we did not find a pending start for this event, most likely its a bug that stopEvent was called
+        // without a corresponding startEvent
+        if (requestEvents == null) {
             Logger.w(TAG, "Stop Event called without a corresponding start_event", "", null);
             return;
         }
 
-        long startTimeLong = Long.parseLong(startTime);
-        long stopTimeLong  = System.currentTimeMillis();
-        long diffTime = stopTimeLong - startTimeLong;
-
-        final String stopTime = Long.toString(stopTimeLong);
+        synchronized (requestEvents) {
+            final int index = requestEvents.indexOf(eventName);
+            if (index < 0) {
+                Logger.w(TAG, "Stop Event called without a corresponding start_event", "", null);
+                return;
+            }
+
+            startTime = requestEvents.mStartTimes[index];
+            startTimeNanos = requestEvents.mStartTimesNanos[index];
+            if (requestEvents.remove(index)) {
+                mEventTracking.remove(requestId, requestEvents);
+            }
+        }
 
-        events.setProperty(EventStrings.START_TIME, startTime);
-        events.setProperty(EventStrings.STOP_TIME, stopTime);
-        events.setProperty(EventStrings.RESPONSE_TIME, Long.toString(diffTime));
+        // Response time comes from the monotonic clock so it is not skewed by wall clock adjustments, the start
+        // and stop times are still reported as wall clock timestamps.
+        final long responseTime = (stopTimeNanos - startTimeNanos) / NANOS_PER_MILLI;
+        events.setProperty(EventStrings.START_TIME, Long.toString(startTime));
+        events.setProperty(EventStrings.STOP_TIME, Long.toString(stopTime));
+        events.setProperty(EventStrings.RESPONSE_TIME, Long.toString(responseTime));
 
         mDispatcher.receive(requestId, events);
     }
@@ -134,4 +167,67 @@ public final class Telemetry {
             mDispatcher.flush(requestId);
         }
     }
+
+    /**
+     * Start times of the events that are in flight for a single request, kept in parallel arrays since a request
+     * rarely has more than a handful of events open at once. Guarded by the instance lock.
+     */
+    private static final class RequestEvents {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private String[] mEventNames = new String[INITIAL_CAPACITY];
+        private long[] mStartTimes = new long[INITIAL_CAPACITY];
+        private long[] mStartTimesNanos = new long[INITIAL_CAPACITY];
+        private int mSize;
+        private boolean mRetired;
+
+        /**
+         * @return false if this instance has been retired and must not be used anymore.
+         */
+        synchronized boolean start(final String eventName, final long startTime, final long startTimeNanos) {
+            if (mRetired) {
+                return false;
+            }
+
+            int index = indexOf(eventName);
+            if (index < 0) {
+                if (mSize == mEventNames.length) {
+                    final int newLength = mSize * 2;
+                    mEventNames = Arrays.copyOf(mEventNames, newLength);
+                    mStartTimes = Arrays.copyOf(mStartTimes, newLength);
+                    mStartTimesNanos = Arrays.copyOf(mStartTimesNanos, newLength);
+                }
+
+                index = mSize++;
+                mEventNames[index] = eventName;
+            }
+
+            mStartTimes[index] = startTime;
+            mStartTimesNanos[index] = startTimeNanos;
+            return true;
+        }
+
+        int indexOf(final String eventName) {
+            for (int i = 0; i < mSize; i++) {
+                if (mEventNames[i].equals(eventName)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * @return true if that was the last pending event, in which case this instance is retired.
+         */
+        boolean remove(final int index) {
+            final int last = --mSize;
+            mEventNames[index] = mEventNames[last];
+            mStartTimes[index] = mStartTimes[last];
+            mStartTimesNanos[index] = mStartTimesNanos[last];
+            mEventNames[last] = null;
+            mRetired = mSize == 0;
+            return mRetired;
+        }
+    }
 }
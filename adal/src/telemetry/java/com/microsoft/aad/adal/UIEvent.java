@@ -23,13 +23,11 @@
 
 package com.microsoft.aad.adal;
 
-import java.util.AbstractMap;
-import java.util.List;
 import java.util.Map;
 
 final class UIEvent extends DefaultEvent {
     UIEvent(final String eventName) {
-        getEventList().add(new AbstractMap.SimpleEntry<>(EventStrings.EVENT_NAME, eventName));
+        addProperty(EventStrings.EVENT_NAME, eventName);
     }
 
     void setRedirectCount(final Integer redirectCount) {
@@ -51,8 +49,6 @@ final class UIEvent extends DefaultEvent {
      */
     @Override
     public void processEvent(final Map<String, String> dispatchMap) {
-        final List<Map.Entry<String, String>> eventList = getEventList();
-
         // We are keeping track of the number of UI Events here, first time we insert the UI_EVENT_COUNT into the map
         // next time onwards, we read the value of it and increment by one.
         final String count = dispatchMap.get(EventStrings.UI_EVENT_COUNT);
@@ -70,11 +66,12 @@ final class UIEvent extends DefaultEvent {
             dispatchMap.put(EventStrings.NTLM, "");
         }
 
-        for (Map.Entry<String, String> eventKeyValuePair : eventList) {
-            final String name = eventKeyValuePair.getKey();
+        final int propertyCount = getPropertyCount();
+        for (int i = 0; i < propertyCount; i++) {
+            final String name = getPropertyName(i);
 
             if (name.equals(EventStrings.USER_CANCEL) || name.equals(EventStrings.NTLM)) {
-                dispatchMap.put(name, eventKeyValuePair.getValue());
+                dispatchMap.put(name, getPropertyValue(i));
             }
         }
     }